@@ -5,7 +5,6 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
@@ -13,21 +12,21 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.config.http.SessionCreationPolicy;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.session.SessionManagementFilter;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import ru.javabegin.springboot.auth.filter.AuthRateLimitFilter;
 import ru.javabegin.springboot.auth.filter.AuthTokenFilter;
 import ru.javabegin.springboot.auth.filter.ExceptionHandlerFilter;
 import ru.javabegin.springboot.auth.service.UserDetailsServiceImpl;
+import ru.javabegin.springboot.auth.utils.PasswordHasher;
+import ru.javabegin.springboot.business.util.RequestLogFilter;
 
 @Configuration
 @EnableWebSecurity(debug = true) // указывает Spring контейнеру, чтобы находил файл конфигурации в классе. debug = true - для просмотра лога какие бины были созданы, в production нужно ставить false
 @EnableGlobalMethodSecurity(
         prePostEnabled = true // true означает, что можно будет использовать аннотации pre/post в компонентах Spring (например, @PreAuthorize для доступа к методам или контроллеру только для нужных прав)
 )
-@EnableAsync
 public class SpringConfig extends WebSecurityConfigurerAdapter {
 
     @Value("${client.url}")
@@ -36,20 +35,40 @@ public class SpringConfig extends WebSecurityConfigurerAdapter {
     // для получения пользователя из БД
     private UserDetailsServiceImpl userDetailsService;
 
+    // кодировщик паролей BCrypt (выполняется в отдельном ограниченном пуле потоков, а не в потоках запросов)
+    private PasswordHasher passwordHasher;
+
     // перехватывает все выходящие запросы (проверяет jwt если необходимо, автоматически логинит пользователя)
     private AuthTokenFilter authTokenFilter; // его нужно зарегистрировать в filterchain
     private ExceptionHandlerFilter exceptionHandlerFilter; // самый верхний фильтр, который отлавливает ошибки во всех следующих фильтрах и отправляет клиенту в формате JSON
+    private AuthRateLimitFilter authRateLimitFilter; // ограничение частоты запросов к логину, регистрации и пр. (до проверки jwt)
+    private RequestLogFilter requestLogFilter; // асинхронный лог выполненных запросов (после проверки jwt - чтобы знать пользователя)
 
     @Autowired
     public void setExceptionHandlerFilter(ExceptionHandlerFilter exceptionHandlerFilter) {
         this.exceptionHandlerFilter = exceptionHandlerFilter;
     }
 
+    @Autowired
+    public void setAuthRateLimitFilter(AuthRateLimitFilter authRateLimitFilter) {
+        this.authRateLimitFilter = authRateLimitFilter;
+    }
+
+    @Autowired
+    public void setRequestLogFilter(RequestLogFilter requestLogFilter) {
+        this.requestLogFilter = requestLogFilter;
+    }
+
     @Autowired
     public void setUserDetailsService(UserDetailsServiceImpl userDetailsService) { // внедряем наш компонент Spring @Service
         this.userDetailsService = userDetailsService;
     }
 
+    @Autowired
+    public void setPasswordHasher(PasswordHasher passwordHasher) {
+        this.passwordHasher = passwordHasher;
+    }
+
     @Autowired
     public void setAuthTokenFilter(AuthTokenFilter authTokenFilter) { // внедряем фильтр
         this.authTokenFilter = authTokenFilter;
@@ -77,13 +96,6 @@ public class SpringConfig extends WebSecurityConfigurerAdapter {
 
 
 
-    // кодировщик паролей односторонним алгоритмом хэширования BCrypt https://ru.bitcoinwiki.org/wiki/Bcrypt
-    @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
-    }
-
-
     // используем стандартный готовый authenticationManager из Spring контейнера (используется для проверки логина-пароля)
     // эти методы доступны в документации Spring Security - оттуда их можно копировать, чтобы не писать вручную
     @Bean
@@ -98,7 +110,7 @@ public class SpringConfig extends WebSecurityConfigurerAdapter {
     public void configure(AuthenticationManagerBuilder authenticationManagerBuilder) throws Exception { // настройки AuthenticationManager для правильной проверки логин-пароль
         authenticationManagerBuilder.
                 userDetailsService(userDetailsService). // использовать наш сервис для загрузки User из БД
-                passwordEncoder(passwordEncoder()); // указываем, что используется кодировщик пароля (для корректной проверки пароля)
+                passwordEncoder(passwordHasher); // указываем, что используется кодировщик пароля (для корректной проверки пароля) - BCrypt https://ru.bitcoinwiki.org/wiki/Bcrypt
     }
 
 
@@ -111,6 +123,22 @@ public class SpringConfig extends WebSecurityConfigurerAdapter {
         return registration;
     }
 
+    // то же самое для фильтра AuthRateLimitFilter
+    @Bean
+    public FilterRegistrationBean rateLimitRegistration(AuthRateLimitFilter filter) {
+        FilterRegistrationBean registration = new FilterRegistrationBean(filter);
+        registration.setEnabled(false);
+        return registration;
+    }
+
+    // и для RequestLogFilter
+    @Bean
+    public FilterRegistrationBean requestLogRegistration(RequestLogFilter filter) {
+        FilterRegistrationBean registration = new FilterRegistrationBean(filter);
+        registration.setEnabled(false);
+        return registration;
+    }
+
 
     /*     С помощью WebMvcConfigurer можно задать глобальные правила CORS сразу для всех контроллеров/методов.
         Если необходимо - в каждом контроллере можно задавать свои настройки
@@ -147,6 +175,12 @@ public class SpringConfig extends WebSecurityConfigurerAdapter {
 //        // отлавливает ошибки последующих фильтром и отправляет их клиенту в формате JSON
         http.addFilterBefore(exceptionHandlerFilter, AuthTokenFilter.class); // этот фильтр должен обязательно находиться перед всеми нашими остальными фильтрами
 
+        // ограничение частоты запросов - после ExceptionHandlerFilter (добавлен раньше), но до AuthTokenFilter
+        http.addFilterBefore(authRateLimitFilter, AuthTokenFilter.class);
+
+        // лог запросов - после AuthTokenFilter (пользователь уже известен)
+        http.addFilterAfter(requestLogFilter, AuthTokenFilter.class);
+
 
 
     }
@@ -18,6 +18,7 @@ import org.springframework.web.bind.annotation.*;
 import ru.javabegin.springboot.auth.entity.Activity;
 import ru.javabegin.springboot.auth.entity.Role;
 import ru.javabegin.springboot.auth.entity.User;
+import ru.javabegin.springboot.auth.exception.PasswordHashBusyException;
 import ru.javabegin.springboot.auth.exception.RoleNotFoundException;
 import ru.javabegin.springboot.auth.exception.UserAlreadyActivatedException;
 import ru.javabegin.springboot.auth.exception.UserOrEmailExistsException;
@@ -28,6 +29,7 @@ import ru.javabegin.springboot.auth.service.UserDetailsServiceImpl;
 import ru.javabegin.springboot.auth.service.UserService;
 import ru.javabegin.springboot.auth.utils.CookieUtils;
 import ru.javabegin.springboot.auth.utils.JwtUtils;
+import ru.javabegin.springboot.auth.utils.RevokedTokens;
 
 import javax.validation.Valid;
 import java.util.UUID;
@@ -46,12 +48,13 @@ public class AuthController {
     private CookieUtils cookieUtils; // класс-утилита для работы с куками
     private EmailService emailService; // сервис отправки писем
     private UserDetailsServiceImpl userDetailsService; // для поиска пользователя и добавления его в Spring контейнер
+    private RevokedTokens revokedTokens; // отозванные jwt (после logout и обновления пароля старые jwt не принимаются)
 
 
 
 
     @Autowired
-    public AuthController(UserService userService, PasswordEncoder encoder, AuthenticationManager authenticationManager, JwtUtils jwtUtils, CookieUtils cookieUtils, EmailService emailService, UserDetailsServiceImpl userDetailsService) {
+    public AuthController(UserService userService, PasswordEncoder encoder, AuthenticationManager authenticationManager, JwtUtils jwtUtils, CookieUtils cookieUtils, EmailService emailService, UserDetailsServiceImpl userDetailsService, RevokedTokens revokedTokens) {
         this.userService = userService;
         this.encoder = encoder;
         this.authenticationManager = authenticationManager;
@@ -59,6 +62,7 @@ public class AuthController {
         this.cookieUtils = cookieUtils;
         this.emailService = emailService;
         this.userDetailsService = userDetailsService;
+        this.revokedTokens = revokedTokens;
 
     }
 
@@ -85,6 +89,10 @@ public class AuthController {
 
         // главная задача при logout - это удалить кук
 
+        // и отозвать jwt: даже если кто-то сохранил его значение, с ним больше нельзя будет выполнить запрос (выход на всех устройствах)
+        UserDetailsImpl userDetails = (UserDetailsImpl) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        revokedTokens.revokeAll(userDetails.getUser().getId());
+
         // создаем кук с истекшим сроком действия, тем самым браузер удалит такой кук автоматически
         HttpCookie cookie = cookieUtils.deleteJwtCookie();
 
@@ -122,7 +130,7 @@ public class AuthController {
 
 
 
-        // зашифровать пароль (алгоритм BCrypt)
+        // зашифровать пароль (алгоритм BCrypt, выполняется в отдельном пуле потоков - см. PasswordHasher)
         user.setPassword(encoder.encode(user.getPassword())); // генерим хеш пароля на основе переданного текста
 
 
@@ -131,10 +139,7 @@ public class AuthController {
         activity.setUser(user);
         activity.setUuid(UUID.randomUUID().toString()); // уникальный UUID - нужен для активации пользователя
 
-        userService.register(user, activity);
-
-        // отправляем письмо о том, что нужно активировать аккаунт (выполняется в параллельном потоке с помощью @Async, чтобы пользователь не ждал)
-        emailService.sendActivationEmail(user.getEmail(), user.getUsername(), activity.getUuid());
+        userService.register(user, activity); // вместе с пользователем сохраняется письмо активации (отправится в отдельном потоке, пользователь не ждет)
 
         return ResponseEntity.ok().build(); // просто отправляем статус 200-ОК (без каких-либо данных) - значит регистрация выполнилась успешно
     }
@@ -220,7 +225,7 @@ public class AuthController {
         if (activity.isActivated())
             throw new UserAlreadyActivatedException("User already activated: " + usernameOrEmail);
 
-        // отправляем письмо активации (выполняется в параллельном потоке с помощью @Async, чтобы пользователь не ждал)
+        // отправляем письмо активации (записывается в outbox и отправляется в отдельном потоке, чтобы пользователь не ждал)
         emailService.sendActivationEmail(user.getEmail(), user.getUsername(), activity.getUuid());
 
         return ResponseEntity.ok().build(); // просто отправляем статус 200-ОК (без каких-либо данных)
@@ -236,7 +241,7 @@ public class AuthController {
         User user = userDetails.getUser(); // получаем текущего пользователя из контейнера UserDetails
 
         if (userDetails != null) {
-            // отправляем письмо со ссылкой для сброса пароля (выполняется в параллельном потоке с помощью @Async, чтобы пользователь не ждал)
+            // отправляем письмо со ссылкой для сброса пароля (записывается в outbox и отправляется в отдельном потоке, чтобы пользователь не ждал)
             emailService.sendResetPasswordEmail(user.getEmail(), jwtUtils.createEmailResetToken(user));
         }
 
@@ -261,6 +266,10 @@ public class AuthController {
         // кол-во обновленных записей (в нашем случае должно быть 1, т.к. обновляем пароль одного пользователя)
         int updatedCount = userService.updatePassword(encoder.encode(password), user.getEmail()); // для обновления пароля нужно знать только email
 
+        if (updatedCount == 1) {
+            revokedTokens.revokeAll(user.getUser().getId()); // все jwt, выданные до смены пароля (в т.ч. ссылка из письма), больше не действуют
+        }
+
         return ResponseEntity.ok(updatedCount == 1); // 1 - значит запись обновилась успешно, 0 - что-то пошло не так
     }
 
@@ -293,6 +302,11 @@ public class AuthController {
 
 */
 
+        // все потоки для проверки/хеширования паролей заняты - клиент может повторить запрос позже
+        if (ex instanceof PasswordHashBusyException) {
+            return new ResponseEntity(new JsonException(ex.getClass().getSimpleName()), HttpStatus.SERVICE_UNAVAILABLE);
+        }
+
         // отправляем название класса ошибки (чтобы правильно обработать ошибку на клиенте)
         return new ResponseEntity(new JsonException(ex.getClass().getSimpleName()), HttpStatus.BAD_REQUEST); // Spring автоматически конвертирует объект JsonException в JSON
 
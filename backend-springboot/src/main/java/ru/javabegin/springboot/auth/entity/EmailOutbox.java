@@ -0,0 +1,60 @@
+package ru.javabegin.springboot.auth.entity;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/*
+
+Письмо, которое нужно отправить (outbox).
+
+Запись создается в той же транзакции, что и изменение данных (например, регистрация пользователя):
+если транзакция откатится - письмо не уйдет, а если приложение остановится до отправки - письмо останется в таблице и уйдет после запуска.
+Отправкой занимается EmailOutboxSender: успешно отправленные письма удаляются, при ошибке - повтор с увеличивающейся паузой.
+
+Таблица (PostgreSQL):
+
+create table email_outbox (
+    id bigserial primary key,
+    recipient varchar(255) not null,
+    subject varchar(255) not null,
+    body text not null,
+    attempts integer not null default 0,
+    next_attempt timestamp not null,
+    last_error varchar(1000)
+);
+create index email_outbox_next_attempt_idx on email_outbox (next_attempt);
+
+*/
+
+@Setter
+@Getter
+@Entity
+@Table(name = "EMAIL_OUTBOX")
+public class EmailOutbox {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column
+    private String recipient; // email получателя
+
+    @Column
+    private String subject; // тема
+
+    @Column
+    private String body; // текст письма (HTML) - формируется при создании записи
+
+    @Column
+    private int attempts; // сколько раз пытались отправить
+
+    @Column(name = "next_attempt")
+    private Date nextAttempt; // раньше этого времени письмо не отправляется (пауза между попытками, а также время, на которое письмо забрал отправитель)
+
+    @Column(name = "last_error")
+    private String lastError; // текст последней ошибки отправки
+
+}
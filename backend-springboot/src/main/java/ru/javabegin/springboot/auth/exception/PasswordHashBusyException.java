@@ -0,0 +1,16 @@
+package ru.javabegin.springboot.auth.exception;
+
+
+// все потоки для хеширования паролей заняты и очередь заполнена - клиенту отправляется статус 503 (можно повторить запрос позже)
+// не наследуется от AuthenticationException, чтобы при логине Spring не принял эту ошибку за неверный пароль
+public class PasswordHashBusyException extends RuntimeException {
+
+    public PasswordHashBusyException(String msg) {
+        super(msg);
+    }
+
+
+    public PasswordHashBusyException(String msg, Throwable t) {
+        super(msg, t);
+    }
+}
@@ -0,0 +1,331 @@
+package ru.javabegin.springboot.auth.filter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import ru.javabegin.springboot.auth.objects.JsonException;
+import ru.javabegin.springboot.auth.utils.RateLimiter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+
+Ограничение частоты запросов к открытым URI аутентификации (логин, регистрация, письма активации и сброса пароля).
+
+Каждый такой запрос дорогой (BCrypt, отправка письма, запросы в БД), а вызвать его может кто угодно без jwt -
+например, при переборе паролей эти запросы занимают весь процессор.
+
+Для каждого URI 2 ограничения (RateLimiter - token bucket):
+- по IP адресу клиента
+- по аккаунту (username/email из тела запроса) - чтобы перебор паролей одного пользователя с разных адресов тоже ограничивался
+
+Ограничения задаются в application.properties в виде "кол-во/секунд" (например, 10/60 - не больше 10 запросов подряд, ведро наполняется за 60 сек),
+пустое значение - без ограничения.
+
+При превышении клиенту сразу отправляется статус 429 (Too Many Requests) с заголовком Retry-After - запрос не доходит до AuthTokenFilter и контроллера.
+
+Чтобы найти аккаунт, тело запроса читается всегда (в т.ч. без Content-Length - Transfer-Encoding: chunked), но не больше MAX_BODY_SIZE.
+Запрос с телом большего размера отклоняется со статусом 413 (Payload Too Large) - иначе так можно было бы обойти ограничение по аккаунту.
+Кол-во отклоненных запросов доступно через JMX.
+
+IP адрес берется из request.getRemoteAddr() - если приложение работает за прокси, нужно включить server.forward-headers-strategy.
+
+*/
+
+@Component
+@ManagedResource(objectName = "ru.javabegin.springboot:type=Security,name=AuthRateLimitFilter")
+public class AuthRateLimitFilter extends OncePerRequestFilter {
+
+    private static final int MAX_BODY_SIZE = 16 * 1024; // тело больше этого размера не читаем - запрос отклоняется (413)
+
+    // откуда брать аккаунт в теле запроса
+    private enum AccountSource {
+        JSON_USERNAME, // JSON объект User, поле username
+        JSON_EMAIL, // JSON объект User, поле email
+        BODY // тело запроса - сама строка (username или email)
+    }
+
+    private final Map<String, Limits> endpoints = new HashMap<>(); // путь -> ограничения (заполняется 1 раз в конструкторе)
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final AtomicLong allowed = new AtomicLong();
+    private final AtomicLong rejectedByIp = new AtomicLong();
+    private final AtomicLong rejectedByAccount = new AtomicLong();
+    private final AtomicLong rejectedBySize = new AtomicLong();
+    private final Map<String, AtomicLong> rejectedByEndpoint = new ConcurrentHashMap<>();
+
+
+    public AuthRateLimitFilter(@Value("${auth.rate-limit.max-keys:100000}") int maxKeys,
+                               @Value("${auth.rate-limit.login.ip:30/60}") String loginIp,
+                               @Value("${auth.rate-limit.login.account:10/300}") String loginAccount,
+                               @Value("${auth.rate-limit.register.ip:10/600}") String registerIp,
+                               @Value("${auth.rate-limit.register.account:3/3600}") String registerAccount,
+                               @Value("${auth.rate-limit.resend-activate-email.ip:10/600}") String resendIp,
+                               @Value("${auth.rate-limit.resend-activate-email.account:3/3600}") String resendAccount,
+                               @Value("${auth.rate-limit.send-reset-password-email.ip:10/600}") String resetIp,
+                               @Value("${auth.rate-limit.send-reset-password-email.account:3/3600}") String resetAccount) {
+
+        add("/auth/login", AccountSource.JSON_USERNAME, loginIp, loginAccount, maxKeys);
+        add("/auth/register", AccountSource.JSON_EMAIL, registerIp, registerAccount, maxKeys);
+        add("/auth/resend-activate-email", AccountSource.BODY, resendIp, resendAccount, maxKeys);
+        add("/auth/send-reset-password-email", AccountSource.BODY, resetIp, resetAccount, maxKeys);
+    }
+
+
+    // остальные запросы фильтр пропускает без проверок
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !endpoints.containsKey(request.getServletPath());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+
+        Limits limits = endpoints.get(request.getServletPath());
+
+        // сначала самая дешевая проверка - по IP (тело запроса еще не читаем)
+        if (limits.ip != null) {
+            long wait = limits.ip.tryAcquire(request.getRemoteAddr());
+            if (wait > 0) {
+                rejectedByIp.incrementAndGet();
+                reject(limits.path, response, wait);
+                return;
+            }
+        }
+
+        if (limits.account != null) {
+
+            // тело читаем один раз, контроллер получит его копию (null - тело больше MAX_BODY_SIZE)
+            CachedBodyRequest cached = request.getContentLengthLong() <= MAX_BODY_SIZE ? CachedBodyRequest.read(request, MAX_BODY_SIZE) : null;
+            if (cached == null) {
+                rejectedBySize.incrementAndGet();
+                tooLarge(limits.path, response);
+                return;
+            }
+            request = cached;
+
+            String account = account(limits.accountSource, cached.body);
+            if (account != null) {
+                long wait = limits.account.tryAcquire(account);
+                if (wait > 0) {
+                    rejectedByAccount.incrementAndGet();
+                    reject(limits.path, response, wait);
+                    return;
+                }
+            }
+        }
+
+        allowed.incrementAndGet();
+
+        filterChain.doFilter(request, response);
+    }
+
+
+    @ManagedAttribute
+    public long getAllowed() {
+        return allowed.get();
+    }
+
+    @ManagedAttribute
+    public long getRejectedByIp() {
+        return rejectedByIp.get();
+    }
+
+    @ManagedAttribute
+    public long getRejectedByAccount() {
+        return rejectedByAccount.get();
+    }
+
+    @ManagedAttribute
+    public long getRejectedBySize() {
+        return rejectedBySize.get();
+    }
+
+    @ManagedAttribute
+    public Map<String, Long> getRejectedByEndpoint() {
+        Map<String, Long> result = new TreeMap<>();
+        rejectedByEndpoint.forEach((path, count) -> result.put(path, count.get()));
+        return result;
+    }
+
+    @ManagedAttribute
+    public int getTrackedKeys() {
+        int keys = 0;
+        for (Limits limits : endpoints.values()) {
+            keys += limits.ip != null ? limits.ip.size() : 0;
+            keys += limits.account != null ? limits.account.size() : 0;
+        }
+        return keys;
+    }
+
+
+    private void add(String path, AccountSource accountSource, String ipLimit, String accountLimit, int maxKeys) {
+        endpoints.put(path, new Limits(path, accountSource, limiter(ipLimit, maxKeys), limiter(accountLimit, maxKeys)));
+    }
+
+    // ограничение из строки вида "кол-во/секунд" (null - без ограничения)
+    private static RateLimiter limiter(String value, int maxKeys) {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+
+        String[] parts = value.trim().split("/");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Rate limit must be in format count/seconds: " + value);
+        }
+
+        return new RateLimiter(Integer.parseInt(parts[0].trim()), Long.parseLong(parts[1].trim()), TimeUnit.SECONDS, maxKeys);
+    }
+
+    // аккаунт из тела запроса (в нижнем регистре), null - если не удалось определить
+    private String account(AccountSource source, byte[] body) {
+        String account;
+
+        if (source == AccountSource.BODY) {
+            account = new String(body, StandardCharsets.UTF_8);
+        } else {
+            try {
+                JsonNode node = mapper.readTree(body).path(source == AccountSource.JSON_USERNAME ? "username" : "email");
+                account = node.isTextual() ? node.asText() : null;
+            } catch (IOException e) { // некорректный JSON - запрос все равно не выполнится в контроллере
+                account = null;
+            }
+        }
+
+        if (account == null || account.trim().isEmpty()) {
+            return null;
+        }
+
+        return account.trim().toLowerCase();
+    }
+
+    private void reject(String path, HttpServletResponse response, long waitNanos) throws IOException {
+        rejectedByEndpoint.computeIfAbsent(path, p -> new AtomicLong()).incrementAndGet();
+
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1))); // через сколько секунд можно повторить
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write(mapper.writeValueAsString(new JsonException("TooManyRequestsException")));
+    }
+
+    private void tooLarge(String path, HttpServletResponse response) throws IOException {
+        rejectedByEndpoint.computeIfAbsent(path, p -> new AtomicLong()).incrementAndGet();
+
+        response.setStatus(HttpStatus.PAYLOAD_TOO_LARGE.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write(mapper.writeValueAsString(new JsonException("PayloadTooLargeException")));
+    }
+
+
+    // ограничения одного URI
+    private static class Limits {
+
+        private final String path;
+        private final AccountSource accountSource;
+        private final RateLimiter ip; // null - без ограничения
+        private final RateLimiter account; // null - без ограничения
+
+        private Limits(String path, AccountSource accountSource, RateLimiter ip, RateLimiter account) {
+            this.path = path;
+            this.accountSource = accountSource;
+            this.ip = ip;
+            this.account = account;
+        }
+    }
+
+
+    // запрос с уже прочитанным телом - контроллер читает его из памяти
+    private static class CachedBodyRequest extends HttpServletRequestWrapper {
+
+        private final byte[] body;
+
+        private CachedBodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        // прочитать тело запроса (не больше maxSize байт, независимо от Content-Length) - null, если тело больше
+        private static CachedBodyRequest read(HttpServletRequest request, int maxSize) throws IOException {
+            InputStream input = request.getInputStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+
+            while ((read = input.read(buffer)) != -1) {
+                if (body.size() + read > maxSize) {
+                    return null;
+                }
+                body.write(buffer, 0, read);
+            }
+
+            return new CachedBodyRequest(request, body.toByteArray());
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream input = new ByteArrayInputStream(body);
+
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return input.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener listener) {
+                    throw new IllegalStateException("async not supported"); // тело уже прочитано - асинхронное чтение не нужно
+                }
+
+                @Override
+                public int read() {
+                    return input.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return input.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            String encoding = getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(getInputStream(), encoding != null ? encoding : StandardCharsets.UTF_8.name()));
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package ru.javabegin.springboot.auth.filter;
 
+import io.jsonwebtoken.Claims;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -12,15 +13,15 @@ import ru.javabegin.springboot.auth.entity.User;
 import ru.javabegin.springboot.auth.exception.JwtCommonException;
 import ru.javabegin.springboot.auth.service.UserDetailsImpl;
 import ru.javabegin.springboot.auth.utils.CookieUtils;
+import ru.javabegin.springboot.auth.utils.JwtCache;
 import ru.javabegin.springboot.auth.utils.JwtUtils;
+import ru.javabegin.springboot.auth.utils.RevokedTokens;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.List;
 
 /*
 
@@ -33,7 +34,7 @@ import java.util.List;
 После получения и валидации jwt фильтр AuthTokenFilter аутентифицирует пользователя и добавляет его в Spring контейнер (объект Authrorization).
 Только после этого - запрос передается дальше в контроллер для выполнения.
 
-Какие ссылки публичные, какие нет - можем задавать в обычном массиве строк.
+Какие ссылки публичные, какие нет - задается в RouteSecurityTable (таблица строится 1 раз при старте по путям контроллеров).
 
 */
 
@@ -44,20 +45,10 @@ public class AuthTokenFilter extends OncePerRequestFilter {
     public static final String BEARER_PREFIX = "Bearer ";
 
     private JwtUtils jwtUtils; // утилита для работы с jwt
+    private JwtCache jwtCache; // уже проверенные jwt
+    private RevokedTokens revokedTokens; // отозванные jwt (logout, обновление пароля)
     private CookieUtils cookieUtils; // класс-утилита для работы с куками
-
-    // допустимые URI, для которых не требуется авторизация (не будет проверяться наличие jwt-кука)
-    private List<String> permitURL = Arrays.asList(
-            "register", // регистрация нового пользователя
-            "login", // аутентификация (логин-пароль)
-            "activate-account", // активация нового пользователя
-            "resend-activate-email", // запрос о повторной отправки письма активации
-            "send-reset-password-email", // запрос на отправку письма об обновлении пароля
-            "test-no-auth", // если есть какой-либо тестовый URL для проверки работы backend
-            "index" // если есть отдельная главная страница
-
-            // можно добавлять сюда любые открытые URL
-    );
+    private RouteSecurityTable routeSecurityTable; // какие URI публичные и откуда брать jwt для остальных
 
 
 
@@ -76,6 +67,24 @@ public class AuthTokenFilter extends OncePerRequestFilter {
     }
 
 
+    @Autowired
+    public void setJwtCache(JwtCache jwtCache) {
+        this.jwtCache = jwtCache;
+    }
+
+
+    @Autowired
+    public void setRevokedTokens(RevokedTokens revokedTokens) {
+        this.revokedTokens = revokedTokens;
+    }
+
+
+    @Autowired
+    public void setRouteSecurityTable(RouteSecurityTable routeSecurityTable) {
+        this.routeSecurityTable = routeSecurityTable;
+    }
+
+
     // этот метод вызывается автоматически при каждом входящем запросе
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
@@ -84,14 +93,13 @@ public class AuthTokenFilter extends OncePerRequestFilter {
 
 
 
-        // Проверяем, запрос идет на публичную страницу или нет.
-        // Содержит ли запрос любое значение из массива разрешенных URI.
-        // Используем эту проверку только для того, чтобы понять, нужно ли нам пытаться считать jwt или нет.
-        boolean isRequestToPublicAPI = permitURL.stream().anyMatch(s -> request.getRequestURI().toLowerCase().contains(s));
+        // Проверяем, запрос идет на публичную страницу или нет (точное совпадение пути с путем контроллера).
+        // Используем эту проверку только для того, чтобы понять, нужно ли нам пытаться считать jwt или нет и откуда.
+        RouteSecurityTable.Policy policy = routeSecurityTable.getPolicy(request.getServletPath()); // путь внутри приложения (без context path)
 
 
         if (
-                !isRequestToPublicAPI // если пользователь (с помощью браузера!) обратился к защищенному URI, для которого нужна аутентификация
+                policy != RouteSecurityTable.Policy.PUBLIC // если пользователь (с помощью браузера!) обратился к защищенному URI, для которого нужна аутентификация
             // &&
             //  SecurityContextHolder.getContext().getAuthentication() == null  // если пользователь еще не прошел аутентификацию (а значит объект Authentication == null в контейнере Spring, вдруг ранее еще где-то уже произвели аутентификацию)
         ) {
@@ -101,7 +109,7 @@ public class AuthTokenFilter extends OncePerRequestFilter {
 
             String jwt = null;
 
-            if (request.getRequestURI().contains("update-password")) { // если это запрос на обновление пароля
+            if (policy == RouteSecurityTable.Policy.HEADER_JWT) { // если это запрос на обновление пароля
                 jwt = getJwtFromHeader(request);// получаем токен из заголовка Authorization
             } else { // для всех остальных запросов
                 jwt = cookieUtils.getCookieAccessToken(request); // получаем jwt из кука access_token
@@ -110,7 +118,17 @@ public class AuthTokenFilter extends OncePerRequestFilter {
 
             if (jwt != null) { // если токен найден
 
-                if (jwtUtils.validate(jwt)) {  // если токен успешно прошел валидацию - значит пользователь до этого уже успешно вошел в систему (ввел логин-пароль) и получил свой JWT
+                UserDetailsImpl userDetails = jwtCache.get(jwt); // если этот jwt уже проверяли - повторно не разбираем и не проверяем подпись
+
+                if (userDetails == null) {
+
+                    Claims claims = jwtUtils.parse(jwt); // проверка и разбор jwt - один раз (null - если токен не прошел проверку)
+
+                    if (claims == null) { // не смогли обработать токен (возможно вышел срок действия или любая другая ошибка)
+                        throw new JwtCommonException("jwt validate exception"); // пользователь не будет авторизован (т.к. jwt некорректный) и клиенту отправится ошибка
+                    }
+
+                    // если токен успешно прошел валидацию - значит пользователь до этого уже успешно вошел в систему (ввел логин-пароль) и получил свой JWT
 
                     /*
                     Теперь нужно считать все данные пользователя из JWT, чтобы получить userDetails, добавить его в Spring контейнер (авторизовать) и не делать ни одного запроса в БД
@@ -120,28 +138,29 @@ public class AuthTokenFilter extends OncePerRequestFilter {
                     Используем только UserDetails, чтобы добавить его в Spring контейнер
                      */
 
+                    User user = jwtUtils.getUser(claims); // получаем user из JWT - НЕ ДЕЛАЕМ ЗАПРОС В БД!
 
-                    User user = jwtUtils.getUser(jwt); // получаем user из JWT - НЕ ДЕЛАЕМ ЗАПРОС В БД!
-
-                    UserDetailsImpl userDetails = new UserDetailsImpl(user); // создаем userDetails вручную, потому что нам неоткуда его взять
-
-                    // Вручную создаем объект UsernamePasswordAuthenticationToken (т.е. не используем пароль и не вызываем метод authenticate, как в методе login - это уже сделано ранее и был создан jwt)
-                    // Привязываем UsernamePasswordAuthenticationToken к пользователю
-                    // Добавляем объект UsernamePasswordAuthenticationToken в Spring контейнер - тем самым Spring будет видеть, что к пользователю привязан объект authentication - соответственно он успешно залогинен
-                    UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
-                            userDetails, null, userDetails.getAuthorities()); // пароль не нужен
+                    // jwt мог быть отозван (пользователь вышел из системы или сменил пароль) - проверка в памяти, без запроса в БД
+                    if (revokedTokens.isRevoked(user.getId(), RevokedTokens.issuedAt(claims.getIssuedAt()))) {
+                        throw new JwtCommonException("jwt revoked");
+                    }
 
-                    // 1) добавляем входящий запрос в контейнер, чтобы дальше уже Spring обрабатывал запрос с учетом данных авторизации
-                    authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+                    userDetails = new UserDetailsImpl(user); // создаем userDetails вручную, потому что нам неоткуда его взять
 
-                    // 2) добавляем объект authentication в spring контейнер - тем самым Spring поймет, что пользователь успешно залогинен
-                    SecurityContextHolder.getContext().setAuthentication(authentication);
+                    jwtCache.put(jwt, userDetails, claims.getIssuedAt(), claims.getExpiration()); // до истечения срока (или отзыва) jwt следующие запросы возьмут userDetails из кеша
+                }
 
+                // Вручную создаем объект UsernamePasswordAuthenticationToken (т.е. не используем пароль и не вызываем метод authenticate, как в методе login - это уже сделано ранее и был создан jwt)
+                // Привязываем UsernamePasswordAuthenticationToken к пользователю
+                // Добавляем объект UsernamePasswordAuthenticationToken в Spring контейнер - тем самым Spring будет видеть, что к пользователю привязан объект authentication - соответственно он успешно залогинен
+                UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
+                        userDetails, null, userDetails.getAuthorities()); // пароль не нужен
 
-                } else { // не смогли обработать токен (возможно вышел срок действия или любая другая ошибка)
+                // 1) добавляем входящий запрос в контейнер, чтобы дальше уже Spring обрабатывал запрос с учетом данных авторизации
+                authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
 
-                    throw new JwtCommonException("jwt validate exception"); // пользователь не будет авторизован (т.к. jwt некорректный) и клиенту отправится ошибка
-                }
+                // 2) добавляем объект authentication в spring контейнер - тем самым Spring поймет, что пользователь успешно залогинен
+                SecurityContextHolder.getContext().setAuthentication(authentication);
 
             } else {
 
@@ -0,0 +1,141 @@
+package ru.javabegin.springboot.auth.filter;
+
+import lombok.extern.java.Log;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+/*
+
+Таблица безопасности URI: для каждого пути из контроллеров (@RequestMapping, @PostMapping и пр.) - откуда брать jwt.
+
+Таблица строится 1 раз при старте приложения по списку всех обработчиков Spring MVC (RequestMappingHandlerMapping),
+поэтому при каждом запросе выполняется только поиск в HashMap по точному пути (без lowercase, stream и поиска подстроки).
+
+Раньше URI проверялся через contains - любой адрес, в котором встречалось например "login" или "index", пропускался без jwt.
+Теперь публичными являются только те пути, которые точно совпадают с путями контроллеров из списка ниже.
+
+Если путь не найден в таблице (нет такого обработчика, путь с параметрами и пр.) - требуется jwt из кука (как для всех закрытых URI).
+
+Таблица строится только по событию своего контекста: у дочернего контекста (если он появится) свои обработчики,
+и его событие заменило бы таблицу на пустую или неполную.
+
+*/
+
+@Component
+@Log
+public class RouteSecurityTable implements ApplicationListener<ContextRefreshedEvent>, ApplicationContextAware {
+
+    // откуда брать jwt для запроса
+    public enum Policy {
+        PUBLIC, // jwt не требуется
+        COOKIE_JWT, // jwt из кука access_token (все закрытые URI)
+        HEADER_JWT // jwt из заголовка Authorization (обновление пароля по ссылке из письма)
+    }
+
+    // URI, для которых не требуется авторизация (не будет проверяться наличие jwt-кука) - полные пути обработчиков
+    private static final List<String> PUBLIC_PATHS = Arrays.asList(
+            "/auth/register", // регистрация нового пользователя
+            "/auth/login", // аутентификация (логин-пароль)
+            "/auth/activate-account", // активация нового пользователя
+            "/auth/resend-activate-email", // запрос о повторной отправки письма активации
+            "/auth/send-reset-password-email", // запрос на отправку письма об обновлении пароля
+            "/auth/test-no-auth" // если есть какой-либо тестовый URL для проверки работы backend
+
+            // можно добавлять сюда любые открытые URL (путь должен точно совпадать с путем в контроллере)
+    );
+
+    // URI, для которых jwt передается в заголовке Authorization, а не в куке
+    private static final List<String> HEADER_PATHS = Collections.singletonList(
+            "/auth/update-password" // обновление пароля
+    );
+
+    // путь обработчика -> откуда брать jwt (заменяется целиком после построения, поэтому volatile)
+    private volatile Map<String, Policy> routes = Collections.emptyMap();
+
+    private ApplicationContext applicationContext; // контекст, в котором создан этот бин
+
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    // вызывается после создания всех бинов (в т.ч. обработчиков контроллеров) - строим таблицу
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (event.getApplicationContext() != applicationContext) { // событие дочернего контекста (слушатели родителя тоже его получают)
+            log.info("route security: ignoring refresh of context " + event.getApplicationContext().getId());
+            return;
+        }
+
+        Map<String, RequestMappingHandlerMapping> mappings = event.getApplicationContext().getBeansOfType(RequestMappingHandlerMapping.class);
+
+        Map<String, Policy> table = new HashMap<>();
+
+        for (RequestMappingHandlerMapping mapping : mappings.values()) {
+            for (Map.Entry<RequestMappingInfo, HandlerMethod> entry : mapping.getHandlerMethods().entrySet()) {
+                for (String path : entry.getKey().getPatternValues()) {
+
+                    if (path.contains("{") || path.contains("*")) { // путь с параметрами не может совпадать точно - для него будет использоваться jwt из кука
+                        log.log(Level.WARNING, "route security: pattern " + path + " is not exact, cookie jwt is required");
+                        continue;
+                    }
+
+                    table.put(path, policyFor(path));
+                }
+            }
+        }
+
+        // если путь из списков не найден среди обработчиков - скорее всего опечатка или обработчик переименовали
+        Set<String> configured = new HashSet<>(PUBLIC_PATHS);
+        configured.addAll(HEADER_PATHS);
+        for (String path : configured) {
+            if (!table.containsKey(path)) {
+                log.log(Level.WARNING, "route security: no handler for configured path " + path);
+            }
+        }
+
+        routes = Collections.unmodifiableMap(table);
+    }
+
+
+    // откуда брать jwt для запроса (path - путь внутри приложения, без context path)
+    public Policy getPolicy(String path) {
+        Policy policy = routes.get(path);
+
+        if (policy == null && path.length() > 1 && path.endsWith("/")) { // Spring MVC также принимает путь с "/" в конце
+            policy = routes.get(path.substring(0, path.length() - 1));
+        }
+
+        return policy != null ? policy : Policy.COOKIE_JWT;
+    }
+
+
+    private static Policy policyFor(String path) {
+        if (PUBLIC_PATHS.contains(path)) {
+            return Policy.PUBLIC;
+        }
+
+        if (HEADER_PATHS.contains(path)) {
+            return Policy.HEADER_JWT;
+        }
+
+        return Policy.COOKIE_JWT;
+    }
+
+}
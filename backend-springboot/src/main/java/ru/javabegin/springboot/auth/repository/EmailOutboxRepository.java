@@ -0,0 +1,36 @@
+package ru.javabegin.springboot.auth.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.javabegin.springboot.auth.entity.EmailOutbox;
+
+import java.util.Date;
+import java.util.List;
+
+@Repository
+public interface EmailOutboxRepository extends CrudRepository<EmailOutbox, Long> {
+
+    // письма, которые пора отправить (в порядке создания), кроме тех, для которых закончились попытки
+    @Query("select e from EmailOutbox e where e.attempts < :maxAttempts and e.nextAttempt <= :now order by e.id asc")
+    List<EmailOutbox> findDue(@Param("now") Date now, @Param("maxAttempts") int maxAttempts, Pageable pageable);
+
+    // забрать письмо для отправки до времени lease - только если его все еще пора отправить (условие как в findDue), возвращает 1 - если забрали
+    // у забранного письма nextAttempt = lease (в будущем), поэтому второй claim того же письма ничего не изменит - даже по устаревшему списку из findDue
+    // (nextAttempt не сравнивается на равенство: дата из БД может не совпасть с переданной в запрос из-за точности timestamp)
+    @Modifying // если запрос изменяет данные - желательно добавлять эту аннотацию
+    @Transactional // если запрос изменяет данные - желательно добавлять эту аннотацию
+    @Query("UPDATE EmailOutbox e SET e.nextAttempt = :lease WHERE e.id = :id and e.attempts < :maxAttempts and e.nextAttempt <= :now")
+    int claim(@Param("id") Long id, @Param("now") Date now, @Param("maxAttempts") int maxAttempts, @Param("lease") Date lease);
+
+    // неудачная попытка отправки - следующая не раньше nextAttempt
+    @Modifying // если запрос изменяет данные - желательно добавлять эту аннотацию
+    @Transactional // если запрос изменяет данные - желательно добавлять эту аннотацию
+    @Query("UPDATE EmailOutbox e SET e.attempts = e.attempts + 1, e.nextAttempt = :nextAttempt, e.lastError = :error WHERE e.id = :id")
+    int failed(@Param("id") Long id, @Param("nextAttempt") Date nextAttempt, @Param("error") String error);
+
+}
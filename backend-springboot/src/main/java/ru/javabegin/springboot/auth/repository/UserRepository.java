@@ -2,13 +2,17 @@ package ru.javabegin.springboot.auth.repository;
 
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 import ru.javabegin.springboot.auth.entity.User;
 
+import javax.persistence.QueryHint;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface UserRepository extends CrudRepository<User, Long> {
@@ -21,12 +25,29 @@ public interface UserRepository extends CrudRepository<User, Long> {
     @Query("select case when count(u)> 0 then true else false end from User u where lower(u.username) = lower(:username)")
     boolean existsByUsername(@Param("username") String username);
 
+    // проверка username и email одним запросом (для регистрации - см. UserService.userExists)
+    @Query("select case when count(u)> 0 then true else false end from User u where lower(u.username) = lower(:username) or lower(u.email) = lower(:email)")
+    boolean existsByUsernameOrEmail(@Param("username") String username, @Param("email") String email);
+
+    // все username и email - для построения LoginBloomFilter (читаются из БД порциями по мере обхода Stream, обходить внутри транзакции)
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("select u.username, u.email from User u")
+    Stream<Object[]> streamLogins();
+
     // используем обертку Optional - контейнер, который хранит значение или null - позволяет избежать ошибки NullPointerException
     Optional<User> findByUsername(String username); // поиск по username
 
     // используем обертку Optional - контейнер, который хранит значение или null - позволяет избежать ошибки NullPointerException
     Optional<User> findByEmail(String email); // поиск по email
 
+    /*
+    Поиск пользователя для аутентификации - по username или email одним запросом, сразу вместе с ролями и активностью (join fetch).
+    Может вернуть 2 записи, если username одного пользователя совпадает с email другого (выбор делается в UserDetailsServiceImpl).
+     */
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_PASS_DISTINCT_THROUGH, value = "false")) // distinct нужен только для Hibernate (убрать дубли из-за join ролей), в SQL не передаем
+    @Query("select distinct u from User u left join fetch u.roles left join fetch u.activity where u.username = :login or u.email = :login")
+    List<User> findByLogin(@Param("login") String login);
+
     // обновление пароля
     @Modifying // если запрос изменяет данные - желательно добавлять эту аннотацию
     @Transactional // если запрос изменяет данные - желательно добавлять эту аннотацию
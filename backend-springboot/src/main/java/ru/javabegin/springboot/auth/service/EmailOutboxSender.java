@@ -0,0 +1,275 @@
+package ru.javabegin.springboot.auth.service;
+
+import lombok.extern.java.Log;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.javabegin.springboot.auth.entity.EmailOutbox;
+import ru.javabegin.springboot.auth.repository.EmailOutboxRepository;
+
+import javax.annotation.PreDestroy;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/*
+
+Отправка писем из таблицы EMAIL_OUTBOX (письма туда записывает EmailService).
+
+- таблица проверяется раз в pollMillis, а также сразу после коммита транзакции, в которой добавили письмо
+- письма, которые пора отправить, забираются порциями (claim - чтобы одно письмо не отправили 2 раза, если запущено неск. экземпляров приложения)
+- каждая порция (до batchSize писем) отправляется одним вызовом JavaMailSender.send - через одно SMTP соединение, а не соединение на каждое письмо
+- порции отправляются параллельно, но не больше чем в threads потоках
+- отправленное письмо удаляется из таблицы, при ошибке - повтор через retryBaseSeconds * 2^(кол-во попыток), но не больше maxAttempts раз
+  (письма, для которых закончились попытки, остаются в таблице с текстом ошибки)
+
+Настройки SMTP берутся из application.properties (spring.mail.*) - для проверки можно указать любой локальный SMTP сервер.
+
+*/
+
+@Service
+@Log
+public class EmailOutboxSender {
+
+    private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.HOURS.toMillis(6); // максимальная пауза между попытками
+
+    private final EmailOutboxRepository outboxRepository;
+    private final JavaMailSender sender; // готовый спринговый объект для отправки писем (настройки берутся из application.properties)
+
+    @Value("${email.from}")
+    private String emailFrom; // от кого будут приходить письма
+
+    private final int batchSize; // писем за одно SMTP соединение
+    private final int threads; // сколько порций отправляется одновременно
+    private final int maxAttempts;
+    private final long pollMillis;
+    private final long retryBaseSeconds;
+    private final long leaseSeconds; // на сколько письмо забирается для отправки (если приложение остановится во время отправки - письмо снова станет доступно после этого времени)
+
+    private final ScheduledExecutorService poller; // проверка таблицы (1 поток)
+    private final ThreadPoolExecutor workers; // отправка порций писем
+
+    private final AtomicBoolean draining = new AtomicBoolean(); // таблица уже обрабатывается
+
+
+    public EmailOutboxSender(EmailOutboxRepository outboxRepository, JavaMailSender sender,
+                             @Value("${email.outbox.batch-size:50}") int batchSize,
+                             @Value("${email.outbox.threads:2}") int threads,
+                             @Value("${email.outbox.max-attempts:8}") int maxAttempts,
+                             @Value("${email.outbox.poll-millis:5000}") long pollMillis,
+                             @Value("${email.outbox.retry-base-seconds:30}") long retryBaseSeconds,
+                             @Value("${email.outbox.lease-seconds:300}") long leaseSeconds) {
+
+        this.outboxRepository = outboxRepository;
+        this.sender = sender;
+        this.batchSize = batchSize;
+        this.threads = threads;
+        this.maxAttempts = maxAttempts;
+        this.pollMillis = pollMillis;
+        this.retryBaseSeconds = retryBaseSeconds;
+        this.leaseSeconds = leaseSeconds;
+
+        this.poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "email-outbox-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        AtomicInteger threadNumber = new AtomicInteger();
+
+        // очередь не больше кол-ва потоков: poller ждет отправки всех порций, прежде чем забрать следующие
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "email-outbox-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+
+    // начинаем отправку после полного запуска приложения (в т.ч. письма, которые не успели отправить до остановки)
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        poller.scheduleWithFixedDelay(this::drain, 0, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        poller.shutdownNow();
+        workers.shutdown();
+    }
+
+
+    // добавлено новое письмо - проверить таблицу сразу после коммита текущей транзакции (до коммита запись не видна)
+    public void wakeUp() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    poller.execute(EmailOutboxSender.this::drain);
+                }
+            });
+        } else {
+            poller.execute(this::drain);
+        }
+    }
+
+
+    // отправить все письма, которые пора отправить (package-private - вызывается в тестах без планировщика)
+    void drain() {
+        if (!draining.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            int limit = batchSize * threads;
+
+            while (true) {
+                List<EmailOutbox> due = outboxRepository.findDue(new Date(), maxAttempts, PageRequest.of(0, limit));
+
+                if (due.isEmpty()) {
+                    break;
+                }
+
+                List<EmailOutbox> claimed = claim(due);
+
+                List<Future<?>> futures = new ArrayList<>();
+                for (int from = 0; from < claimed.size(); from += batchSize) {
+                    List<EmailOutbox> batch = claimed.subList(from, Math.min(from + batchSize, claimed.size()));
+                    futures.add(workers.submit(() -> send(batch)));
+                }
+
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+
+                if (due.size() < limit) { // больше писем нет
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RuntimeException e) { // например, нет соединения с БД - попробуем при следующей проверке
+            log.log(Level.WARNING, "email outbox: drain failed", e);
+        } finally {
+            draining.set(false);
+        }
+    }
+
+    // забираем письма для отправки (письма, которые уже забрал другой экземпляр приложения, пропускаем)
+    private List<EmailOutbox> claim(List<EmailOutbox> due) {
+        Date now = new Date();
+        Date lease = new Date(now.getTime() + leaseSeconds * 1000);
+
+        List<EmailOutbox> claimed = new ArrayList<>(due.size());
+        for (EmailOutbox outbox : due) {
+            if (outboxRepository.claim(outbox.getId(), now, maxAttempts, lease) == 1) {
+                claimed.add(outbox);
+            }
+        }
+        return claimed;
+    }
+
+    // отправка порции писем через одно SMTP соединение
+    private void send(List<EmailOutbox> batch) {
+        Map<MimeMessage, EmailOutbox> messages = new IdentityHashMap<>(); // MimeMessage не переопределяет equals
+
+        for (EmailOutbox outbox : batch) {
+            try {
+                messages.put(createMessage(outbox), outbox);
+            } catch (MessagingException e) { // например, неверный адрес - письмо не сформировать
+                failed(outbox, e);
+            }
+        }
+
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        Map<Object, Exception> failedMessages = Collections.emptyMap();
+
+        try {
+            sender.send(messages.keySet().toArray(new MimeMessage[0])); // JavaMailSender открывает одно соединение для всех писем
+        } catch (MailSendException e) {
+            failedMessages = e.getFailedMessages(); // не отправленные письма (если не удалось подключиться - все письма)
+            if (failedMessages.isEmpty()) {
+                failedMessages = allFailed(messages, e);
+            }
+        } catch (MailException e) { // например, ошибка авторизации на SMTP сервере
+            failedMessages = allFailed(messages, e);
+        }
+
+        for (Map.Entry<MimeMessage, EmailOutbox> entry : messages.entrySet()) {
+            Exception error = failedMessages.get(entry.getKey());
+            if (error != null) {
+                failed(entry.getValue(), error);
+            } else {
+                outboxRepository.deleteById(entry.getValue().getId()); // письмо отправлено
+            }
+        }
+    }
+
+    private MimeMessage createMessage(EmailOutbox outbox) throws MessagingException {
+        MimeMessage mimeMessage = sender.createMimeMessage(); // создаем не обычный текстовый документ, а HTML
+        MimeMessageHelper message = new MimeMessageHelper(mimeMessage, "utf-8"); // контейнер для отправки письма
+
+        message.setTo(outbox.getRecipient()); // email получателя
+        message.setFrom(emailFrom); // обратный адрес
+        message.setSubject(outbox.getSubject()); // тема
+        message.setText(outbox.getBody(), true); // явно надо указать, что это HTML письмо
+
+        return mimeMessage;
+    }
+
+    // следующая попытка - с паузой, которая удваивается после каждой неудачи
+    private void failed(EmailOutbox outbox, Exception e) {
+        long delay = retryDelayMillis(outbox.getAttempts());
+
+        String error = String.valueOf(e.getMessage());
+        if (error.length() > 1000) {
+            error = error.substring(0, 1000);
+        }
+
+        outboxRepository.failed(outbox.getId(), new Date(System.currentTimeMillis() + delay), error);
+
+        log.log(Level.WARNING, "email outbox: message " + outbox.getId() + " failed (attempt " + (outbox.getAttempts() + 1) + " of " + maxAttempts + ")", e);
+    }
+
+    // пауза перед следующей попыткой: retryBaseSeconds * 2^attempts (attempts - сколько попыток уже было до этой), но не больше MAX_RETRY_DELAY_MILLIS
+    long retryDelayMillis(int attempts) {
+        long delay = (retryBaseSeconds * 1000) << Math.min(attempts, 20); // сдвиг ограничен - без переполнения long
+        return Math.min(delay, MAX_RETRY_DELAY_MILLIS);
+    }
+
+    private static Map<Object, Exception> allFailed(Map<MimeMessage, EmailOutbox> messages, Exception e) {
+        Map<Object, Exception> failed = new IdentityHashMap<>();
+        messages.keySet().forEach(message -> failed.put(message, e));
+        return failed;
+    }
+
+}
@@ -1,33 +1,28 @@
 package ru.javabegin.springboot.auth.service;
 
-import lombok.extern.java.Log;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.mail.javamail.JavaMailSender;
-import org.springframework.mail.javamail.MimeMessageHelper;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.stereotype.Service;
+import ru.javabegin.springboot.auth.entity.EmailOutbox;
+import ru.javabegin.springboot.auth.repository.EmailOutboxRepository;
+import ru.javabegin.springboot.auth.utils.EmailTemplate;
 
-import javax.mail.MessagingException;
-import javax.mail.internet.MimeMessage;
-import java.util.concurrent.Future;
+import javax.transaction.Transactional;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 
 /*
 
 Класс отправляет различные письма пользователю.
 
-Методы отправки письма желательно выполнять в параллельном потоке, чтобы не задерживать пользователя.
-
-Самый простой способ:
-- @EnableAsync - разрешает асинхронный вызов методов (прописать в конфиге Spring)
-- @Async - запускает метод в параллельном потоке (прописать возле нужного метода)
-- если метод возвращает какой-либо тип, его нужно обернуть в спец. объект AsyncResult
-
-Примеры, документация:
-https://spring.io/guides/gs/async-method/
+Письмо не отправляется сразу, а записывается в таблицу EMAIL_OUTBOX (outbox) - в той же транзакции, что и вызывающий код
+(например, письмо активации записывается вместе с новым пользователем при регистрации).
+Отправкой занимается EmailOutboxSender в своих потоках - пользователь не ждет, пока письмо уйдет по SMTP,
+а если отправить не удалось (SMTP сервер недоступен и пр.) - будут повторные попытки.
 
+Текст писем формируется по шаблонам EmailTemplate, которые разбираются 1 раз при загрузке класса.
 
 Сервис может вызываться из любых Spring компонентов, в том числе из контроллеров
 
@@ -35,94 +30,73 @@ https://spring.io/guides/gs/async-method/
  */
 
 @Service
-@Log
+@Transactional // если вызывающий код уже в транзакции - письмо запишется в этой же транзакции
 public class EmailService {
 
+    // текст письма активации в формате HTML (вместо {параметр} будет подставляться значение)
+    private static final EmailTemplate ACTIVATION_TEMPLATE = new EmailTemplate(
+            "Здравствуйте.<br/><br/>" +
+                    "Вы создали аккаунт для веб приложения \"Планировщик дел\": {username} <br/><br/>" +
+                    "<a href='{url}'>Для подтверждения регистрации нажмите на эту ссылку</a><br/><br/>");
+
+    // текст письма для сброса пароля в формате HTML
+    private static final EmailTemplate RESET_PASSWORD_TEMPLATE = new EmailTemplate(
+            "Здравствуйте.<br/><br/>" +
+                    "Кто-то запросил сброс пароля для веб приложения \"Планировщик дел\".<br/><br/>" +
+                    "Если это были не вы - просто удалите это письмо.<br/><br/> Нажмите на ссылку ниже, если хотите сбросить пароль: <br/><br/> " +
+                    "<a href='{url}'>Сбросить пароль</a><br/><br/>");
+
     @Value("${client.url}")
     private String clientURL;  // клиентский URL, который будет подставляться в письма
 
-    @Value("${email.from}")
-    private String emailFrom; // от кого будут приходить письма
-
-    private JavaMailSender sender; // готовый спринговый объект для отправки писем (настройки берутся из application.properties)
+    private EmailOutboxRepository outboxRepository; // письма для отправки
+    private EmailOutboxSender outboxSender; // отправка писем из outbox
 
     @Autowired
-    public EmailService(JavaMailSender sender) {
-        this.sender = sender;
-    } // JavaMailSender будет виден только после настроек почты в файле properties
+    public EmailService(EmailOutboxRepository outboxRepository, EmailOutboxSender outboxSender) {
+        this.outboxRepository = outboxRepository;
+        this.outboxSender = outboxSender;
+    }
 
     // отправка письма активации аккаунта
     // Прикрепляем uuid к URL как get-параметр.
     // Клиент при нажатии на ссылку из письма - получит этот uuid
-    @Async // метод запустится в параллельном потоке
-    public Future<Boolean> sendActivationEmail(String email, String username, String uuid) { // т.к. метод выполняется в паралл. потоке, то возвращать должны спец. объект Future<нужный тип>
-        try {
-            MimeMessage mimeMessage = sender.createMimeMessage(); // создаем не обычный текстовый документ, а HTML
-            MimeMessageHelper message = new MimeMessageHelper(mimeMessage, "utf-8"); // контейнер для отправки письма
-
-
-            String url = clientURL + "/activate-account/" + uuid; // ссылка на клиенте, после перехода на которую должна произойти активация аккаунта
-            // эту ссылку клиент должен обработать и послать соотв. запрос на backend
+    public void sendActivationEmail(String email, String username, String uuid) {
 
+        String url = clientURL + "/activate-account/" + uuid; // ссылка на клиенте, после перехода на которую должна произойти активация аккаунта
+        // эту ссылку клиент должен обработать и послать соотв. запрос на backend
 
-            // текст письма в формате HTML
-            String htmlMsg = String.format(
-                    "Здравствуйте.<br/><br/>" +
-                            "Вы создали аккаунт для веб приложения \"Планировщик дел\": %s <br/><br/>" +
-                            "<a href='%s'>%s</a><br/><br/>",  username, url, "Для подтверждения регистрации нажмите на эту ссылку"); // вместо %s будет подставляться значение в порядке следования
-
-            mimeMessage.setContent(htmlMsg, "text/html"); // тип письма - HTML
-
-            message.setTo(email); // email получателя
-            message.setFrom(emailFrom); // обратный адрес
-            message.setSubject("Требуется активация аккаунта"); // тема
-            message.setText(htmlMsg, true); // явно надо указать, что это HTML письмо
-            sender.send(mimeMessage); // отправка
-
-            return new AsyncResult<>(true); // true - успешная отправка, оборачиваем результат в спец. объект AsyncResult, чтобы результат вернулся после выполнение параллельного потока
-
-        } catch (MessagingException e) {
-            e.printStackTrace();
-        }
-
-        return new AsyncResult<>(false); // false - отправка не удалась, оборачиваем результат в спец. объект AsyncResult, чтобы результат вернулся после выполнение параллельного потока
+        Map<String, String> params = new HashMap<>();
+        params.put("username", username);
+        params.put("url", url);
 
+        enqueue(email, "Требуется активация аккаунта", ACTIVATION_TEMPLATE.render(params));
     }
 
-    @Async // метод запустится в параллельном потоке
     // Мы в письме не можем передать token с помощью кука, поэтому прикрепляем его к URL как get-параметр.
     // Клиент при нажатии на ссылку из письма - получит этот токен (для последующей авторизации запроса на сервер)
-    public Future<Boolean> sendResetPasswordEmail(String email, String token) { // т.к. метод выполняется в паралл. потоке, то возвращать должны спец. объект Future<нужный тип>
-        try {
-            MimeMessage mimeMessage = sender.createMimeMessage(); // создаем не обычный текстовый документ, а HTML
-            MimeMessageHelper message = new MimeMessageHelper(mimeMessage, "utf-8"); // контейнер для отправки письма
-
-            String url = clientURL + "/update-password/" + token; // ссылка на клиенте, после перехода на которую пользователь сможет ввести новый пароль
-            // эту ссылку клиент должен обработать и послать соотв. запрос на backend
+    public void sendResetPasswordEmail(String email, String token) {
 
+        String url = clientURL + "/update-password/" + token; // ссылка на клиенте, после перехода на которую пользователь сможет ввести новый пароль
+        // эту ссылку клиент должен обработать и послать соотв. запрос на backend
 
-            // текст письма в формате HTML
-            String htmlMsg = String.format(
-                    "Здравствуйте.<br/><br/>" +
-                            "Кто-то запросил сброс пароля для веб приложения \"Планировщик дел\".<br/><br/>" +
-                            "Если это были не вы - просто удалите это письмо.<br/><br/> Нажмите на ссылку ниже, если хотите сбросить пароль: <br/><br/> " +
-                            "<a href='%s'>%s</a><br/><br/>", url, "Сбросить пароль"); // вместо %s будет подставляться значение в порядке следования
+        Map<String, String> params = new HashMap<>();
+        params.put("url", url);
 
-            mimeMessage.setContent(htmlMsg, "text/html"); // тип письма - HTML
-
-            message.setTo(email); // email получателя
-            message.setSubject("Сброс пароля"); // тема
-            message.setFrom(emailFrom); // обратный адрес
-            message.setText(htmlMsg, true); // явно надо указать, что это HTML письмо
-            sender.send(mimeMessage); // отправка
+        enqueue(email, "Сброс пароля", RESET_PASSWORD_TEMPLATE.render(params));
+    }
 
-            return new AsyncResult<>(true); // оборачиваем результат в спец. объект AsyncResult, чтобы результат вернулся после выполнение параллельного потока
 
-        } catch (MessagingException e) {
-            e.printStackTrace();
-        }
+    // записать письмо в outbox - отправится после коммита транзакции
+    private void enqueue(String email, String subject, String body) {
+        EmailOutbox outbox = new EmailOutbox();
+        outbox.setRecipient(email); // email получателя
+        outbox.setSubject(subject); // тема
+        outbox.setBody(body);
+        outbox.setNextAttempt(new Date()); // можно отправлять сразу
 
-        return new AsyncResult<>(false); // оборачиваем результат в спец. объект AsyncResult
+        outboxRepository.save(outbox);
 
+        outboxSender.wakeUp();
     }
 }
@@ -2,14 +2,16 @@ package ru.javabegin.springboot.auth.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import ru.javabegin.springboot.auth.entity.User;
 import ru.javabegin.springboot.auth.repository.UserRepository;
+import ru.javabegin.springboot.auth.utils.UserDetailsCache;
 
-import java.util.Optional;
+import java.util.List;
 
 /*
 
@@ -24,36 +26,65 @@ import java.util.Optional;
 
 Класс обязательно должен реализовать интерфейс UserDetailsService, чтобы Spring "принимал" этот класс.
 
+Интерфейс UserDetailsPasswordService - Spring вызывает updatePassword после успешного логина, если хеш пароля нужно пересчитать
+(например, изменилась стоимость BCrypt - см. PasswordHasher.upgradeEncoding).
+
 
  */
 
 @Service
-public class UserDetailsServiceImpl implements UserDetailsService { // Impl в названии класса означает "Implementation" - реализация
+public class UserDetailsServiceImpl implements UserDetailsService, UserDetailsPasswordService { // Impl в названии класса означает "Implementation" - реализация
 
     private UserRepository userRepository; // доступ к БД
+    private UserDetailsCache userDetailsCache; // недавно загруженные пользователи (если кеш включен)
 
     @Autowired
-    public UserDetailsServiceImpl(UserRepository userRepository) {
+    public UserDetailsServiceImpl(UserRepository userRepository, UserDetailsCache userDetailsCache) {
         this.userRepository = userRepository;
+        this.userDetailsCache = userDetailsCache;
     }
 
     @Override
-    @Transactional
     // метод ищет пользователя по username или email (любое совпадение)
+    // транзакция не нужна: пользователь, его роли и активность загружаются одним запросом (ленивых связей, которые загрузятся потом, нет)
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException { // этот метод используется при аутентификации пользователя
 
-        // используем обертку Optional - контейнер, который хранит значение или null - позволяет избежать ошибки NullPointerException
-        Optional<User> userOptional = userRepository.findByUsername(username); // сначала пытаемся найти по имени
+        // если пользователь в БД найден - создаем объект UserDetailsImpl (с объектом User внутри), который потом будет добавлен в Spring контейнер и в объект Principal
+        return userDetailsCache.get(username, () -> findUser(username));
+    }
 
-        if (!userOptional.isPresent()) { // если не нашли по имени
-            userOptional = userRepository.findByEmail(username); // пытаемся найти по email
-        }
 
-        if (!userOptional.isPresent()) { // если не нашли ни по имени, ни по email
+    @Override
+    @Transactional
+    // сохранение нового хеша пароля (newPassword - уже захешированный пароль, введенный пользователем при логине)
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+
+        UserDetailsImpl userDetails = (UserDetailsImpl) user;
+
+        userRepository.updatePassword(newPassword, userDetails.getEmail());
+        userDetailsCache.invalidateEmail(userDetails.getEmail());
+        userDetails.getUser().setPassword(newPassword);
+
+        return userDetails;
+    }
+
+
+    // пользователь из БД по username или email (если нашлись оба варианта - как и раньше, сначала по username)
+    private User findUser(String username) {
+
+        List<User> users = userRepository.findByLogin(username);
+
+        if (users.isEmpty()) { // если не нашли ни по имени, ни по email
             throw new UsernameNotFoundException("User Not Found with username or email: " + username); // выбрасываем исключение, которое можно отправить клиенту
         }
 
-        return new UserDetailsImpl(userOptional.get()); // если пользователь в БД найден - создаем объект UserDetailsImpl (с объектом User внутри), который потом будет добавлен в Spring контейнер и в объект Principal
+        for (User user : users) {
+            if (username.equals(user.getUsername())) {
+                return user;
+            }
+        }
+
+        return users.get(0);
     }
 
 
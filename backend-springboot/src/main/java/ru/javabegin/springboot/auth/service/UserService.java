@@ -1,16 +1,25 @@
 package ru.javabegin.springboot.auth.service;
 
+import lombok.extern.java.Log;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import ru.javabegin.springboot.auth.entity.Activity;
 import ru.javabegin.springboot.auth.entity.Role;
 import ru.javabegin.springboot.auth.entity.User;
+import ru.javabegin.springboot.auth.exception.UserOrEmailExistsException;
 import ru.javabegin.springboot.auth.repository.ActivityRepository;
 import ru.javabegin.springboot.auth.repository.RoleRepository;
 import ru.javabegin.springboot.auth.repository.UserRepository;
+import ru.javabegin.springboot.auth.utils.LoginBloomFilter;
+import ru.javabegin.springboot.auth.utils.UserDetailsCache;
 
 import javax.transaction.Transactional;
+import java.sql.SQLException;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Service
 
@@ -21,32 +30,55 @@ import java.util.Optional;
  Если в методе при вызове репозитория возникнет исключение - все выполненные вызовы к БД из данного метода откатятся (Rollback)
 */
 @Transactional
-
+@Log
 
 public class UserService {
 
     public static final String DEFAULT_ROLE = "USER"; // такая роль должна быть обязательно в таблице БД
 
+    private static final String UNIQUE_VIOLATION = "23505"; // SQLState нарушения уникального индекса
+
 
     private UserRepository userRepository; // работа с пользователями
     private RoleRepository roleRepository; // работа с ролями
     private ActivityRepository activityRepository; // работа с активностями
+    private UserDetailsCache userDetailsCache; // пользователи для аутентификации - сбрасываем при изменении пароля и активности
+    private LoginBloomFilter loginFilter; // все username и email - чтобы при регистрации не проверять в БД заведомо новые значения
+    private EmailService emailService; // письма пользователю (записываются в той же транзакции)
 
 
     @Autowired
-    public UserService(UserRepository userRepository, RoleRepository roleRepository, ActivityRepository activityRepository) {
+    public UserService(UserRepository userRepository, RoleRepository roleRepository, ActivityRepository activityRepository, UserDetailsCache userDetailsCache, LoginBloomFilter loginFilter, EmailService emailService) {
         this.userRepository = userRepository;
         this.roleRepository = roleRepository;
         this.activityRepository = activityRepository;
+        this.userDetailsCache = userDetailsCache;
+        this.loginFilter = loginFilter;
+        this.emailService = emailService;
     }
 
 
     public void register(User user, Activity activity) {
 
+        // добавляем в фильтр до сохранения - чтобы параллельная регистрация с теми же данными уже проверялась в БД
+        // (если транзакция откатится - в фильтре останется лишнее значение, это только лишний запрос в БД при проверке)
+        loginFilter.put(LoginBloomFilter.USERNAME, user.getUsername());
+        loginFilter.put(LoginBloomFilter.EMAIL, user.getEmail());
+
         // сохраняем данные в БД - если будет ошибка - никакие данные в БД не попадут, произойдет Rollback (откат транзакции) - благодаря @Transactional
-        userRepository.save(user);
+        try {
+            userRepository.save(user); // id - IDENTITY, поэтому insert выполняется сразу (уникальные индексы проверяются здесь)
+        } catch (DataIntegrityViolationException e) {
+            if (isUniqueViolation(e)) { // userExists пропустил (см. комментарий к userExists) - ответ такой же, как при проверке
+                throw new UserOrEmailExistsException("User or email already exists", e);
+            }
+            throw e;
+        }
         activityRepository.save(activity); // почему мы отдельно сохр. activity - потому это новый пользователь и у него еще нет соттв. записи в Activity
 
+        // письмо о том, что нужно активировать аккаунт - записывается в этой же транзакции (если регистрация не сохранится - письмо не уйдет)
+        emailService.sendActivationEmail(user.getEmail(), user.getUsername(), activity.getUuid());
+
         // даже если в последнем вызове репозитория выйдет ошибка - все предыдущие вызовы также откатятся
     }
 
@@ -56,20 +88,64 @@ public class UserService {
 
 
 
-    // проверка, существует ли пользователь в БД (email и username должны быть уникальными в таблице)
+    /*
+    Проверка, существует ли пользователь в БД - быстрый ответ для клиента, но не гарантия уникальности.
+
+    LoginBloomFilter хранится в памяти одного экземпляра приложения: пользователей, зарегистрированных через другой экземпляр, в нем нет,
+    а приведение к нижнему регистру в Java и lower() в PostgreSQL могут различаться для не-ASCII символов.
+    Поэтому уникальность обеспечивают индексы в БД (при их нарушении register выбрасывает то же UserOrEmailExistsException):
+
+    create unique index user_data_username_uidx on user_data (lower(username));
+    create unique index user_data_email_uidx on user_data (lower(email));
+     */
     public boolean userExists(String username, String email) {
 
-        if (userRepository.existsByUsername(username)) {
-            return true; // если запись в БД существует
+        // если фильтр точно знает, что таких username и email нет - в БД не проверяем
+        if (!loginFilter.mightContain(LoginBloomFilter.USERNAME, username)
+                && !loginFilter.mightContain(LoginBloomFilter.EMAIL, email)) {
+            return false;
         }
 
-        if (userRepository.existsByEmail(email)) {
-            return true; // если запись в БД существует
+        boolean exists = userRepository.existsByUsernameOrEmail(username, email); // один запрос вместо двух
+
+        if (!exists && loginFilter.isReady()) {
+            loginFilter.falsePositive();
         }
 
+        return exists;
+    }
+
+
+    // нарушен уникальный индекс (а не другое ограничение БД)
+    private static boolean isUniqueViolation(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException && UNIQUE_VIOLATION.equals(((SQLException) cause).getSQLState())) {
+                return true;
+            }
+        }
         return false;
     }
 
+
+    // построение LoginBloomFilter после старта приложения (до этого фильтр на все отвечает "возможно есть")
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildLoginFilter() {
+
+        long count = 0;
+
+        try (Stream<Object[]> logins = userRepository.streamLogins()) {
+            for (Object[] login : (Iterable<Object[]>) logins::iterator) {
+                loginFilter.put(LoginBloomFilter.USERNAME, (String) login[0]);
+                loginFilter.put(LoginBloomFilter.EMAIL, (String) login[1]);
+                count++;
+            }
+        }
+
+        loginFilter.ready();
+
+        log.info("login filter: " + count + " users loaded, estimated false positive rate " + loginFilter.getEstimatedFalsePositiveRate());
+    }
+
     // получаем из БД объект роли
     public Optional<Role> findByName(String role) {
         return roleRepository.findByName(role);
@@ -90,16 +166,19 @@ public class UserService {
 
     // true сконвертируется в 1, т.к. указали @Type(type = "org.hibernate.type.NumericBooleanType") в классе Activity
     public int activate(String uuid){
+        userDetailsCache.invalidateActivity(uuid);
         return activityRepository.changeActivated(uuid, true);
     }
 
     // false сконвертируется в 0, т.к. указали @Type(type = "org.hibernate.type.NumericBooleanType") в классе Activity
     public int deactivate(String uuid){
+        userDetailsCache.invalidateActivity(uuid);
         return activityRepository.changeActivated(uuid, false);
     }
 
 
     public int updatePassword(String password, String email){
+        userDetailsCache.invalidateEmail(email);
         return userRepository.updatePassword(password, email);
     }
 
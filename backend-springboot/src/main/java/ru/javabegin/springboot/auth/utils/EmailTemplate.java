@@ -0,0 +1,65 @@
+package ru.javabegin.springboot.auth.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/*
+
+Шаблон письма с параметрами вида {name}.
+
+Текст шаблона разбирается один раз (при создании объекта) на части: постоянный текст и названия параметров.
+При отправке письма остается только склеить части в StringBuilder (без повторного разбора формата, как в String.format).
+
+Объект неизменяемый - один экземпляр можно использовать из разных потоков.
+
+*/
+
+public class EmailTemplate {
+
+    private final String[] texts; // постоянный текст: texts[i] идет перед параметром names[i], последний элемент - после всех параметров
+    private final String[] names; // названия параметров в порядке следования
+    private final int length; // длина постоянного текста (для начального размера StringBuilder)
+
+    public EmailTemplate(String template) {
+        List<String> texts = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+
+        int start = 0;
+        int open;
+        while ((open = template.indexOf('{', start)) >= 0) {
+            int close = template.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed parameter in email template at " + open);
+            }
+            texts.add(template.substring(start, open));
+            names.add(template.substring(open + 1, close));
+            start = close + 1;
+        }
+        texts.add(template.substring(start));
+
+        this.texts = texts.toArray(new String[0]);
+        this.names = names.toArray(new String[0]);
+        this.length = texts.stream().mapToInt(String::length).sum();
+    }
+
+
+    // текст письма с подставленными значениями параметров
+    public String render(Map<String, String> params) {
+        StringBuilder result = new StringBuilder(length + 128);
+
+        for (int i = 0; i < names.length; i++) {
+            result.append(texts[i]);
+
+            String value = params.get(names[i]);
+            if (value == null) {
+                throw new IllegalArgumentException("No value for email template parameter " + names[i]);
+            }
+            result.append(value);
+        }
+        result.append(texts[names.length]);
+
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,114 @@
+package ru.javabegin.springboot.auth.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.javabegin.springboot.auth.service.UserDetailsImpl;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+
+Кеш уже проверенных JWT.
+
+Один и тот же jwt приходит с каждым запросом пользователя, пока не истечет его срок действия.
+Проверка подписи (HS512) и создание User из данных токена (через jackson) выполняются только при первом запросе с этим токеном,
+для следующих запросов берем готовый UserDetailsImpl из кеша.
+
+Ключ - хеш SHA-256 от jwt (сам токен в памяти не храним). Значение хранится не дольше срока действия токена (поле exp),
+поэтому просроченный jwt из кеша не будет принят.
+
+*/
+
+@Component
+public class JwtCache {
+
+    private final RevokedTokens revokedTokens; // отозванные jwt (logout, обновление пароля)
+
+    @Value("${jwt.cache.max-size:10000}")
+    private int maxSize; // сколько токенов хранить (при превышении сначала удаляются просроченные, если не помогло - кеш очищается полностью)
+
+    private final Map<String, Entry> tokens = new ConcurrentHashMap<>();
+
+    public JwtCache(RevokedTokens revokedTokens) {
+        this.revokedTokens = revokedTokens;
+    }
+
+    // пользователь для уже проверенного jwt (null - если jwt нет в кеше или истек его срок действия)
+    public UserDetailsImpl get(String jwt) {
+        String key = digest(jwt);
+
+        Entry entry = tokens.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.expiration <= System.currentTimeMillis()) {
+            tokens.remove(key);
+            return null;
+        }
+
+        if (revokedTokens.isRevoked(entry.userDetails.getUser().getId(), entry.issuedAt)) { // jwt проверен раньше, но уже отозван
+            tokens.remove(key);
+            return null;
+        }
+
+        return entry.userDetails;
+    }
+
+    // сохранить пользователя для jwt, который успешно прошел проверку (issuedAt - время создания, expiration - срок действия jwt)
+    public void put(String jwt, UserDetailsImpl userDetails, Date issuedAt, Date expiration) {
+        if (expiration == null) { // токен без срока действия не кешируем
+            return;
+        }
+
+        if (tokens.size() >= maxSize) {
+            removeExpired();
+            if (tokens.size() >= maxSize) {
+                tokens.clear();
+            }
+        }
+
+        tokens.put(digest(jwt), new Entry(userDetails, RevokedTokens.issuedAt(issuedAt), expiration.getTime()));
+    }
+
+
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> it = tokens.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().expiration <= now) {
+                it.remove();
+            }
+        }
+    }
+
+    private static String digest(String jwt) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256"); // MessageDigest не потокобезопасен - создаем для каждого вызова (это дешево)
+            return Base64.getEncoder().encodeToString(digest.digest(jwt.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // SHA-256 есть в любой JVM
+        }
+    }
+
+
+    private static class Entry {
+        private final UserDetailsImpl userDetails;
+        private final long issuedAt; // время создания jwt в сек
+        private final long expiration; // срок действия jwt в мс
+
+        private Entry(UserDetailsImpl userDetails, long issuedAt, long expiration) {
+            this.userDetails = userDetails;
+            this.issuedAt = issuedAt;
+            this.expiration = expiration;
+        }
+    }
+
+}
@@ -5,12 +5,15 @@ import io.jsonwebtoken.*;
 import lombok.extern.java.Log;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import ru.javabegin.springboot.auth.entity.Role;
 import ru.javabegin.springboot.auth.entity.User;
+import ru.javabegin.springboot.auth.exception.JwtCommonException;
 
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
 
 /*
 
@@ -26,7 +29,29 @@ import java.util.logging.Level;
 @Log
 public class JwtUtils {
 
-    public static final String CLAIM_USER_KEY = "user"; // поле в JWT, в которое будет записан User
+    /*
+    Формат данных пользователя в JWT (кук с jwt отправляется с каждым запросом - чем меньше полей, тем меньше размер запроса).
+
+    Версия 2 (текущая): только нужные для аутентификации поля, короткие названия - пользователь собирается из них без jackson:
+    v - версия формата, sub - id, un - username, em - email, rl - роли через запятую
+
+    Версия 1 (старая): весь объект User в поле user - такие токены принимаются, пока не истечет их срок действия
+     */
+    public static final int CLAIMS_VERSION = 2;
+    public static final String CLAIM_VERSION_KEY = "v";
+    public static final String CLAIM_USERNAME_KEY = "un";
+    public static final String CLAIM_EMAIL_KEY = "em";
+    public static final String CLAIM_ROLES_KEY = "rl";
+
+    public static final String CLAIM_USER_KEY = "user"; // поле в JWT, в которое записывался весь User (версия 1)
+
+    private final ObjectMapper mapper = new ObjectMapper(); // после настройки ObjectMapper потокобезопасен - создаем 1 раз, а не при каждом запросе
+
+    private final RevokedTokens revokedTokens; // время создания нового jwt должно быть позже последнего отзыва
+
+    public JwtUtils(RevokedTokens revokedTokens) {
+        this.revokedTokens = revokedTokens;
+    }
 
     @Value("${jwt.secret}")
     private String jwtSecret; // секретный ключ для создания jwt (хранится только на сервере, нельзя никуда передавать)
@@ -52,16 +77,19 @@ public class JwtUtils {
 
 
     // создает JWT с нужным сроком действия
-    private String createToken(User user, int duration){ // все, что будет передано в User - будет записано в JWT
-        Date currentDate = new Date(); // для отсчета времени от текущего момента - для задания expiration
+    private String createToken(User user, int duration){ // из User в JWT записываются только id, username, email и роли
+        Date currentDate = revokedTokens.issueTime(user.getId()); // текущий момент (или следующая секунда после отзыва jwt пользователя) - для задания expiration
 
         // пароль зануляем до формирования jwt
         user.setPassword(null); // пароль нужен только один раз для аутентификации - поэтому можем его занулить, чтобы больше нигде не "засветился"
 
 
         Map claims = new HashMap<String, Object>();
-        claims.put(CLAIM_USER_KEY, user);
-        claims.put(Claims.SUBJECT, user.getId()); // системные поля типа sub также можно добавлять
+        claims.put(CLAIM_VERSION_KEY, CLAIMS_VERSION);
+        claims.put(Claims.SUBJECT, String.valueOf(user.getId())); // системные поля типа sub также можно добавлять
+        claims.put(CLAIM_USERNAME_KEY, user.getUsername());
+        claims.put(CLAIM_EMAIL_KEY, user.getEmail());
+        claims.put(CLAIM_ROLES_KEY, user.getRoles().stream().map(Role::getName).collect(Collectors.joining(",")));
 
 
         return Jwts.builder()
@@ -78,14 +106,15 @@ public class JwtUtils {
     }
 
 
-    // проверить целостность данных (не истек ли срок jwt и пр.)
-    public boolean validate(String jwt) {
+    // проверить целостность данных (не истек ли срок jwt и пр.) и получить все данные jwt - за один разбор токена
+    // возвращает null, если jwt не прошел проверку
+    public Claims parse(String jwt) {
         try {
-            Jwts.
+            return Jwts.
                     parser(). // проверка формата на корректность
                     setSigningKey(jwtSecret). // указываем каким ключом будет проверять подпись
-                    parseClaimsJws(jwt); // проверка подписи "секретом"
-            return true; // проверка прошла успешно
+                    parseClaimsJws(jwt). // проверка подписи "секретом"
+                    getBody(); // проверка прошла успешно
         } catch (MalformedJwtException e) {
             log.log(Level.SEVERE, "Invalid JWT token: ", jwt);
         } catch (ExpiredJwtException e) {
@@ -96,7 +125,7 @@ public class JwtUtils {
             log.log(Level.SEVERE, "JWT claims string is empty: ", jwt);
         }
 
-        return false; // валидация не прошла успешно (значит данные payload были изменены - подпись была наложена не на этот payload)
+        return null; // валидация не прошла успешно (значит данные payload были изменены - подпись была наложена не на этот payload)
 
         /*
         Сервер проверяет своим ключом JWT.
@@ -106,13 +135,34 @@ public class JwtUtils {
     }
 
 
-    // получение поля subject из JWT
-    public User getUser(String jwt) {
+    // получение пользователя из уже проверенных данных JWT (см. parse) - повторно токен не разбираем
+    public User getUser(Claims claims) {
+
+        Object version = claims.get(CLAIM_VERSION_KEY);
+
+        if (version == null) { // версия 1 - весь User в одном поле
+            Map map = (Map) claims.get(CLAIM_USER_KEY); // CLAIM_USER_KEY здесь - это поле из токена
+            return mapper.convertValue(map, User.class);
+        }
 
-        Map map = (Map)Jwts.parser().setSigningKey(jwtSecret).parseClaimsJws(jwt).getBody().get(CLAIM_USER_KEY); // CLAIM_USER_KEY здесь - это поле из токена
+        if (((Number) version).intValue() != CLAIMS_VERSION) {
+            throw new JwtCommonException("unsupported jwt version: " + version);
+        }
 
-        ObjectMapper mapper = new ObjectMapper();
-        User user = mapper.convertValue(map, User.class);
+        // версия 2 - собираем User из отдельных полей (без jackson)
+        User user = new User();
+        user.setId(Long.valueOf(claims.getSubject()));
+        user.setUsername((String) claims.get(CLAIM_USERNAME_KEY));
+        user.setEmail((String) claims.get(CLAIM_EMAIL_KEY));
+
+        String roles = (String) claims.get(CLAIM_ROLES_KEY);
+        if (roles != null && !roles.isEmpty()) {
+            for (String name : roles.split(",")) {
+                Role role = new Role();
+                role.setName(name);
+                user.getRoles().add(role);
+            }
+        }
 
         return user;
     }
@@ -0,0 +1,189 @@
+package ru.javabegin.springboot.auth.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+
+Фильтр Блума по всем username и email пользователей (без учета регистра) - для быстрой проверки при регистрации.
+
+Ответ "нет" - точный для значений, которые видел этот экземпляр приложения: запрос в БД не нужен (например, при массовой регистрации ботами новых адресов).
+Регистрации через другие экземпляры приложения в фильтр не попадают - окончательную проверку выполняют уникальные индексы БД (см. UserService.userExists).
+Ответ "возможно есть" - нужно проверить в БД (с вероятностью falsePositiveRate такого значения в БД нет).
+
+Фильтр строится при старте приложения (все username и email читаются из БД порциями, см. UserService.buildLoginFilter)
+и пополняется при каждой регистрации. Удалить значение из фильтра Блума нельзя - если пользователя удалят, фильтр будет
+отвечать "возможно есть" (это только лишний запрос в БД, а не ошибка).
+
+Пока фильтр не построен - на все вопросы отвечает "возможно есть".
+
+Размер рассчитывается по ожидаемому кол-ву значений и допустимой доле ложных срабатываний:
+bits = -n * ln(p) / ln(2)^2, hashes = bits / n * ln(2) (для 100 000 пользователей и 1% - около 240 КБ памяти).
+Если значений стало больше ожидаемого, доля ложных срабатываний растет (текущая оценка доступна через JMX) - нужно увеличить user.login-filter.expected.
+
+*/
+
+@Component
+@ManagedResource(objectName = "ru.javabegin.springboot:type=Security,name=LoginBloomFilter")
+public class LoginBloomFilter {
+
+    // значения username и email хранятся в одном фильтре, но с разными признаками (чтобы username не совпал с чужим email)
+    public static final char USERNAME = 'u';
+    public static final char EMAIL = 'e';
+
+    private final int expected; // ожидаемое кол-во значений (пользователей * 2)
+    private final double falsePositiveRate; // допустимая доля ложных срабатываний при expected значений
+    private final long bitSize;
+    private final int hashCount;
+    private final AtomicLongArray bits;
+
+    private volatile boolean ready; // фильтр построен
+
+    private final AtomicLong insertions = new AtomicLong();
+    private final AtomicLong checks = new AtomicLong();
+    private final AtomicLong negatives = new AtomicLong(); // ответ "нет" - запрос в БД не выполнялся
+    private final AtomicLong falsePositives = new AtomicLong(); // ответ "возможно есть", но в БД значения не оказалось
+
+
+    public LoginBloomFilter(@Value("${user.login-filter.expected:200000}") int expected,
+                            @Value("${user.login-filter.false-positive-rate:0.01}") double falsePositiveRate) {
+
+        this.expected = expected;
+        this.falsePositiveRate = falsePositiveRate;
+
+        long size = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bitSize = Math.max(64, (size + 63) / 64 * 64); // кратно 64 (храним в long)
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / expected * Math.log(2)));
+        this.bits = new AtomicLongArray((int) (bitSize / 64));
+    }
+
+
+    // добавить значение (type - USERNAME или EMAIL)
+    public void put(char type, String value) {
+        if (value == null) {
+            return;
+        }
+
+        long hash = hash(type, value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bitSize);
+            long mask = 1L << (bit & 63);
+            bits.accumulateAndGet((int) (bit >>> 6), mask, (current, m) -> current | m);
+        }
+
+        insertions.incrementAndGet();
+    }
+
+    // false - значения точно нет, true - значение возможно есть (нужно проверить в БД)
+    public boolean mightContain(char type, String value) {
+        checks.incrementAndGet();
+
+        if (!ready || value == null) {
+            return true;
+        }
+
+        long hash = hash(type, value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bitSize);
+            if ((bits.get((int) (bit >>> 6)) & (1L << (bit & 63))) == 0) {
+                negatives.incrementAndGet();
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // фильтр ответил "возможно есть", а в БД значения не оказалось
+    public void falsePositive() {
+        falsePositives.incrementAndGet();
+    }
+
+    // все значения из БД добавлены - можно отвечать "нет"
+    public void ready() {
+        ready = true;
+    }
+
+
+    @ManagedAttribute
+    public boolean isReady() {
+        return ready;
+    }
+
+    @ManagedAttribute
+    public int getExpected() {
+        return expected;
+    }
+
+    @ManagedAttribute
+    public double getConfiguredFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    @ManagedAttribute
+    public long getBitSize() {
+        return bitSize;
+    }
+
+    @ManagedAttribute
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    @ManagedAttribute
+    public long getInsertions() {
+        return insertions.get();
+    }
+
+    // оценка доли ложных срабатываний при текущем кол-ве значений: (1 - e^(-k*n/m))^k
+    @ManagedAttribute
+    public double getEstimatedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) hashCount * insertions.get() / bitSize), hashCount);
+    }
+
+    @ManagedAttribute
+    public long getChecks() {
+        return checks.get();
+    }
+
+    @ManagedAttribute
+    public long getNegatives() {
+        return negatives.get();
+    }
+
+    @ManagedAttribute
+    public long getFalsePositives() {
+        return falsePositives.get();
+    }
+
+
+    // 64-битный хеш FNV-1a по символам значения в нижнем регистре (без создания новой строки)
+    private static long hash(char type, String value) {
+        long hash = 0xcbf29ce484222325L;
+
+        hash = (hash ^ type) * 0x100000001b3L;
+
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ Character.toLowerCase(value.charAt(i))) * 0x100000001b3L;
+        }
+
+        // перемешивание битов (FNV плохо распределяет старшие биты для коротких строк)
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+
+}
@@ -0,0 +1,199 @@
+package ru.javabegin.springboot.auth.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+import ru.javabegin.springboot.auth.exception.PasswordHashBusyException;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+
+Кодировщик паролей (BCrypt), который выполняет хеширование и проверку пароля в отдельном пуле потоков.
+
+BCrypt специально сделан медленным (десятки миллисекунд процессорного времени на каждый вызов).
+Если выполнять его прямо в потоках Tomcat, то при большом кол-ве одновременных логинов все потоки заняты BCrypt,
+и простые запросы (список задач, категорий и пр.) ждут своей очереди.
+
+Поэтому:
+- кол-во потоков для BCrypt = кол-ву ядер процессора (больше нет смысла - задача полностью нагружает процессор)
+- очередь ожидания ограничена: если она заполнена - сразу выбрасывается PasswordHashBusyException (клиенту - статус 503), а не ждем
+- поток запроса ждет только результат своего пароля, поэтому одновременно на пароли может быть занято не больше threads + queueSize потоков Tomcat
+
+Используется везде, где нужен PasswordEncoder: проверка пароля при логине (AuthenticationManager), регистрация, обновление пароля.
+
+Если изменить стоимость BCrypt (password.bcrypt.strength) - хеш пароля пересчитывается при следующем успешном логине пользователя
+(upgradeEncoding, см. UserDetailsServiceImpl.updatePassword).
+
+Размер очереди, кол-во отказов и среднее время хеширования/ожидания доступны через JMX.
+
+*/
+
+@Component
+@ManagedResource(objectName = "ru.javabegin.springboot:type=Security,name=PasswordHasher")
+public class PasswordHasher implements PasswordEncoder {
+
+    private final int strength; // стоимость BCrypt (log2 кол-ва раундов)
+    private final BCryptPasswordEncoder bcrypt;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong hashCount = new AtomicLong(); // выполнено хеширований и проверок
+    private final AtomicLong hashNanos = new AtomicLong(); // общее время выполнения BCrypt
+    private final AtomicLong waitNanos = new AtomicLong(); // общее время ожидания в очереди
+    private final AtomicLong rejected = new AtomicLong(); // отказов из-за заполненной очереди
+
+
+    public PasswordHasher(@Value("${password.bcrypt.strength:10}") int strength,
+                          @Value("${password.hash.threads:0}") int threads, // 0 - по кол-ву ядер процессора
+                          @Value("${password.hash.queue-size:64}") int queueSize) {
+
+        this.strength = strength;
+        this.bcrypt = new BCryptPasswordEncoder(strength);
+
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+
+        AtomicInteger threadNumber = new AtomicInteger();
+
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hash-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy()); // очередь заполнена - RejectedExecutionException
+    }
+
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return run(() -> bcrypt.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return run(() -> bcrypt.matches(rawPassword, encodedPassword));
+    }
+
+    // true - если хеш создан с другой стоимостью BCrypt (его нужно пересчитать после успешной проверки пароля)
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        int cost = cost(encodedPassword);
+        return cost > 0 && cost != strength;
+    }
+
+
+    @ManagedAttribute
+    public int getStrength() {
+        return strength;
+    }
+
+    @ManagedAttribute
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    @ManagedAttribute
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+
+    @ManagedAttribute
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @ManagedAttribute
+    public long getHashCount() {
+        return hashCount.get();
+    }
+
+    @ManagedAttribute
+    public double getAverageHashMillis() {
+        long count = hashCount.get();
+        return count == 0 ? 0 : hashNanos.get() / 1_000_000.0 / count;
+    }
+
+    @ManagedAttribute
+    public double getAverageWaitMillis() {
+        long count = hashCount.get();
+        return count == 0 ? 0 : waitNanos.get() / 1_000_000.0 / count;
+    }
+
+
+    // выполнить задачу в пуле BCrypt и дождаться результата в текущем потоке
+    private <T> T run(Callable<T> task) {
+        long submitted = System.nanoTime();
+
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                long started = System.nanoTime();
+                try {
+                    return task.call();
+                } finally {
+                    long finished = System.nanoTime();
+                    waitNanos.addAndGet(started - submitted);
+                    hashNanos.addAndGet(finished - started);
+                    hashCount.incrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw new PasswordHashBusyException("Password hashing queue is full", e);
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PasswordHashBusyException("Interrupted while waiting for password hashing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause(); // ошибки BCrypt (например, неверный формат хеша) - как при обычном вызове
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+
+    // стоимость из хеша BCrypt вида $2a$10$... (0 - если формат не распознан)
+    private static int cost(String encodedPassword) {
+        if (encodedPassword == null || encodedPassword.length() < 7 || encodedPassword.charAt(0) != '$') {
+            return 0;
+        }
+
+        int end = encodedPassword.indexOf('$', 1); // конец версии ($2a, $2b, $2y)
+        if (end < 0 || encodedPassword.length() < end + 3) {
+            return 0;
+        }
+
+        char high = encodedPassword.charAt(end + 1);
+        char low = encodedPassword.charAt(end + 2);
+        if (!Character.isDigit(high) || !Character.isDigit(low)) {
+            return 0;
+        }
+
+        return (high - '0') * 10 + (low - '0');
+    }
+
+}
@@ -0,0 +1,91 @@
+package ru.javabegin.springboot.auth.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+
+Ограничение кол-ва запросов по ключу (IP адрес, имя пользователя и пр.) - "ведро с токенами" (token bucket).
+
+Для каждого ключа: не больше capacity запросов подряд, дальше - 1 запрос каждые period / capacity (ведро полностью наполняется за period).
+
+Состояние ключа - одно число (алгоритм GCRA, равносилен token bucket): время, когда ведро снова станет полным.
+Запрос разрешается, если до этого времени осталось не больше (period - интервал одного токена), и тогда время сдвигается на интервал.
+Изменение выполняется через compareAndSet - без блокировок.
+
+Ограничение памяти: не больше maxKeys ключей.
+Ключ, ведро которого уже полное, можно удалить без потери информации (новое ведро будет таким же) - такие ключи удаляются при заполнении,
+но не чаще раза в секунду. Если все ключи активны (например, запросы с очень большого кол-ва адресов),
+новые ключи используют одно общее ведро - т.е. ограничение не отключается.
+
+*/
+
+public class RateLimiter {
+
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final long periodNanos; // за сколько ведро наполняется полностью
+    private final long intervalNanos; // за сколько добавляется 1 токен
+    private final int maxKeys;
+
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>(); // ключ -> время, когда ведро станет полным
+    private final AtomicLong overflow = new AtomicLong(System.nanoTime()); // общее ведро для новых ключей, если места нет
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+    public RateLimiter(int capacity, long period, TimeUnit unit, int maxKeys) {
+        this.periodNanos = unit.toNanos(period);
+        this.intervalNanos = Math.max(1, periodNanos / capacity);
+        this.maxKeys = maxKeys;
+    }
+
+
+    // 0 - запрос разрешен, иначе - через сколько наносекунд можно повторить
+    public long tryAcquire(String key) {
+        long now = System.nanoTime();
+
+        AtomicLong bucket = buckets.get(key);
+
+        if (bucket == null) {
+            if (buckets.size() >= maxKeys) {
+                sweep(now);
+            }
+            bucket = buckets.size() < maxKeys
+                    ? buckets.computeIfAbsent(key, k -> new AtomicLong(now)) // новое ведро - полное
+                    : overflow;
+        }
+
+        while (true) {
+            long full = bucket.get();
+
+            long start = full - now < 0 ? now : full; // ведро уже полное - отсчет от текущего момента
+            long next = start + intervalNanos;
+
+            long wait = next - now - periodNanos; // сколько не хватает до 1 токена
+            if (wait > 0) {
+                return wait;
+            }
+
+            if (bucket.compareAndSet(full, next)) {
+                return 0;
+            }
+        }
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+
+    // удаляем ключи, ведра которых уже полные
+    private void sweep(long now) {
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL_NANOS || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+
+        buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+    }
+
+}
@@ -0,0 +1,184 @@
+package ru.javabegin.springboot.auth.utils;
+
+import lombok.extern.java.Log;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/*
+
+Отозванные jwt (logout, обновление пароля) - без запроса в БД при каждом запросе.
+
+Для каждого пользователя хранится одно число - время отзыва (в секундах, как поле iat в jwt):
+все jwt пользователя, созданные раньше этого времени или в ту же секунду, больше не принимаются (т.е. выход выполняется на всех устройствах).
+
+iat хранит только секунды, поэтому по нему нельзя отличить jwt, созданный в ту же секунду до отзыва, от созданного после.
+Поэтому новый jwt пользователя получает iat не раньше следующей секунды после отзыва (см. issueTime) и проходит проверку как обычно.
+
+Проверка - один get в ConcurrentHashMap по id пользователя (без создания объектов), если отозванных токенов нет - без поиска вообще.
+
+Запись удаляется, когда все jwt, созданные до отзыва, истекли сами (время отзыва + срок действия access_token).
+
+Чтобы отзыв не потерялся при перезапуске, каждая запись добавляется в конец файла (revokedFile),
+при запуске файл читается и перезаписывается без устаревших записей. Пустое значение revokedFile - хранить только в памяти.
+Файл также перезаписывается во время работы, когда строк в нем стало вдвое больше, чем действующих записей
+(но не раньше MIN_COMPACT_LINES строк) - иначе при частых отзывах файл рос бы до следующего перезапуска.
+
+*/
+
+@Component
+@Log
+public class RevokedTokens {
+
+    private static final int MIN_COMPACT_LINES = 1000; // файл меньше этого размера не перезаписывается (кроме запуска)
+
+    private final Map<Long, Long> revoked = new ConcurrentHashMap<>(); // id пользователя -> время отзыва (сек)
+
+    private final long tokenLifetimeSeconds; // срок действия access_token (самый долгий из наших jwt)
+    private final Path file; // null - не сохранять в файл
+
+    private int lines; // кол-во строк в файле (изменяется только в synchronized методах)
+
+    public RevokedTokens(@Value("${jwt.access_token-expiration}") int accessTokenExpiration,
+                         @Value("${jwt.revoked.file:jwt-revoked.txt}") String revokedFile) {
+
+        this.tokenLifetimeSeconds = accessTokenExpiration / 1000 + 1;
+        this.file = revokedFile == null || revokedFile.trim().isEmpty() ? null : Paths.get(revokedFile.trim());
+
+        load();
+    }
+
+
+    // true - если jwt пользователя userId, созданный в issuedAt (сек, см. issuedAt(Date)), отозван
+    public boolean isRevoked(Long userId, long issuedAt) {
+        if (revoked.isEmpty() || userId == null) { // обычный случай - отозванных токенов нет
+            return false;
+        }
+
+        Long revokedAt = revoked.get(userId);
+
+        return revokedAt != null && issuedAt <= revokedAt;
+    }
+
+    // время создания нового jwt пользователя: текущий момент, но не раньше следующей секунды после отзыва
+    // (иначе jwt, созданный в ту же секунду после отзыва, тоже считался бы отозванным)
+    public Date issueTime(Long userId) {
+        long now = System.currentTimeMillis();
+
+        Long revokedAt = userId != null && !revoked.isEmpty() ? revoked.get(userId) : null;
+
+        if (revokedAt != null && now / 1000 <= revokedAt) {
+            return new Date((revokedAt + 1) * 1000);
+        }
+
+        return new Date(now);
+    }
+
+    // время создания jwt в секундах (0 - если в jwt нет iat: такой jwt считается отозванным, если у пользователя был отзыв)
+    public static long issuedAt(Date issuedAt) {
+        return issuedAt != null ? issuedAt.getTime() / 1000 : 0;
+    }
+
+    // отозвать все jwt пользователя, созданные до текущего момента (включая текущую секунду)
+    public void revokeAll(Long userId) {
+        long now = System.currentTimeMillis() / 1000;
+
+        revoked.merge(userId, now, Math::max);
+
+        removeExpired(now);
+
+        append(userId, now);
+    }
+
+
+    private void removeExpired(long now) {
+        revoked.values().removeIf(revokedAt -> revokedAt + tokenLifetimeSeconds < now);
+    }
+
+    // добавить запись в конец файла (строка: id пользователя и время отзыва)
+    private synchronized void append(Long userId, long revokedAt) {
+        if (file == null) {
+            return;
+        }
+
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(userId + " " + revokedAt + "\n");
+            lines++;
+        } catch (IOException e) { // отзыв в памяти уже действует, но не переживет перезапуск
+            log.log(Level.SEVERE, "Cannot write revoked jwt to " + file, e);
+            return;
+        }
+
+        // в файле в основном повторные и устаревшие записи - перезаписываем только действующие
+        if (lines > Math.max(MIN_COMPACT_LINES, 2 * revoked.size())) {
+            compact();
+        }
+    }
+
+    // прочитать файл при запуске и перезаписать его только с действующими записями
+    private synchronized void load() {
+        if (file == null || !Files.exists(file)) {
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                String[] parts = line.trim().split(" ");
+                if (parts.length != 2) {
+                    continue; // например, строка не дописана при остановке приложения
+                }
+                try {
+                    revoked.merge(Long.valueOf(parts[0]), Long.valueOf(parts[1]), Math::max);
+                } catch (NumberFormatException e) {
+                    // пропускаем поврежденную строку
+                }
+            }
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Cannot read revoked jwt from " + file, e);
+            return;
+        }
+
+        compact(); // устаревшие записи удаляются при перезаписи
+    }
+
+    // перезаписать файл только с действующими записями (через временный файл - при ошибке старый файл остается целым)
+    // запись, добавленная в revoked во время перезаписи, все равно допишется в конец файла (append вызывается после изменения revoked)
+    private synchronized void compact() {
+        removeExpired(System.currentTimeMillis() / 1000);
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        int written = 0;
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<Long, Long> entry : revoked.entrySet()) {
+                writer.write(entry.getKey() + " " + entry.getValue() + "\n");
+                written++;
+            }
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Cannot compact revoked jwt file " + file, e);
+            return;
+        }
+
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lines = written;
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Cannot compact revoked jwt file " + file, e);
+        }
+    }
+
+}
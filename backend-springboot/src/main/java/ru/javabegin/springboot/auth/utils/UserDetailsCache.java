@@ -0,0 +1,135 @@
+package ru.javabegin.springboot.auth.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.javabegin.springboot.auth.entity.User;
+import ru.javabegin.springboot.auth.service.UserDetailsImpl;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/*
+
+Короткий кеш пользователей для UserDetailsServiceImpl.loadUserByUsername (логин, повторная отправка письма активации, сброс пароля).
+
+Ключ - имя, которое ввел пользователь (username или email), значение - копия User (с паролем, ролями и активностью).
+Каждый вызов получает новый объект User, т.к. вызывающий код может его изменить (например, занулить пароль перед созданием jwt).
+
+Значение сбрасывается при изменении пароля и активации/деактивации пользователя (сразу и после завершения транзакции),
+а остальные изменения (например, роли в БД) будут видны не позже, чем через ttlSeconds.
+Как и в TaskReadCache: номер версии не дает сохранить пользователя, который загружался до сброса.
+
+По умолчанию выключен (ttlSeconds = 0).
+
+*/
+
+@Component
+public class UserDetailsCache {
+
+    @Value("${user.details-cache.ttl-seconds:0}")
+    private long ttlSeconds; // сколько хранить пользователя (0 - кеш выключен)
+
+    @Value("${user.details-cache.max-size:10000}")
+    private int maxSize; // при превышении сначала удаляются устаревшие значения, если не помогло - кеш очищается полностью
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong(); // увеличивается при каждом сбросе
+
+
+    // пользователь из кеша или (если его там нет) - выполняется loader и результат сохраняется
+    public UserDetailsImpl get(String login, Supplier<User> loader) {
+        if (ttlSeconds <= 0) {
+            return new UserDetailsImpl(loader.get());
+        }
+
+        long now = System.currentTimeMillis();
+
+        Entry entry = entries.get(login);
+        if (entry != null && entry.expiration > now) {
+            return new UserDetailsImpl(copy(entry.user));
+        }
+
+        long loadVersion = version.get(); // версию запоминаем до выполнения запроса
+
+        User user = loader.get();
+
+        if (loadVersion == version.get()) { // пока загружали - ничего не сбрасывали
+            if (entries.size() >= maxSize) {
+                free(now);
+            }
+            entries.put(login, new Entry(copy(user), now + ttlSeconds * 1000));
+        }
+
+        return new UserDetailsImpl(user);
+    }
+
+    // изменился пароль пользователя
+    public void invalidateEmail(String email) {
+        invalidate(user -> user.getEmail() != null && user.getEmail().equals(email));
+    }
+
+    // изменилась активность пользователя
+    public void invalidateActivity(String uuid) {
+        invalidate(user -> user.getActivity() != null && uuid != null && uuid.equals(user.getActivity().getUuid()));
+    }
+
+
+    // сбрасываем значения сейчас и после завершения текущей транзакции (чтобы не остался пользователь, загруженный до commit)
+    private void invalidate(Predicate<User> predicate) {
+        evict(predicate);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict(predicate);
+                }
+            });
+        }
+    }
+
+    private void evict(Predicate<User> predicate) {
+        version.incrementAndGet(); // пользователи, которые сейчас загружаются, не попадут в кеш
+        entries.values().removeIf(entry -> predicate.test(entry.user));
+    }
+
+    // освобождаем место для нового значения
+    private void free(long now) {
+        entries.values().removeIf(entry -> entry.expiration <= now);
+
+        if (entries.size() >= maxSize) {
+            entries.clear();
+        }
+    }
+
+    // копия пользователя со всеми полями, которые нужны для аутентификации (роли и активность только читаются - их не копируем)
+    private static User copy(User source) {
+        User user = new User();
+        user.setId(source.getId());
+        user.setUsername(source.getUsername());
+        user.setEmail(source.getEmail());
+        user.setPassword(source.getPassword());
+        user.setRoles(new HashSet<>(source.getRoles()));
+        user.activity = source.activity;
+        return user;
+    }
+
+
+    private static class Entry {
+
+        private final User user;
+        private final long expiration; // время (мс), после которого значение не используется
+
+        private Entry(User user, long expiration) {
+            this.user = user;
+            this.expiration = expiration;
+        }
+    }
+
+}
@@ -0,0 +1,217 @@
+package ru.javabegin.springboot.business.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import ru.javabegin.springboot.business.entity.Stat;
+import ru.javabegin.springboot.business.repository.StatRepository;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+
+Кеш строки Stat пользователя - чтобы не выполнять запрос в БД при каждом запросе статистики
+(клиент запрашивает статистику после каждого изменения задачи).
+
+Для каждого пользователя хранится только 3 числа (id строки и 2 счетчика) - те значения, которые сейчас сохранены в БД.
+Изменения задач, которые еще не сохранены в БД, добавляет TaskCounters.readStat - поэтому после изменения задачи кеш не сбрасывается.
+Когда TaskCounters сохраняет изменения в БД, он же прибавляет их к значениям в кеше (adjust) - кеш всегда совпадает с БД.
+
+Все методы вызывает только TaskCounters: cached и put - под общей блокировкой группы пользователей, adjust - под монопольной
+(вместе с очисткой сохраненных изменений), load - без блокировки.
+put вызывается, только если загрузка не пересеклась с сохранением изменений группы (номер версии группы не изменился),
+поэтому значение не может загрузиться из БД до сохранения изменений, а попасть в кеш - после.
+
+Если несколько запросов одновременно не нашли пользователя в кеше - запрос в БД выполняет только первый, остальные ждут его результат
+(только с той же версией группы: загрузка, начатая до сохранения, не подходит запросу, начатому после).
+
+Значения в БД, измененные не через приложение (например, пересчет счетчиков запросом), - сбросить кеш через JMX (clear).
+
+*/
+
+@Component
+@ManagedResource(objectName = "ru.javabegin.springboot:type=Cache,name=StatCache")
+public class StatCache {
+
+    private final StatRepository repository;
+
+    private final int maxUsers; // сколько пользователей хранить в кеше (при превышении кеш очищается полностью)
+
+    private final Map<Long, Snapshot> snapshots = new ConcurrentHashMap<>(); // id пользователя -> значения из БД
+    private final Map<Long, Loading> loading = new ConcurrentHashMap<>(); // пользователи, для которых сейчас выполняется запрос в БД
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder(); // сколько запросов дождались чужой загрузки вместо своего запроса в БД
+
+    public StatCache(StatRepository repository, @Value("${stat.cache.max-users:10000}") int maxUsers) {
+        this.repository = repository;
+        this.maxUsers = maxUsers;
+    }
+
+
+    // Stat пользователя из кеша - новый объект при каждом вызове (null - если пользователя нет в кеше)
+    public Stat cached(Long userId) {
+        Snapshot snapshot = snapshots.get(userId);
+
+        if (snapshot == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return snapshot.toStat();
+    }
+
+    // Stat пользователя из БД, без добавления в кеш (null - если строки нет); version - версия группы пользователя в TaskCounters
+    public Stat load(Long userId, long version) {
+        Loading load = new Loading(version);
+        Loading running = loading.putIfAbsent(userId, load);
+
+        if (running != null && running.version == version) { // запрос в БД уже выполняет другой поток
+            coalesced.increment();
+            return toStat(await(running.result));
+        }
+
+        if (running != null) { // чужая загрузка начата с другой версией - выполняем свой запрос
+            return toStat(Snapshot.of(repository.findByUser(userId)));
+        }
+
+        Snapshot snapshot;
+        try {
+            snapshot = Snapshot.of(repository.findByUser(userId));
+            load.result.complete(snapshot);
+        } catch (RuntimeException e) {
+            load.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(userId, load);
+        }
+
+        return toStat(snapshot);
+    }
+
+    // значения, загруженные через load, совпадают с БД - добавить в кеш
+    public void put(Long userId, Stat stat) {
+        Snapshot snapshot = Snapshot.of(stat);
+        if (snapshot == null) {
+            return;
+        }
+
+        if (snapshots.size() >= maxUsers) {
+            snapshots.clear();
+        }
+        snapshots.put(userId, snapshot);
+    }
+
+    // изменения счетчиков пользователя сохранены в БД - прибавляем их к значениям в кеше
+    public void adjust(Long userId, long completed, long uncompleted) {
+        snapshots.computeIfPresent(userId, (id, snapshot) -> snapshot.plus(completed, uncompleted));
+    }
+
+
+    // значения в БД исправлены (сверка счетчиков) - загрузить заново при следующем запросе
+    public void evict(Long userId) {
+        snapshots.remove(userId);
+    }
+
+    @ManagedOperation
+    public void clear() {
+        snapshots.clear();
+    }
+
+    @ManagedAttribute
+    public int getSize() {
+        return snapshots.size();
+    }
+
+    @ManagedAttribute
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @ManagedAttribute
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @ManagedAttribute
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    @ManagedAttribute
+    public double getHitRate() {
+        long hits = this.hits.sum();
+        long total = hits + misses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+
+    private static Snapshot await(CompletableFuture<Snapshot> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) { // ошибка загрузки в другом потоке - такая же ошибка и здесь
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private static Stat toStat(Snapshot snapshot) {
+        return snapshot != null ? snapshot.toStat() : null;
+    }
+
+
+    // запрос в БД, который сейчас выполняется для пользователя
+    private static class Loading {
+
+        private final long version;
+        private final CompletableFuture<Snapshot> result = new CompletableFuture<>();
+
+        private Loading(long version) {
+            this.version = version;
+        }
+    }
+
+    // значения Stat пользователя (объект неизменяемый - изменение создает новый)
+    private static class Snapshot {
+
+        private final long id;
+        private final long completedTotal;
+        private final long uncompletedTotal;
+
+        private Snapshot(long id, long completedTotal, long uncompletedTotal) {
+            this.id = id;
+            this.completedTotal = completedTotal;
+            this.uncompletedTotal = uncompletedTotal;
+        }
+
+        private static Snapshot of(Stat stat) {
+            if (stat == null) {
+                return null;
+            }
+            return new Snapshot(stat.getId(),
+                    stat.getCompletedTotal() != null ? stat.getCompletedTotal() : 0,
+                    stat.getUncompletedTotal() != null ? stat.getUncompletedTotal() : 0);
+        }
+
+        private Snapshot plus(long completed, long uncompleted) {
+            return new Snapshot(id, completedTotal + completed, uncompletedTotal + uncompleted);
+        }
+
+        // пользователь в ответ не добавляется - он и так известен клиенту (раньше вместе со статистикой отправлялись все поля User)
+        private Stat toStat() {
+            Stat stat = new Stat();
+            stat.setId(id);
+            stat.setCompletedTotal(completedTotal);
+            stat.setUncompletedTotal(uncompletedTotal);
+            return stat;
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package ru.javabegin.springboot.business.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+
+Кеш общего количества задач (totalElements) для постраничного поиска.
+
+При каждом запросе Page<Task> выполняется еще и запрос COUNT по тем же условиям - это примерно половина времени поиска.
+Общее количество меняется только когда пользователь добавляет/изменяет/удаляет свои задачи, поэтому его можно запомнить
+для каждого пользователя и каждого набора фильтров, а при изменении задач пользователя - сбрасывать.
+
+Чтобы в кеш не попало устаревшее значение (COUNT выполнился до изменения, а записался в кеш после него),
+у каждого пользователя есть номер версии: значение сохраняется, только если версия не изменилась с момента начала запроса.
+
+Сбрасываем кеш дважды: сразу и после коммита транзакции - иначе параллельный запрос может успеть посчитать старые данные до коммита.
+
+*/
+
+@Component
+public class TaskCountCache {
+
+    @Value("${task.count-cache.max-users:10000}")
+    private int maxUsers; // сколько пользователей хранить в кеше (при превышении кеш очищается полностью)
+
+    @Value("${task.count-cache.max-filters:64}")
+    private int maxFilters; // сколько разных наборов фильтров хранить для одного пользователя
+
+    private final Map<Long, UserCounts> users = new ConcurrentHashMap<>();
+
+    private final AtomicLong versions = new AtomicLong(); // источник номеров версий (номера не повторяются даже после очистки кеша)
+
+    // общее количество задач пользователя userId по фильтрам filterKey (null - если значения в кеше нет)
+    public Long get(Long userId, String filterKey) {
+        UserCounts counts = users.get(userId);
+        return counts != null ? counts.totals.get(filterKey) : null;
+    }
+
+    // текущая версия данных пользователя - нужно получить ДО выполнения запроса COUNT и передать в put
+    public long version(Long userId) {
+        return userCounts(userId).version.get();
+    }
+
+    public void put(Long userId, String filterKey, long total, long version) {
+        UserCounts counts = users.get(userId);
+
+        if (counts == null || counts.version.get() != version) { // пока выполнялся запрос, задачи пользователя изменились
+            return;
+        }
+
+        if (counts.totals.size() >= maxFilters) {
+            counts.totals.clear();
+        }
+
+        counts.totals.put(filterKey, total);
+    }
+
+    // задачи пользователя изменились - сбрасываем все его значения (сейчас и после коммита текущей транзакции)
+    public void invalidate(Long userId) {
+        if (userId == null) { // неизвестно, чьи задачи изменились - сбрасываем весь кеш
+            invalidateAll();
+            return;
+        }
+
+        evict(userId);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict(userId);
+                }
+            });
+        }
+    }
+
+    public void invalidateAll() {
+        users.clear();
+    }
+
+    // ключ для набора фильтров (пользователь в ключ не входит - значения и так хранятся отдельно для каждого пользователя)
+    public static String filterKey(String title, Integer completed, Long priorityId, Long categoryId, Date dateFrom, Date dateTo) {
+        return (title == null ? "" : title.toLowerCase()) + '|' + completed + '|' + priorityId + '|' + categoryId + '|' +
+                (dateFrom == null ? null : dateFrom.getTime()) + '|' + (dateTo == null ? null : dateTo.getTime());
+    }
+
+
+    private void evict(Long userId) {
+        UserCounts counts = users.get(userId);
+        if (counts != null) {
+            counts.version.set(versions.incrementAndGet()); // значения, которые сейчас считаются, уже не попадут в кеш
+            counts.totals.clear();
+        }
+    }
+
+    private UserCounts userCounts(Long userId) {
+        if (users.size() >= maxUsers && !users.containsKey(userId)) {
+            invalidateAll();
+        }
+        return users.computeIfAbsent(userId, e -> new UserCounts(versions.incrementAndGet()));
+    }
+
+
+    // значения одного пользователя
+    private static class UserCounts {
+        private final AtomicLong version;
+        private final Map<String, Long> totals = new ConcurrentHashMap<>();
+
+        private UserCounts(long version) {
+            this.version = new AtomicLong(version);
+        }
+    }
+
+}
@@ -0,0 +1,1040 @@
+package ru.javabegin.springboot.business.cache;
+
+import lombok.extern.java.Log;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.javabegin.springboot.auth.repository.UserRepository;
+import ru.javabegin.springboot.business.entity.Category;
+import ru.javabegin.springboot.business.entity.Stat;
+import ru.javabegin.springboot.business.entity.Task;
+import ru.javabegin.springboot.business.entity.TaskDailyStat;
+import ru.javabegin.springboot.business.repository.CategoryRepository;
+import ru.javabegin.springboot.business.repository.StatRepository;
+import ru.javabegin.springboot.business.repository.TaskDailyStatRepository;
+import ru.javabegin.springboot.business.repository.TaskRepository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+
+/*
+
+Счетчики задач в Category (completedCount, uncompletedCount) и Stat (completedTotal, uncompletedTotal) - вместо триггеров БД.
+
+Триггер обновлял строку категории и строку Stat пользователя при каждом изменении задачи: все транзакции одного пользователя
+ждали друг друга на блокировке строки Stat, а массовое изменение N задач выполняло 2 * N дополнительных update.
+
+Теперь:
+- TaskService сообщает, какие задачи (пользователь, категория, completed) добавились и удалились (изменение = удаление старой + добавление новой)
+- изменения накапливаются в рамках транзакции и после коммита добавляются в счетчики в памяти (LongAdder - без общей блокировки на запись);
+  если транзакция откатилась - счетчики не меняются
+- фоновый поток раз в flushMillis сохраняет накопленные изменения в БД: одна строка категории/Stat - один update на все изменения за это время
+  (по пользователям, порциями до batchSize пользователей в одной транзакции)
+- чтение (StatService.findStat, CategoryService.findAll/find) добавляет к значениям из БД еще не сохраненные изменения - результат точный
+  (значения Stat из БД берутся из StatCache - после сохранения изменений они прибавляются и к кешу)
+- так же (после коммита, с сохранением раз в flushMillis) изменяются итоги по дням TaskDailyStat: добавленные задачи и выполненные задачи
+  (по дню выполнения Task.completedDate - отмена выполнения или удаление задачи вычитается из итогов того же дня)
+  (история читается только из БД - последние изменения появляются в ней с задержкой до flushMillis)
+
+Пользователи разбиты на STRIPES групп, у каждой группы своя блокировка (ReentrantReadWriteLock) - только для работы с памятью,
+запросы в БД под ней не выполняются:
+- добавление изменений и чтение несохраненных изменений - общая (read) блокировка
+- сохранение группы: под монопольной (write) блокировкой накопленные изменения забираются (flushing), а вместо них начинается новый пустой набор;
+  затем изменения пишутся в БД без блокировки; после этого (снова под монопольной) flushing очищается, а несохраненное возвращается обратно
+- чтение загружает значения из БД без блокировки, а затем под общей прибавляет flushing и новые изменения
+
+Значения из БД и flushing согласованы, только если загрузка не пересеклась с сохранением (иначе изменения посчитались бы дважды или не посчитались бы).
+Для этого у группы есть номер версии seq (как seqlock): увеличивается под монопольной блокировкой в начале и в конце сохранения
+(нечетный - идет сохранение). Если во время загрузки seq изменился - загрузка повторяется после окончания сохранения.
+
+Если одна строка порции не сохраняется (например, пользователь уже удален, а итоги по дням ссылаются на него - user_id references user_data),
+откатывается вся порция - тогда порция сохраняется заново по одному пользователю в отдельных транзакциях.
+Изменения удаленного пользователя или удаленной категории сохранять некуда - они удаляются из памяти (с записью в лог и счетчиком dropped),
+иначе одна такая строка не давала бы сохранить остальные изменения при каждой следующей попытке.
+
+Ограничения:
+- несохраненные изменения хранятся в памяти одного экземпляра приложения (при нескольких экземплярах чтение точное только для своих изменений)
+- при аварийной остановке теряются изменения за последние flushMillis - счетчики можно пересчитать запросом:
+  update category c set completed_count = (select count(*) from task t where t.category_id = c.id and t.completed = 1),
+                        uncompleted_count = (select count(*) from task t where t.category_id = c.id and coalesce(t.completed, 0) <> 1);
+  (аналогично для stat по user_id)
+
+Сверка счетчиков с таблицей task (reconcile, запускает TaskCountersReconciler): запрос по таблице task выполняется без блокировок групп,
+а исправление счетчиков - по одной группе под flushLock и монопольной блокировкой (только короткие запросы по пользователям этой группы).
+Сверяются только пользователи, у которых нет открытых транзакций с изменением задач (open) и у которых не начиналась такая транзакция
+за время сверки (reconciling) - иначе изменение, закоммиченное во время сверки, попало бы и в пересчитанное значение,
+и (после коммита) в несохраненные изменения.
+
+Триггеры БД, которые пересчитывали счетчики при изменении task, нужно удалить - иначе изменения посчитаются дважды.
+При запуске проверяются триггеры таблицы task (pg_trigger): если остался триггер из списка task.counters.triggers (названия старых триггеров счетчиков) -
+приложение не запускается. Остальные триггеры (аудит, репликация и пр.) запуску не мешают - только предупреждение в логе,
+т.к. по названию нельзя понять, меняют ли они счетчики.
+
+*/
+
+@Component
+@Log
+@ManagedResource(objectName = "ru.javabegin.springboot:type=Cache,name=TaskCounters")
+public class TaskCounters {
+
+    private static final int STRIPES = 64; // степень двойки
+    private static final int READ_ATTEMPTS = 3; // сколько раз чтение пробует загрузить значения между сохранениями группы
+
+    private final CategoryRepository categoryRepository;
+    private final StatRepository statRepository;
+    private final StatCache statCache;
+    private final TaskDailyStatRepository dailyStatRepository;
+    private final TaskRepository taskRepository; // для сверки счетчиков
+    private final UserRepository userRepository; // существует ли пользователь, изменения которого не сохраняются
+    private final TransactionTemplate transactionTemplate;
+
+    private final long flushMillis;
+    private final int batchSize; // сколько пользователей сохранять в одной транзакции
+    private final Set<String> counterTriggers; // названия старых триггеров счетчиков (в нижнем регистре) - если такой триггер остался, приложение не запускается
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final Map<Long, Integer> open = new ConcurrentHashMap<>(); // id пользователя -> кол-во незавершенных транзакций, изменяющих его задачи
+    private final Map<Long, Boolean> reconciling = new ConcurrentHashMap<>(); // пользователи, которых сейчас сверяют -> менялись ли их задачи с начала сверки
+
+    private final ScheduledExecutorService flusher;
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong(); // кол-во выполненных update
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong(); // кол-во пользователей, изменения которых удалены без сохранения
+
+
+    public TaskCounters(CategoryRepository categoryRepository, StatRepository statRepository, StatCache statCache,
+                        TaskDailyStatRepository dailyStatRepository, TaskRepository taskRepository, UserRepository userRepository,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${task.counters.flush-millis:1000}") long flushMillis,
+                        @Value("${task.counters.batch-size:100}") int batchSize,
+                        @Value("${task.counters.triggers:}") String counterTriggers) {
+
+        this.categoryRepository = categoryRepository;
+        this.statRepository = statRepository;
+        this.statCache = statCache;
+        this.dailyStatRepository = dailyStatRepository;
+        this.taskRepository = taskRepository;
+        this.userRepository = userRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionTemplate.PROPAGATION_REQUIRES_NEW); // не зависит от транзакции вызывающего кода
+        this.flushMillis = flushMillis;
+        this.batchSize = batchSize;
+        this.counterTriggers = new HashSet<>();
+        for (String name : counterTriggers.split(",")) {
+            if (!name.trim().isEmpty()) {
+                this.counterTriggers.add(name.trim().toLowerCase());
+            }
+        }
+
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "task-counters");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    // сохранение запускается только после проверки, что старые триггеры удалены
+    @PostConstruct
+    public void start() {
+        checkTriggers();
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // триггеры, которые раньше пересчитывали счетчики, остались - все изменения посчитались бы дважды
+    private void checkTriggers() {
+        List<String> triggers;
+        try {
+            triggers = taskRepository.findTriggers();
+        } catch (RuntimeException e) { // например, БД - не PostgreSQL
+            log.log(Level.WARNING, "task counters: cannot check triggers on table task", e);
+            return;
+        }
+
+        List<String> known = new ArrayList<>(); // старые триггеры счетчиков
+        List<String> other = new ArrayList<>();
+        for (String trigger : triggers) {
+            (counterTriggers.contains(trigger.toLowerCase()) ? known : other).add(trigger);
+        }
+
+        if (!known.isEmpty()) {
+            throw new IllegalStateException("task counters: table task has counter triggers " + known +
+                    " - drop them, otherwise every change is counted twice");
+        }
+
+        if (!other.isEmpty()) { // например, аудит - если триггер меняет category или stat, изменения посчитаются дважды
+            log.warning("task counters: table task has triggers " + other +
+                    " - make sure they do not update category or stat counters (otherwise every change is counted twice)");
+        }
+    }
+
+
+    // задача добавлена (или задача до изменения удалена - delta = -1)
+    public void count(Task task, int delta) {
+        count(ownerId(task), categoryId(task), task.getCompleted(), delta);
+    }
+
+    // значения берутся сразу (а не после коммита) - объект задачи потом может измениться
+    public void count(Long userId, Long categoryId, Integer completed, int delta) {
+        if (userId == null || delta == 0) { // задачи без пользователя в БД не попадут
+            return;
+        }
+
+        record(userId, changes -> changes.add(userId, categoryId, isCompleted(completed), delta));
+    }
+
+    // новая задача - в итоги текущего дня (created), а если задача сразу выполнена - и в итоги дня выполнения (completed)
+    public void created(Task task) {
+        rollup(ownerId(task), LocalDate.now(), categoryId(task), 0, 1); // день изменения, а не коммита (различаются только около полуночи)
+        completion(task, 1);
+    }
+
+    /*
+    Выполненная задача учитывается в итогах дня выполнения (completedDate) в своей категории.
+    delta = -1 - задача там больше не учитывается (снята отметка, задача удалена или перенесена в другую категорию):
+    вычитается из итогов того же дня, а не текущего. Изменение задачи = completion(старая, -1) + completion(новая, 1).
+
+    Задачи, выполненные до появления completed_date (null), не вычитаются - их дата выполнения неизвестна.
+     */
+    public void completion(Long userId, Long categoryId, Integer completed, Date completedDate, int delta) {
+        if (!isCompleted(completed) || completedDate == null) {
+            return;
+        }
+
+        rollup(userId, toDay(completedDate), categoryId, delta, 0);
+    }
+
+    // значения берутся сразу (а не после коммита) - объект задачи потом может измениться
+    public void completion(Task task, int delta) {
+        completion(ownerId(task), categoryId(task), task.getCompleted(), task.getCompletedDate(), delta);
+    }
+
+
+    private void rollup(Long userId, LocalDate day, Long categoryId, int completed, int created) {
+        if (userId == null) {
+            return;
+        }
+
+        record(userId, changes -> changes.rollup(userId, day, categoryId, completed, created));
+    }
+
+    // день по часовому поясу сервера (как и в TaskDailyStat); из БД приходит java.sql.Timestamp - поэтому через getTime
+    private static LocalDate toDay(Date date) {
+        return Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+
+    // добавить изменение в изменения текущей транзакции (без транзакции - сразу в счетчики в памяти)
+    private void record(Long userId, Consumer<Changes> change) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            changed(userId);
+            Changes changes = new Changes();
+            change.accept(changes);
+            publish(changes);
+            return;
+        }
+
+        Changes changes = (Changes) TransactionSynchronizationManager.getResource(this);
+
+        if (changes == null) { // первое изменение в этой транзакции
+            Changes created = new Changes();
+            TransactionSynchronizationManager.bindResource(this, created);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publish(created);
+                }
+
+                @Override
+                public void afterCompletion(int status) { // после afterCommit - изменения уже в счетчиках в памяти
+                    TransactionSynchronizationManager.unbindResourceIfPossible(TaskCounters.this);
+                    for (Long user : created.users.keySet()) {
+                        open.computeIfPresent(user, (id, count) -> count == 1 ? null : count - 1);
+                    }
+                }
+            });
+            changes = created;
+        }
+
+        if (!changes.users.containsKey(userId)) { // первое изменение задач пользователя в этой транзакции
+            open.merge(userId, 1, Integer::sum);
+            changed(userId); // после open: сверка проверяет сначала reconciling, затем open - одно из двух она точно увидит
+        }
+
+        change.accept(changes);
+    }
+
+
+    // Stat пользователя (значения из БД - через StatCache) + несохраненные изменения
+    public Stat readStat(Long userId) {
+        Stripe stripe = stripe(userId);
+
+        // обычный случай - значения уже в кеше (кеш изменяется только под монопольной блокировкой - вместе с flushing)
+        stripe.lock.readLock().lock();
+        try {
+            Stat stat = statCache.cached(userId);
+            if (stat != null) {
+                return addPending(stripe, userId, stat);
+            }
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+
+        return read(stripe, seq -> statCache.load(userId, seq), stat -> {
+            if (stat == null) {
+                return null;
+            }
+            statCache.put(userId, stat); // загрузка не пересеклась с сохранением - значения совпадают с БД
+            return addPending(stripe, userId, stat);
+        });
+    }
+
+    // категории пользователя из БД (loader) + несохраненные изменения
+    public List<Category> readCategories(Long userId, Supplier<List<Category>> loader) {
+        Stripe stripe = stripe(userId);
+
+        return read(stripe, seq -> loader.get(), categories -> {
+            addPending(categories, stripe.flushing.get(userId));
+            addPending(categories, stripe.users.get(userId));
+            return categories;
+        });
+    }
+
+
+    // сохранить все накопленные изменения в БД
+    @ManagedOperation
+    public void flush() {
+        flushes.incrementAndGet();
+        for (Stripe stripe : stripes) {
+            flush(stripe);
+        }
+    }
+
+    /*
+    Сверка счетчиков пользователей userIds с таблицей task: фактическое кол-во задач - одним запросом на всех пользователей,
+    в БД должно быть (фактическое - несохраненные изменения). Изменяются только строки, значения в которых отличаются.
+    dryRun - только посчитать и записать в лог отличия, ничего не изменяя.
+
+    Запрос по task выполняется без блокировок групп - добавление изменений, чтение и сохранение счетчиков его не ждут.
+    Затем по каждой группе (flushLock и монопольная блокировка - только на время коротких запросов по ее пользователям)
+    сравниваются значения в БД с фактическими и исправляются.
+    Пользователи, у которых есть незавершенные транзакции с изменением задач или у которых задачи менялись во время сверки,
+    пропускаются (Reconciliation.busy - нужно повторить позже).
+     */
+    public Reconciliation reconcile(Collection<Long> userIds, boolean dryRun) {
+        Reconciliation result = new Reconciliation();
+
+        List<Long> registered = new ArrayList<>(userIds.size());
+        try {
+            List<Long> users = new ArrayList<>(userIds.size());
+            for (Long userId : userIds) {
+                if (reconciling.putIfAbsent(userId, Boolean.FALSE) != null) { // пользователя уже сверяет другой поток
+                    result.busy.add(userId);
+                    continue;
+                }
+                registered.add(userId);
+
+                if (open.containsKey(userId)) {
+                    result.busy.add(userId);
+                } else {
+                    users.add(userId);
+                }
+            }
+
+            if (users.isEmpty()) {
+                return result;
+            }
+
+            // фактическое кол-во задач: [completed, uncompleted] по пользователям и по категориям - без блокировок групп
+            Map<Long, long[]> userActual = new HashMap<>();
+            Map<Long, long[]> categoryActual = new HashMap<>();
+
+            transactionTemplate.execute(status -> {
+                for (Object[] row : taskRepository.countByUsers(users)) { // id пользователя, id категории, completed, кол-во
+                    int index = isCompleted((Integer) row[2]) ? 0 : 1;
+                    long count = (Long) row[3];
+
+                    userActual.computeIfAbsent((Long) row[0], id -> new long[2])[index] += count;
+                    if (row[1] != null) {
+                        categoryActual.computeIfAbsent((Long) row[1], id -> new long[2])[index] += count;
+                    }
+                }
+                return null;
+            });
+
+            // исправление - по группам, в одном порядке (по номеру группы)
+            Map<Integer, List<Long>> byStripe = new TreeMap<>();
+            for (Long userId : users) {
+                byStripe.computeIfAbsent(stripeIndex(userId), index -> new ArrayList<>()).add(userId);
+            }
+
+            for (Map.Entry<Integer, List<Long>> entry : byStripe.entrySet()) {
+                reconcile(stripes[entry.getKey()], entry.getValue(), userActual, categoryActual, dryRun, result);
+            }
+
+            return result;
+        } finally {
+            registered.forEach(reconciling::remove);
+        }
+    }
+
+    @ManagedAttribute
+    public int getPendingUsers() {
+        int users = 0;
+        for (Stripe stripe : stripes) {
+            users += stripe.users.size() + stripe.flushing.size();
+        }
+        return users;
+    }
+
+    @ManagedAttribute
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    @ManagedAttribute
+    public long getFlushedRows() {
+        return flushedRows.get();
+    }
+
+    @ManagedAttribute
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @ManagedAttribute
+    public long getDropped() {
+        return dropped.get();
+    }
+
+
+    // при остановке приложения сохраняем то, что накопилось
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdownNow();
+        flushQuietly();
+    }
+
+
+    /*
+    Значения из БД (load, без блокировки) + несохраненные изменения (pending, под общей блокировкой).
+    Если загрузка пересеклась с сохранением группы (seq изменился) - ждем окончания сохранения и загружаем заново.
+    Если не получилось READ_ATTEMPTS раз - загружаем, не давая начаться следующему сохранению (flushLock).
+     */
+    private <T> T read(Stripe stripe, LongFunction<T> load, UnaryOperator<T> pending) {
+        for (int attempt = 0; attempt < READ_ATTEMPTS; attempt++) {
+            long seq = stripe.seq;
+
+            if ((seq & 1) == 0) { // сейчас сохранения нет
+                T value = load.apply(seq);
+
+                stripe.lock.readLock().lock();
+                try {
+                    if (stripe.seq == seq) { // и не было во время загрузки
+                        return pending.apply(value);
+                    }
+                } finally {
+                    stripe.lock.readLock().unlock();
+                }
+            }
+
+            stripe.flushLock.lock(); // ждем окончания сохранения
+            stripe.flushLock.unlock();
+        }
+
+        stripe.flushLock.lock();
+        try {
+            T value = load.apply(stripe.seq);
+
+            stripe.lock.readLock().lock();
+            try {
+                return pending.apply(value);
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        } finally {
+            stripe.flushLock.unlock();
+        }
+    }
+
+    // прибавить к Stat изменения, которые сейчас сохраняются, и новые (вызывается под общей блокировкой)
+    private static Stat addPending(Stripe stripe, Long userId, Stat stat) {
+        for (UserCounts counts : new UserCounts[]{stripe.flushing.get(userId), stripe.users.get(userId)}) {
+            if (counts != null) {
+                stat.setCompletedTotal(nullToZero(stat.getCompletedTotal()) + counts.completed.sum());
+                stat.setUncompletedTotal(nullToZero(stat.getUncompletedTotal()) + counts.uncompleted.sum());
+            }
+        }
+        return stat;
+    }
+
+    private static void addPending(List<Category> categories, UserCounts counts) {
+        if (counts == null || counts.categories.isEmpty()) {
+            return;
+        }
+
+        for (Category category : categories) {
+            CategoryCounts delta = counts.categories.get(category.getId());
+            if (delta != null) {
+                category.setCompletedCount(nullToZero(category.getCompletedCount()) + delta.completed.sum());
+                category.setUncompletedCount(nullToZero(category.getUncompletedCount()) + delta.uncompleted.sum());
+            }
+        }
+    }
+
+    // изменения закоммиченной транзакции - в счетчики в памяти
+    private void publish(Changes changes) {
+        for (Map.Entry<Long, UserChanges> entry : changes.users.entrySet()) {
+            Long userId = entry.getKey();
+            UserChanges change = entry.getValue();
+
+            Stripe stripe = stripe(userId);
+
+            stripe.lock.readLock().lock();
+            try {
+                UserCounts counts = stripe.users.computeIfAbsent(userId, id -> new UserCounts());
+
+                counts.completed.add(change.completed);
+                counts.uncompleted.add(change.uncompleted);
+
+                for (Map.Entry<Long, long[]> category : change.categories.entrySet()) {
+                    long[] values = category.getValue();
+                    if (values[0] != 0 || values[1] != 0) {
+                        CategoryCounts categoryCounts = counts.categories.computeIfAbsent(category.getKey(), id -> new CategoryCounts());
+                        categoryCounts.completed.add(values[0]);
+                        categoryCounts.uncompleted.add(values[1]);
+                    }
+                }
+
+                for (Map.Entry<RollupKey, long[]> rollup : change.rollups.entrySet()) {
+                    long[] values = rollup.getValue();
+                    if (values[0] != 0 || values[1] != 0) {
+                        RollupCounts rollupCounts = counts.rollups.computeIfAbsent(rollup.getKey(), key -> new RollupCounts());
+                        rollupCounts.completed.add(values[0]);
+                        rollupCounts.created.add(values[1]);
+                    }
+                }
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) { // например, нет соединения с БД - изменения остаются в памяти до следующей попытки
+            failures.incrementAndGet();
+            log.log(Level.WARNING, "task counters: flush failed", e);
+        }
+    }
+
+    /*
+    Сохранение одной группы: под монопольной блокировкой только забираем накопленные изменения (flushing) и в конце возвращаем несохраненные -
+    запись в БД идет без блокировки, добавление изменений и чтение ее не ждут.
+    Изменения удаляются из памяти только после коммита - при ошибке (например, нет соединения с БД) они сохранятся при следующей попытке.
+     */
+    private void flush(Stripe stripe) {
+        if (stripe.users.isEmpty()) {
+            return;
+        }
+
+        stripe.flushLock.lock(); // сохранение и сверка группы не идут одновременно
+        try {
+            Map<Long, UserCounts> flushing;
+
+            Lock lock = stripe.lock.writeLock();
+            lock.lock();
+            try {
+                flushing = stripe.users;
+                stripe.users = new ConcurrentHashMap<>();
+                stripe.flushing = flushing;
+                stripe.seq++; // нечетный - идет сохранение
+            } finally {
+                lock.unlock();
+            }
+
+            Set<Long> saved = new HashSet<>(); // сохранены в БД
+            Set<Long> done = new HashSet<>(); // сохранены или удалены без сохранения
+            try {
+                saveBatches(flushing, saved, done);
+            } finally {
+                lock.lock();
+                try {
+                    for (Map.Entry<Long, UserCounts> entry : flushing.entrySet()) {
+                        Long userId = entry.getKey();
+                        UserCounts counts = entry.getValue();
+
+                        if (saved.contains(userId)) {
+                            statCache.adjust(userId, counts.completed.sum(), counts.uncompleted.sum());
+                        } else if (!done.contains(userId)) { // не сохранено - вернуть к новым изменениям
+                            stripe.users.merge(userId, counts, UserCounts::plus);
+                        }
+                    }
+                    stripe.flushing = Collections.emptyMap();
+                    stripe.seq++;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } finally {
+            stripe.flushLock.unlock();
+        }
+    }
+
+    // сохранить изменения порциями по batchSize пользователей; если порция не сохранилась - по одному пользователю
+    private void saveBatches(Map<Long, UserCounts> flushing, Set<Long> saved, Set<Long> done) {
+        Long[] userIds = flushing.keySet().toArray(new Long[0]);
+
+        for (int start = 0; start < userIds.length; start += batchSize) {
+            List<Long> batch = Arrays.asList(userIds).subList(start, Math.min(start + batchSize, userIds.length));
+
+            try {
+                transactionTemplate.execute(status -> {
+                    for (Long userId : batch) {
+                        save(userId, flushing.get(userId));
+                    }
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                if (!isConstraintViolation(e)) { // например, нет соединения с БД - остальные порции тоже не сохранятся
+                    throw e;
+                }
+
+                failures.incrementAndGet();
+                log.log(Level.WARNING, "task counters: batch of " + batch.size() + " users failed, saving user by user", e);
+
+                for (Long userId : batch) {
+                    saveAlone(userId, flushing.get(userId), saved, done);
+                }
+                continue;
+            }
+
+            saved.addAll(batch);
+            done.addAll(batch);
+        }
+    }
+
+    /*
+    Изменения одного пользователя - в отдельной транзакции.
+    Если не сохраняются из-за ограничения БД: пользователь удален - удаляем все его изменения,
+    иначе удаляем изменения удаленных категорий и пробуем еще раз; снова ошибка - удаляем все (с записью в лог - для ручного исправления).
+     */
+    private void saveAlone(Long userId, UserCounts counts, Set<Long> saved, Set<Long> done) {
+        RuntimeException error = trySave(userId, counts);
+
+        if (error != null && !userRepository.existsById(userId)) {
+            drop(userId, counts, "user does not exist", error);
+            statCache.evict(userId);
+            done.add(userId);
+            return;
+        }
+
+        if (error != null && dropDeletedCategories(userId, counts)) {
+            error = trySave(userId, counts);
+        }
+
+        if (error != null) {
+            drop(userId, counts, "cannot be saved", error);
+            done.add(userId);
+            return;
+        }
+
+        saved.add(userId);
+        done.add(userId);
+    }
+
+    // null - сохранено; ошибка ограничения БД - не сохранено; остальные ошибки пробрасываются
+    private RuntimeException trySave(Long userId, UserCounts counts) {
+        try {
+            transactionTemplate.execute(status -> {
+                save(userId, counts);
+                return null;
+            });
+            return null;
+        } catch (RuntimeException e) {
+            if (!isConstraintViolation(e)) {
+                throw e;
+            }
+            return e;
+        }
+    }
+
+    // удалить изменения категорий, которых уже нет в БД (true - что-то удалено)
+    private boolean dropDeletedCategories(Long userId, UserCounts counts) {
+        Set<Long> categoryIds = new HashSet<>(counts.categories.keySet());
+        for (RollupKey key : counts.rollups.keySet()) {
+            if (key.categoryId != null) {
+                categoryIds.add(key.categoryId);
+            }
+        }
+
+        boolean removed = false;
+        for (Long categoryId : categoryIds) {
+            if (!categoryRepository.existsById(categoryId)) {
+                log.warning("task counters: dropped changes of deleted category " + categoryId + " of user " + userId);
+                counts.categories.remove(categoryId);
+                counts.rollups.keySet().removeIf(key -> categoryId.equals(key.categoryId));
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    private void drop(Long userId, UserCounts counts, String reason, RuntimeException error) {
+        dropped.incrementAndGet();
+        log.log(Level.SEVERE, "task counters: dropped changes of user " + userId + " (" + reason + "): " + counts, error);
+    }
+
+    // нарушено ограничение БД (внешний ключ, уникальность и пр.) - повтор той же записи снова не пройдет
+    private static boolean isConstraintViolation(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DataIntegrityViolationException || cause instanceof ConstraintViolationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void save(Long userId, UserCounts counts) {
+        long completed = counts.completed.sum();
+        long uncompleted = counts.uncompleted.sum();
+
+        if (completed != 0 || uncompleted != 0) {
+            statRepository.addTotals(userId, completed, uncompleted);
+            flushedRows.incrementAndGet();
+        }
+
+        for (Map.Entry<Long, CategoryCounts> entry : counts.categories.entrySet()) {
+            long categoryCompleted = entry.getValue().completed.sum();
+            long categoryUncompleted = entry.getValue().uncompleted.sum();
+
+            if (categoryCompleted != 0 || categoryUncompleted != 0) {
+                categoryRepository.addCounts(entry.getKey(), categoryCompleted, categoryUncompleted); // категория уже удалена - 0 строк, изменения не нужны
+                flushedRows.incrementAndGet();
+            }
+        }
+
+        for (Map.Entry<RollupKey, RollupCounts> entry : counts.rollups.entrySet()) {
+            RollupKey key = entry.getKey();
+            long completedDelta = entry.getValue().completed.sum();
+            long created = entry.getValue().created.sum();
+
+            if (completedDelta != 0 || created != 0) {
+                if (dailyStatRepository.addCounts(userId, key.day, key.categoryId, completedDelta, created) == 0) { // первое изменение за день
+                    dailyStatRepository.save(new TaskDailyStat(userId, key.day, key.categoryId, completedDelta, created));
+                }
+                flushedRows.incrementAndGet();
+            }
+        }
+    }
+
+    /*
+    Исправление счетчиков пользователей одной группы по фактическому кол-ву задач (результат запроса без блокировок).
+    flushLock - сохранение не меняет значения в БД (flushing пустой), монопольная блокировка - несохраненные изменения не меняются.
+     */
+    private void reconcile(Stripe stripe, List<Long> group, Map<Long, long[]> userActual, Map<Long, long[]> categoryActual,
+                           boolean dryRun, Reconciliation result) {
+
+        stripe.flushLock.lock();
+        try {
+            Lock lock = stripe.lock.writeLock();
+            lock.lock();
+            try {
+                // после начала сверки у пользователя могла начаться (и даже закончиться) транзакция - ее изменения могли попасть в запрос
+                List<Long> users = new ArrayList<>(group.size());
+                for (Long userId : group) {
+                    if (open.containsKey(userId) || Boolean.TRUE.equals(reconciling.get(userId))) {
+                        result.busy.add(userId);
+                    } else {
+                        users.add(userId);
+                    }
+                }
+
+                if (users.isEmpty()) {
+                    return;
+                }
+
+                Set<Long> changedStats = new HashSet<>();
+
+                transactionTemplate.execute(status -> {
+                    reconcile(users, userActual, categoryActual, dryRun, result, changedStats);
+                    return null;
+                });
+
+                for (Long userId : changedStats) {
+                    statCache.evict(userId);
+                }
+
+                stripe.seq += 2; // значения в БД могли измениться - чтения, загрузившие их раньше, загрузят заново
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            stripe.flushLock.unlock();
+        }
+    }
+
+    // сравнение и исправление внутри транзакции (группа пользователей уже заблокирована)
+    private void reconcile(List<Long> users, Map<Long, long[]> userActual, Map<Long, long[]> categoryActual,
+                           boolean dryRun, Reconciliation result, Set<Long> changedStats) {
+
+        for (Object[] row : statRepository.findTotals(users)) { // id пользователя, completedTotal, uncompletedTotal
+            Long userId = (Long) row[0];
+            UserCounts pending = stripe(userId).users.get(userId);
+            long[] actual = userActual.getOrDefault(userId, new long[2]);
+
+            long completed = actual[0] - (pending != null ? pending.completed.sum() : 0);
+            long uncompleted = actual[1] - (pending != null ? pending.uncompleted.sum() : 0);
+
+            if (completed != nullToZero((Long) row[1]) || uncompleted != nullToZero((Long) row[2])) {
+                result.differences++;
+                log.info("task counters: stat of user " + userId + " is " + row[1] + "/" + row[2] + ", expected " + completed + "/" + uncompleted +
+                        (dryRun ? " (dry run)" : ""));
+                if (!dryRun) {
+                    statRepository.setTotals(userId, completed, uncompleted);
+                    changedStats.add(userId);
+                }
+            }
+        }
+
+        for (Object[] row : categoryRepository.findCounts(users)) { // id категории, id пользователя, completedCount, uncompletedCount
+            Long categoryId = (Long) row[0];
+            Long userId = (Long) row[1];
+            UserCounts pending = stripe(userId).users.get(userId);
+            CategoryCounts pendingCategory = pending != null ? pending.categories.get(categoryId) : null;
+            long[] actual = categoryActual.getOrDefault(categoryId, new long[2]);
+
+            long completed = actual[0] - (pendingCategory != null ? pendingCategory.completed.sum() : 0);
+            long uncompleted = actual[1] - (pendingCategory != null ? pendingCategory.uncompleted.sum() : 0);
+
+            if (completed != nullToZero((Long) row[2]) || uncompleted != nullToZero((Long) row[3])) {
+                result.differences++;
+                log.info("task counters: category " + categoryId + " of user " + userId + " is " + row[2] + "/" + row[3] +
+                        ", expected " + completed + "/" + uncompleted + (dryRun ? " (dry run)" : ""));
+                if (!dryRun) {
+                    categoryRepository.setCounts(categoryId, completed, uncompleted);
+                }
+            }
+        }
+
+        result.checked += users.size();
+    }
+
+    // задачи пользователя изменяются - если его сейчас сверяют, результат сверки для него неверен
+    private void changed(Long userId) {
+        reconciling.computeIfPresent(userId, (id, changed) -> Boolean.TRUE);
+    }
+
+    private Stripe stripe(Long userId) {
+        return stripes[stripeIndex(userId)];
+    }
+
+    private static int stripeIndex(Long userId) {
+        int hash = userId.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    private static boolean isCompleted(Integer completed) {
+        return completed != null && completed == 1;
+    }
+
+    private static long nullToZero(Long value) {
+        return value != null ? value : 0;
+    }
+
+    // id пользователя, которому принадлежит задача
+    private static Long ownerId(Task task) {
+        return task.getUser() != null ? task.getUser().getId() : null;
+    }
+
+    private static Long categoryId(Task task) {
+        return task.getCategory() != null ? task.getCategory().getId() : null;
+    }
+
+
+    // результат сверки одной порции пользователей
+    public static class Reconciliation {
+
+        private int checked; // сколько пользователей сверено
+        private long differences; // сколько строк Stat/Category отличались (при dryRun - не исправлены)
+        private final List<Long> busy = new ArrayList<>(); // пропущенные пользователи (их задачи сейчас изменяются)
+
+        public int getChecked() {
+            return checked;
+        }
+
+        public long getDifferences() {
+            return differences;
+        }
+
+        public List<Long> getBusy() {
+            return busy;
+        }
+    }
+
+
+    // группа пользователей со своей блокировкой
+    private static class Stripe {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // только для работы с памятью (без запросов в БД)
+        private final ReentrantLock flushLock = new ReentrantLock(); // сохранение группы в БД (или сверка) - все время записи
+        private volatile Map<Long, UserCounts> users = new ConcurrentHashMap<>(); // id пользователя -> несохраненные изменения
+        private volatile Map<Long, UserCounts> flushing = Collections.emptyMap(); // изменения, которые сейчас сохраняются
+        private volatile long seq; // изменяется под монопольной блокировкой в начале и в конце сохранения (нечетный - идет сохранение)
+    }
+
+    // несохраненные изменения счетчиков одного пользователя (Stat и его категорий)
+    private static class UserCounts {
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder uncompleted = new LongAdder();
+        private final Map<Long, CategoryCounts> categories = new ConcurrentHashMap<>(); // id категории -> изменения
+        private final Map<RollupKey, RollupCounts> rollups = new ConcurrentHashMap<>(); // день и категория -> изменения итогов TaskDailyStat
+
+        // прибавить other (несохраненные изменения возвращаются к новым - под монопольной блокировкой)
+        private static UserCounts plus(UserCounts counts, UserCounts other) {
+            counts.completed.add(other.completed.sum());
+            counts.uncompleted.add(other.uncompleted.sum());
+
+            other.categories.forEach((id, delta) -> {
+                CategoryCounts categoryCounts = counts.categories.computeIfAbsent(id, key -> new CategoryCounts());
+                categoryCounts.completed.add(delta.completed.sum());
+                categoryCounts.uncompleted.add(delta.uncompleted.sum());
+            });
+
+            other.rollups.forEach((key, delta) -> {
+                RollupCounts rollupCounts = counts.rollups.computeIfAbsent(key, k -> new RollupCounts());
+                rollupCounts.completed.add(delta.completed.sum());
+                rollupCounts.created.add(delta.created.sum());
+            });
+
+            return counts;
+        }
+
+        // для записи в лог удаленных без сохранения изменений
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder("stat " + completed.sum() + "/" + uncompleted.sum());
+            categories.forEach((id, delta) -> result.append(", category ").append(id).append(" ")
+                    .append(delta.completed.sum()).append("/").append(delta.uncompleted.sum()));
+            rollups.forEach((key, delta) -> result.append(", day ").append(key.day).append(" category ").append(key.categoryId)
+                    .append(" completed ").append(delta.completed.sum()).append(" created ").append(delta.created.sum()));
+            return result.toString();
+        }
+    }
+
+    private static class CategoryCounts {
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder uncompleted = new LongAdder();
+    }
+
+    private static class RollupCounts {
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder created = new LongAdder();
+    }
+
+    // строка TaskDailyStat пользователя (categoryId = null - задачи без категории)
+    private static class RollupKey {
+
+        private final LocalDate day;
+        private final Long categoryId;
+
+        private RollupKey(LocalDate day, Long categoryId) {
+            this.day = day;
+            this.categoryId = categoryId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            RollupKey key = (RollupKey) o;
+            return day.equals(key.day) && Objects.equals(categoryId, key.categoryId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(day, categoryId);
+        }
+    }
+
+
+    // изменения одной транзакции (используются только в ее потоке)
+    private static class Changes {
+
+        private final Map<Long, UserChanges> users = new HashMap<>();
+
+        private void add(Long userId, Long categoryId, boolean completed, int delta) {
+            UserChanges change = users.computeIfAbsent(userId, id -> new UserChanges());
+
+            if (completed) {
+                change.completed += delta;
+            } else {
+                change.uncompleted += delta;
+            }
+
+            if (categoryId != null) {
+                long[] values = change.categories.computeIfAbsent(categoryId, id -> new long[2]); // [completed, uncompleted]
+                values[completed ? 0 : 1] += delta;
+            }
+        }
+
+        private void rollup(Long userId, LocalDate day, Long categoryId, int completed, int created) {
+            UserChanges change = users.computeIfAbsent(userId, id -> new UserChanges());
+
+            long[] values = change.rollups.computeIfAbsent(new RollupKey(day, categoryId), key -> new long[2]); // [completed, created]
+            values[0] += completed;
+            values[1] += created;
+        }
+    }
+
+    private static class UserChanges {
+        private long completed;
+        private long uncompleted;
+        private final Map<Long, long[]> categories = new HashMap<>();
+        private final Map<RollupKey, long[]> rollups = new HashMap<>();
+    }
+
+}
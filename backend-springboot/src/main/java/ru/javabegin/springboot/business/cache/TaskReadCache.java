@@ -0,0 +1,258 @@
+package ru.javabegin.springboot.business.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/*
+
+Кеш результатов чтения задач (поиск и список всех задач) - отдельно для каждого пользователя.
+
+Frontend при каждом обновлении экрана заново запрашивает /task/search и /task/all с теми же параметрами,
+а данные пользователя за это время обычно не меняются - такие запросы можно не выполнять в БД.
+
+Ограничения размера:
+- для каждого пользователя хранится не больше maxEntries результатов (при превышении удаляется тот, который дольше всех не запрашивали)
+- результат, который не запрашивали дольше maxIdleSeconds, удаляется
+- при превышении maxUsers сначала удаляются пользователи, которые давно ничего не запрашивали, если не помогло - кеш очищается полностью
+
+При добавлении/изменении/удалении задач (а также приоритетов и категорий - их названия есть в результатах) сбрасываются только значения этого пользователя.
+Как и в TaskCountCache: номер версии не дает сохранить результат запроса, который начался до изменения данных,
+а сброс выполняется сразу и после завершения транзакции.
+
+Счетчики hits/misses/evictions доступны через JMX (если включен spring.jmx.enabled) - по ним можно подобрать размеры кеша.
+
+*/
+
+@Component
+@ManagedResource(objectName = "ru.javabegin.springboot:type=Cache,name=TaskReadCache")
+public class TaskReadCache {
+
+    @Value("${task.read-cache.max-users:10000}")
+    private int maxUsers; // сколько пользователей хранить в кеше
+
+    @Value("${task.read-cache.max-entries:32}")
+    private int maxEntries; // сколько разных запросов хранить для одного пользователя
+
+    @Value("${task.read-cache.max-idle-seconds:300}")
+    private long maxIdleSeconds; // через сколько секунд удалять результат, который никто не запрашивает
+
+    private final Map<Long, UserEntries> users = new ConcurrentHashMap<>();
+
+    private final AtomicLong versions = new AtomicLong(); // источник номеров версий (номера не повторяются даже после очистки кеша)
+
+    // статистика
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong(); // удалены из-за ограничений размера или времени (сброс при изменении данных не учитывается)
+
+
+    /*
+    Результат запроса key пользователя userId: из кеша или (если его там нет) - выполняется loader и результат сохраняется.
+    userId == null - кешировать нельзя (неизвестно, когда сбрасывать), просто выполняем loader
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Long userId, String key, Supplier<T> loader) {
+        if (userId == null) {
+            return loader.get();
+        }
+
+        long now = System.currentTimeMillis();
+
+        UserEntries entries = userEntries(userId, now);
+
+        long version = entries.version.get(); // версию запоминаем до выполнения запроса
+
+        Object value = entries.get(key, now);
+
+        if (value != null) {
+            hits.incrementAndGet();
+            return (T) value;
+        }
+
+        misses.incrementAndGet();
+
+        T loaded = loader.get();
+
+        if (loaded != null) {
+            entries.put(key, loaded, version, now);
+        }
+
+        return loaded;
+    }
+
+    // данные пользователя изменились - сбрасываем все его значения (сейчас и после завершения текущей транзакции)
+    public void invalidate(Long userId) {
+        if (userId == null) { // неизвестно, чьи данные изменились - сбрасываем весь кеш
+            invalidateAll();
+            return;
+        }
+
+        evict(userId);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict(userId);
+                }
+            });
+        }
+    }
+
+    @ManagedOperation
+    public void invalidateAll() {
+        users.values().forEach(entries -> entries.clear(versions.incrementAndGet())); // запросы, которые сейчас выполняются, не попадут в кеш
+        users.clear();
+    }
+
+    // ключ запроса (пользователь в ключ не входит - значения и так хранятся отдельно для каждого пользователя)
+    public static String key(Object... parts) {
+        StringBuilder key = new StringBuilder();
+        for (Object part : parts) {
+            if (part instanceof Date) {
+                part = ((Date) part).getTime();
+            }
+            key.append(part).append('|');
+        }
+        return key.toString();
+    }
+
+
+    @ManagedAttribute
+    public long getHits() {
+        return hits.get();
+    }
+
+    @ManagedAttribute
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @ManagedAttribute
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @ManagedAttribute
+    public int getUsers() {
+        return users.size();
+    }
+
+
+    private void evict(Long userId) {
+        UserEntries entries = users.get(userId);
+        if (entries != null) {
+            entries.clear(versions.incrementAndGet()); // значения, которые сейчас загружаются, уже не попадут в кеш
+        }
+    }
+
+    private UserEntries userEntries(Long userId, long now) {
+        UserEntries entries = users.get(userId);
+
+        if (entries == null) {
+            if (users.size() >= maxUsers) {
+                freeUsers(now);
+            }
+            entries = users.computeIfAbsent(userId, e -> new UserEntries(versions.incrementAndGet()));
+        }
+
+        return entries;
+    }
+
+    // освобождаем место для нового пользователя
+    private void freeUsers(long now) {
+        Iterator<UserEntries> it = users.values().iterator();
+        while (it.hasNext()) {
+            UserEntries entries = it.next();
+            if (now - entries.lastAccess > maxIdleSeconds * 1000) { // пользователь давно ничего не запрашивал
+                evictions.addAndGet(entries.size());
+                entries.clear(versions.incrementAndGet());
+                it.remove();
+            }
+        }
+
+        if (users.size() >= maxUsers) { // все пользователи активны
+            users.values().forEach(entries -> evictions.addAndGet(entries.size()));
+            invalidateAll();
+        }
+    }
+
+
+    // значения одного пользователя (LinkedHashMap в порядке обращения - первым идет тот результат, который дольше всех не запрашивали)
+    private class UserEntries {
+
+        private final AtomicLong version;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private UserEntries(long version) {
+            this.version = new AtomicLong(version);
+        }
+
+        synchronized Object get(String key, long now) {
+            lastAccess = now;
+
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+
+            if (now - entry.lastAccess > maxIdleSeconds * 1000) {
+                entries.remove(key);
+                evictions.incrementAndGet();
+                return null;
+            }
+
+            entry.lastAccess = now;
+            return entry.value;
+        }
+
+        synchronized void put(String key, Object value, long version, long now) {
+            if (this.version.get() != version) { // пока выполнялся запрос, данные пользователя изменились
+                return;
+            }
+
+            entries.put(key, new Entry(value, now));
+
+            Iterator<Entry> it = entries.values().iterator();
+            while (entries.size() > maxEntries && it.hasNext()) {
+                it.next();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+
+        synchronized void clear(long newVersion) {
+            version.set(newVersion);
+            entries.clear();
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+
+    private static class Entry {
+        private final Object value;
+        private long lastAccess;
+
+        private Entry(Object value, long lastAccess) {
+            this.value = value;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+}
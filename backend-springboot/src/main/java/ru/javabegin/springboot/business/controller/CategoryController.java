@@ -4,11 +4,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import ru.javabegin.springboot.auth.service.UserDetailsImpl;
 import ru.javabegin.springboot.business.entity.Category;
 import ru.javabegin.springboot.business.search.CategorySearchValues;
 import ru.javabegin.springboot.business.service.CategoryService;
-import ru.javabegin.springboot.business.util.MyLogger;
 
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -26,11 +27,9 @@ public class CategoryController {
 
     // для получения данных используем тип запроса POST, позволяет отправлять и получать значения в body - более безопасно, по сравнению с GET
     @PostMapping("/all")
-    public ResponseEntity<List<Category>> findAll(@RequestBody String email){ // пока в body будет передаваться только значение email
+    public ResponseEntity<List<Category>> findAll(@AuthenticationPrincipal UserDetailsImpl user){ // пользователь - из jwt (email в body больше не нужен)
 
-        MyLogger.debugMethodName("CategoryController: findAll(email) ---------------------------------------------------------- ");
-
-        return ResponseEntity.ok(categoryService.findAll(email));
+        return ResponseEntity.ok(categoryService.findAll(user.getId()));
 
     }
 
@@ -40,8 +39,6 @@ public class CategoryController {
     public ResponseEntity<Category> add(@RequestBody Category category){ // в category передается объект для вставки в БД
 
 
-        MyLogger.debugMethodName("CategoryController: add(category) ---------------------------------------------------------- ");
-
 
         // проверка на обязательные параметры - id НЕ должен быть заполнен, т.к. это добавление нового объекта
         if (category.getId() != null && category.getId() != 0) {
@@ -67,8 +64,6 @@ public class CategoryController {
     @PatchMapping("/update")
     public ResponseEntity update(@RequestBody Category category) { // в category передается объект для обновления в БД
 
-        MyLogger.debugMethodName("CategoryController: update(category) ---------------------------------------------------------- ");
-
 
         // проверка на обязательные параметры - id должен быть заполнен, т.к. это обновление существующего объекта
         if (category.getId() == null || category.getId() == 0) {
@@ -89,8 +84,6 @@ public class CategoryController {
     @DeleteMapping("/delete")
     public ResponseEntity delete(@RequestBody Long id) {
 
-        MyLogger.debugMethodName("CategoryController: delete(id) ---------------------------------------------------------- ");
-
         // проверка на обязательные параметры - id должен быть заполнен, т.к. это обновление существующего объекта
         if (id == null || id == 0) {
             return new ResponseEntity("missed param: id", HttpStatus.NOT_ACCEPTABLE);
@@ -109,12 +102,10 @@ public class CategoryController {
 
     //поиск по любым параметрам CategorySearchValues
     @PostMapping("/search")
-    public ResponseEntity<List<Category>> search(@RequestBody CategorySearchValues categorySearchValues) {
-
-        MyLogger.debugMethodName("CategoryController: search() ---------------------------------------------------------- ");
+    public ResponseEntity<List<Category>> search(@RequestBody CategorySearchValues categorySearchValues, @AuthenticationPrincipal UserDetailsImpl user) {
 
         // поиск категорий пользователя по названию
-        List<Category> list = categoryService.find(categorySearchValues.getTitle(), categorySearchValues.getEmail());
+        List<Category> list = categoryService.find(categorySearchValues.getTitle(), user.getId());
 
         return ResponseEntity.ok(list);
     }
@@ -123,8 +114,6 @@ public class CategoryController {
     @PostMapping("/id")
     public ResponseEntity<Category> findById(@RequestBody Long id) {
 
-        MyLogger.debugMethodName("CategoryController: findById() ---------------------------------------------------------- ");
-
         Category category = null;
 
         //
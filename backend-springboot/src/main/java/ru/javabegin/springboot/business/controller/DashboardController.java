@@ -0,0 +1,71 @@
+package ru.javabegin.springboot.business.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import ru.javabegin.springboot.auth.service.UserDetailsImpl;
+import ru.javabegin.springboot.business.objects.Dashboard;
+import ru.javabegin.springboot.business.search.DashboardValues;
+import ru.javabegin.springboot.business.search.TaskSortColumn;
+import ru.javabegin.springboot.business.service.DashboardService;
+
+/*
+
+Начальная загрузка страницы одним запросом: вместо отдельных /category/all, /priority/all, /stat и первой страницы /task/search.
+
+Отдельные запросы остаются - например, для обновления только статистики или следующих страниц задач (через nextCursor из ответа).
+
+*/
+
+@RestController
+public class DashboardController {
+
+    private final DashboardService dashboardService; // сервис для доступа к данным (напрямую к репозиториям не обращаемся)
+
+    // автоматическое внедрение экземпляра класса через конструктор
+    // не используем @Autowired ля переменной класса, т.к. "Field injection is not recommended "
+    @Autowired
+    public DashboardController(DashboardService dashboardService) {
+        this.dashboardService = dashboardService;
+    }
+
+
+    // все данные текущего пользователя (из jwt) для начальной загрузки; в body можно передать размер и сортировку первой страницы задач
+    @PostMapping("/dashboard")
+    public ResponseEntity<Dashboard> load(@RequestBody(required = false) DashboardValues values, @AuthenticationPrincipal UserDetailsImpl user) {
+
+        if (values == null) {
+            values = new DashboardValues();
+        }
+
+        int pageSize = values.getPageSize() != null ? values.getPageSize() : 10; // по-умолчанию - как в /task/search
+
+        if (pageSize < 1) {
+            return new ResponseEntity("invalid param: pageSize", HttpStatus.NOT_ACCEPTABLE);
+        }
+
+        if (pageSize > TaskController.MAX_PAGE_SIZE) {
+            return new ResponseEntity("too big pageSize: max " + TaskController.MAX_PAGE_SIZE, HttpStatus.NOT_ACCEPTABLE);
+        }
+
+        String sortColumn = values.getSortColumn() != null ? values.getSortColumn() : TaskController.ID_COLUMN;
+
+        TaskSortColumn column = TaskSortColumn.of(sortColumn);
+
+        if (column == null) {
+            return new ResponseEntity("unsupported sort column: " + sortColumn, HttpStatus.NOT_ACCEPTABLE);
+        }
+
+        String sortDirection = values.getSortDirection();
+
+        Sort.Direction direction = sortDirection == null || sortDirection.trim().length() == 0 || sortDirection.trim().equals("asc") ? Sort.Direction.ASC : Sort.Direction.DESC;
+
+        return ResponseEntity.ok(dashboardService.load(user.getId(), column, direction, pageSize));
+    }
+
+}
@@ -4,11 +4,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import ru.javabegin.springboot.auth.service.UserDetailsImpl;
 import ru.javabegin.springboot.business.entity.Priority;
 import ru.javabegin.springboot.business.search.PrioritySearchValues;
 import ru.javabegin.springboot.business.service.PriorityService;
-import ru.javabegin.springboot.business.util.MyLogger;
 
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -45,12 +46,10 @@ public class PriorityController {
 
 
     @PostMapping("/all")
-    public ResponseEntity<List<Priority>> findAll(@RequestBody String email) {
+    public ResponseEntity<List<Priority>> findAll(@AuthenticationPrincipal UserDetailsImpl user) {
 
-        MyLogger.debugMethodName("PriorityController: findAll() ---------------------------------------------------------- ");
 
-
-        return ResponseEntity.ok(priorityService.findAll(email));
+        return ResponseEntity.ok(priorityService.findAll(user.getId()));
 
     }
 
@@ -58,8 +57,6 @@ public class PriorityController {
     @PutMapping("/add")
     public ResponseEntity<Priority> add(@RequestBody Priority priority) {
 
-        MyLogger.debugMethodName("PriorityController: add() ---------------------------------------------------------- ");
-
 
         // проверка на обязательные параметры
         if (priority.getId() != null && priority.getId() != 0) {
@@ -85,8 +82,6 @@ public class PriorityController {
     @PatchMapping("/update")
     public ResponseEntity update(@RequestBody Priority priority) {
 
-        MyLogger.debugMethodName("PriorityController: update() ---------------------------------------------------------- ");
-
 
         // проверка на обязательные параметры
         if (priority.getId() == null || priority.getId() == 0) {
@@ -115,8 +110,6 @@ public class PriorityController {
     @PostMapping("/id")
     public ResponseEntity<Priority> findById(@RequestBody Long id) {
 
-        MyLogger.debugMethodName("PriorityController: findById() ---------------------------------------------------------- ");
-
         // проверка на обязательные параметры - id должен быть заполнен, т.к. это обновление существующего объекта
         if (id == null || id == 0) {
             return new ResponseEntity("missed param: id", HttpStatus.NOT_ACCEPTABLE);
@@ -141,8 +134,6 @@ public class PriorityController {
     @DeleteMapping("/delete")
     public ResponseEntity delete(@RequestBody Long id) {
 
-        MyLogger.debugMethodName("PriorityController: delete() ---------------------------------------------------------- ");
-
 
         // можно обойтись и без try-catch, тогда будет возвращаться полная ошибка (stacktrace)
         // здесь показан пример, как можно обрабатывать исключение и отправлять свой текст/статус
@@ -159,13 +150,11 @@ public class PriorityController {
 
     // поиск по любым параметрам PrioritySearchValues
     @PostMapping("/search")
-    public ResponseEntity<List<Priority>> search(@RequestBody PrioritySearchValues prioritySearchValues) {
-
-        MyLogger.debugMethodName("PriorityController: search() ---------------------------------------------------------- ");
+    public ResponseEntity<List<Priority>> search(@RequestBody PrioritySearchValues prioritySearchValues, @AuthenticationPrincipal UserDetailsImpl user) {
 
 
         // если вместо текста будет пусто или null - вернутся все категории
-        return ResponseEntity.ok(priorityService.find(prioritySearchValues.getTitle(), prioritySearchValues.getEmail()));
+        return ResponseEntity.ok(priorityService.find(prioritySearchValues.getTitle(), user.getId()));
     }
 
 
@@ -15,18 +15,30 @@ package ru.javabegin.springboot.business.controller;
 */
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
+import ru.javabegin.springboot.auth.service.UserDetailsImpl;
 import ru.javabegin.springboot.business.entity.Stat;
+import ru.javabegin.springboot.business.objects.StatHistoryPoint;
+import ru.javabegin.springboot.business.search.StatGranularity;
+import ru.javabegin.springboot.business.search.StatHistoryValues;
 import ru.javabegin.springboot.business.service.StatService;
-import ru.javabegin.springboot.business.util.MyLogger;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
 
 @RestController
 
 public class StatController {
 
+    public static final int MAX_HISTORY_DAYS = 3660; // максимальный период истории (~10 лет) - ограничивает кол-во периодов в ответе
+
     private final StatService statService; // сервис для доступа к данным (напрямую к репозиториям не обращаемся)
 
     // автоматическое внедрение экземпляра класса через конструктор
@@ -39,11 +51,45 @@ public class StatController {
 
     // для статистики всегда получаем только одну строку для конкретного пользователя
     @PostMapping("/stat")
-    public ResponseEntity<Stat> findByEmail(@RequestBody String email) {
+    public ResponseEntity<Stat> findByUser(@AuthenticationPrincipal UserDetailsImpl user) { // статистика текущего пользователя (из jwt)
+
+        return ResponseEntity.ok(statService.findStat(user.getId()));
+    }
+
+
+    // история выполнения задач текущего пользователя по дням/неделям/месяцам
+    @PostMapping("/stat/history")
+    public ResponseEntity<List<StatHistoryPoint>> history(@RequestBody StatHistoryValues values, @AuthenticationPrincipal UserDetailsImpl user) {
+
+        if (values.getDateFrom() == null) {
+            return new ResponseEntity("missed param: dateFrom", HttpStatus.NOT_ACCEPTABLE);
+        }
+
+        if (values.getDateTo() == null) {
+            return new ResponseEntity("missed param: dateTo", HttpStatus.NOT_ACCEPTABLE);
+        }
+
+        StatGranularity granularity = values.getGranularity() == null || values.getGranularity().trim().isEmpty()
+                ? StatGranularity.DAY
+                : StatGranularity.of(values.getGranularity().trim());
+
+        if (granularity == null) {
+            return new ResponseEntity("unsupported granularity: " + values.getGranularity(), HttpStatus.NOT_ACCEPTABLE);
+        }
+
+        // учитываем только дату (как в итогах по дням - по часовому поясу сервера)
+        LocalDate dateFrom = values.getDateFrom().toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+        LocalDate dateTo = values.getDateTo().toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+
+        if (dateFrom.isAfter(dateTo)) {
+            return new ResponseEntity("dateFrom MUST be before dateTo", HttpStatus.NOT_ACCEPTABLE);
+        }
 
-        MyLogger.debugMethodName("StatController: findById() ---------------------------------------------------------- ");
+        if (ChronoUnit.DAYS.between(dateFrom, dateTo) >= MAX_HISTORY_DAYS) {
+            return new ResponseEntity("too long period: max " + MAX_HISTORY_DAYS + " days", HttpStatus.NOT_ACCEPTABLE);
+        }
 
-        return ResponseEntity.ok(statService.findStat(email));
+        return ResponseEntity.ok(statService.history(user.getId(), dateFrom, dateTo, granularity, values.getCategoryId()));
     }
 
 
@@ -1,21 +1,40 @@
 package ru.javabegin.springboot.business.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import ru.javabegin.springboot.auth.service.UserDetailsImpl;
 import ru.javabegin.springboot.business.entity.Task;
+import ru.javabegin.springboot.business.objects.TaskBulkOperation;
+import ru.javabegin.springboot.business.objects.TaskBulkResult;
+import ru.javabegin.springboot.business.objects.TaskCursorPage;
+import ru.javabegin.springboot.business.objects.TaskView;
+import ru.javabegin.springboot.business.search.TaskCursor;
 import ru.javabegin.springboot.business.search.TaskSearchValues;
+import ru.javabegin.springboot.business.search.TaskSortColumn;
+import ru.javabegin.springboot.business.search.TaskWhereValues;
 import ru.javabegin.springboot.business.service.TaskService;
-import ru.javabegin.springboot.business.util.MyLogger;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 
@@ -44,30 +63,60 @@ public class TaskController {
 
     public static final String ID_COLUMN = "id"; // имя столбца id (используется для сортировки и везде, где нужно указать название поля)
 
+    public static final int MAX_PAGE_SIZE = 1000; // максимальное количество задач на одной странице поиска
+
+    public static final int MAX_BULK_OPERATIONS = 10_000; // максимальное количество операций в одном запросе /bulk
+
     private final TaskService taskService; // сервис для доступа к данным (напрямую к репозиториям не обращаемся)
+    private final ObjectMapper objectMapper; // настроенный Spring объект jackson - JSON выгрузки совпадает с обычными ответами
 
     // автоматическое внедрение экземпляра класса через конструктор
     // не используем @Autowired ля переменной класса, т.к. "Field injection is not recommended "
     @Autowired
-    public TaskController(TaskService taskService) {
+    public TaskController(TaskService taskService, ObjectMapper objectMapper) {
         this.taskService = taskService;
+        this.objectMapper = objectMapper;
     }
 
 
     // получение всех данных
     @PostMapping("/all")
-    public ResponseEntity<List<Task>> findAll(@RequestBody String email) {
+    public ResponseEntity<List<TaskView>> findAll(@AuthenticationPrincipal UserDetailsImpl user) { // задачи пользователя из jwt
+
+        return ResponseEntity.ok(taskService.findAll(user.getId())); // поиск всех задач конкретного пользователя
+    }
 
-        MyLogger.debugMethodName("task: findAll() ---------------------------------------------------------------- ");
+    /*
+    Выгрузка всех задач пользователя в формате NDJSON (каждая задача - отдельная строка JSON).
+    Задачи записываются в ответ сразу по мере чтения из БД - весь список не собирается в памяти (в отличие от /all)
+     */
+    @PostMapping("/export")
+    public void export(@AuthenticationPrincipal UserDetailsImpl user, HttpServletResponse response) throws IOException {
 
-        return ResponseEntity.ok(taskService.findAll(email)); // поиск всех задач конкретного пользователя
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        OutputStream out = response.getOutputStream();
+
+        try {
+            taskService.exportAll(user.getId(), task -> {
+                try {
+                    out.write(objectMapper.writeValueAsBytes(task));
+                    out.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e); // Consumer не может выбрасывать проверяемые исключения
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause(); // например, клиент закрыл соединение - выгрузка прекращается
+        }
+
+        out.flush();
     }
 
-    // добавление задачи
+    // добавление задачи (владелец задачи - пользователь из jwt, поле user из body не используется)
     @PutMapping("/add")
-    public ResponseEntity<Task> add(@RequestBody Task task) {
-
-        MyLogger.debugMethodName("task: add() ---------------------------------------------------------------- ");
+    public ResponseEntity<Task> add(@RequestBody Task task, @AuthenticationPrincipal UserDetailsImpl user) {
 
         // проверка на обязательные параметры
         if (task.getId() != null && task.getId() != 0) {
@@ -80,16 +129,18 @@ public class TaskController {
             return new ResponseEntity("missed param: title", HttpStatus.NOT_ACCEPTABLE);
         }
 
-        return ResponseEntity.ok(taskService.add(task)); // возвращаем созданный объект со сгенерированным id
+        try {
+            return ResponseEntity.ok(taskService.add(task, user.getUser())); // возвращаем созданный объект со сгенерированным id
+        } catch (NoSuchElementException e) { // категория или приоритет не найдены или принадлежат другому пользователю
+            return new ResponseEntity(notFound(task, e), HttpStatus.NOT_ACCEPTABLE);
+        }
 
     }
 
 
-    // обновление
+    // обновление (только своей задачи - чужая задача считается ненайденной)
     @PatchMapping("/update")
-    public ResponseEntity<Task> update(@RequestBody Task task) {
-
-        MyLogger.debugMethodName("task: update() ---------------------------------------------------------------- ");
+    public ResponseEntity<Task> update(@RequestBody Task task, @AuthenticationPrincipal UserDetailsImpl user) {
 
         // проверка на обязательные параметры
         if (task.getId() == null || task.getId() == 0) {
@@ -103,25 +154,101 @@ public class TaskController {
 
 
         // save работает как на добавление, так и на обновление
-        taskService.update(task);
+        try {
+            taskService.update(task, user.getId());
+        } catch (EmptyResultDataAccessException e) { // задача не найдена или принадлежит другому пользователю
+            return new ResponseEntity("id=" + task.getId() + " not found", HttpStatus.NOT_ACCEPTABLE);
+        } catch (NoSuchElementException e) { // категория или приоритет не найдены или принадлежат другому пользователю
+            return new ResponseEntity(notFound(task, e), HttpStatus.NOT_ACCEPTABLE);
+        }
 
         return new ResponseEntity(HttpStatus.OK); // просто отправляем статус 200 (операция прошла успешно)
 
     }
 
 
+    /*
+    Пакетное изменение задач: список операций add/update/delete выполняется в одной транзакции (вместо отдельного HTTP запроса на каждую задачу).
+    Для каждой операции возвращается результат (в том же порядке). Операции с ошибкой в параметрах или с несуществующим id не выполняются,
+    остальные - выполняются. Если ошибка возникнет в самой БД - откатятся все операции запроса.
+    Как и в отдельных запросах - только задачи пользователя из jwt (чужие задачи и категории считаются ненайденными).
+     */
+    @PostMapping("/bulk")
+    public ResponseEntity<List<TaskBulkResult>> bulk(@RequestBody List<TaskBulkOperation> operations, @AuthenticationPrincipal UserDetailsImpl user) {
+
+        if (operations == null || operations.isEmpty()) {
+            return new ResponseEntity("missed param: operations", HttpStatus.NOT_ACCEPTABLE);
+        }
+
+        if (operations.size() > MAX_BULK_OPERATIONS) {
+            return new ResponseEntity("too many operations: max " + MAX_BULK_OPERATIONS, HttpStatus.NOT_ACCEPTABLE);
+        }
+
+        List<TaskBulkResult> results = new ArrayList<>(operations.size());
+        Map<Integer, TaskBulkOperation> valid = new LinkedHashMap<>(); // операции, которые прошли проверку параметров
+
+        for (int i = 0; i < operations.size(); i++) {
+            TaskBulkOperation operation = operations.get(i);
+            String error = checkBulkOperation(operation);
+            if (error != null) {
+                results.add(TaskBulkResult.error(i, operation != null ? operation.getId() : null, error));
+            } else {
+                valid.put(i, operation);
+            }
+        }
+
+        if (!valid.isEmpty()) {
+            results.addAll(taskService.bulk(valid, user.getId()));
+        }
+
+        results.sort(Comparator.comparingInt(TaskBulkResult::getIndex));
+
+        return ResponseEntity.ok(results);
+    }
+
+    // такие же проверки, как в /add, /update, /delete (null - если ошибок нет)
+    private String checkBulkOperation(TaskBulkOperation operation) {
+
+        if (operation == null || operation.getAction() == null) {
+            return "missed param: action";
+        }
+
+        if (operation.getAction() == TaskBulkOperation.Action.DELETE) {
+            return operation.getId() == null ? "missed param: id" : null;
+        }
+
+        Task task = operation.getTask();
+
+        if (task == null) {
+            return "missed param: task";
+        }
+
+        if (operation.getAction() == TaskBulkOperation.Action.ADD && task.getId() != null && task.getId() != 0) {
+            return "redundant param: id MUST be null";
+        }
+
+        if (operation.getAction() == TaskBulkOperation.Action.UPDATE && (task.getId() == null || task.getId() == 0)) {
+            return "missed param: id";
+        }
+
+        if (task.getTitle() == null || task.getTitle().trim().length() == 0) {
+            return "missed param: title";
+        }
+
+        return null;
+    }
+
+
     // для удаления используем типа запроса put, а не delete, т.к. он позволяет передавать значение в body, а не в адресной строке
     @DeleteMapping("/delete")
-    public ResponseEntity delete(@RequestBody Long id) {
-
-        MyLogger.debugMethodName("task: delete() ---------------------------------------------------------------- ");
+    public ResponseEntity delete(@RequestBody Long id, @AuthenticationPrincipal UserDetailsImpl user) {
 
 
         // можно обойтись и без try-catch, тогда будет возвращаться полная ошибка (stacktrace)
         // здесь показан пример, как можно обрабатывать исключение и отправлять свой текст/статус
         try {
-            taskService.deleteById(id);
-        } catch (EmptyResultDataAccessException e) {
+            taskService.deleteById(id, user.getId());
+        } catch (EmptyResultDataAccessException e) { // задача не найдена или принадлежит другому пользователю
             e.printStackTrace();
             return new ResponseEntity("id=" + id + " not found", HttpStatus.NOT_ACCEPTABLE);
         }
@@ -129,18 +256,16 @@ public class TaskController {
     }
 
 
-    // получение объекта по id
+    // получение объекта по id (только своей задачи)
     @PostMapping("/id")
-    public ResponseEntity<Task> findById(@RequestBody Long id) {
-
-        MyLogger.debugMethodName("task: findById() ---------------------------------------------------------------- ");
+    public ResponseEntity<Task> findById(@RequestBody Long id, @AuthenticationPrincipal UserDetailsImpl user) {
 
         Task task = null;
 
         // можно обойтись и без try-catch, тогда будет возвращаться полная ошибка (stacktrace)
         // здесь показан пример, как можно обрабатывать исключение и отправлять свой текст/статус
         try {
-            task = taskService.findById(id);
+            task = taskService.findById(id, user.getId());
         } catch (NoSuchElementException e) { // если объект не будет найден
             e.printStackTrace();
             return new ResponseEntity("id=" + id + " not found", HttpStatus.NOT_ACCEPTABLE);
@@ -153,9 +278,7 @@ public class TaskController {
 
     // поиск по любым параметрам TaskSearchValues
     @PostMapping("/search")
-    public ResponseEntity<Page<Task>> search(@RequestBody TaskSearchValues taskSearchValues)  {
-
-        MyLogger.debugMethodName("task: search() ---------------------------------------------------------------- ");
+    public ResponseEntity search(@RequestBody TaskSearchValues taskSearchValues, @AuthenticationPrincipal UserDetailsImpl user)  {
 
 
         // исключить NullPointerException
@@ -173,7 +296,11 @@ public class TaskController {
         Integer pageNumber = taskSearchValues.getPageNumber() != null ? taskSearchValues.getPageNumber() : 0;
         Integer pageSize = taskSearchValues.getPageSize() != null ? taskSearchValues.getPageSize() : 10;
 
-        String email = taskSearchValues.getEmail() != null ? taskSearchValues.getEmail() : null; // для показа задач только этого пользователя
+        if (pageSize > MAX_PAGE_SIZE) { // иначе один запрос может загрузить в память все задачи пользователя
+            return new ResponseEntity("too big pageSize: max " + MAX_PAGE_SIZE, HttpStatus.NOT_ACCEPTABLE);
+        }
+
+        Long userId = user.getId(); // для показа задач только этого пользователя (из jwt, а не из параметров запроса)
 
 
         // чтобы захватить в выборке все задачи по датам, независимо от времени - можно выставить время с 00:00 до 23:59
@@ -184,31 +311,13 @@ public class TaskController {
 
         // выставить 00:00 для начальной даты (если она указана)
         if (taskSearchValues.getDateFrom() != null) {
-
-            Calendar calendarFrom = Calendar.getInstance();
-            calendarFrom.setTime(taskSearchValues.getDateFrom());
-            calendarFrom.set(Calendar.HOUR_OF_DAY, 0);
-            calendarFrom.set(Calendar.MINUTE, 0);
-            calendarFrom.set(Calendar.SECOND, 0);
-            calendarFrom.set(Calendar.MILLISECOND, 0);
-
-            dateFrom = calendarFrom.getTime();
-
+            dateFrom = startOfDay(taskSearchValues.getDateFrom());
         }
 
 
         // выставить 23:59 для конечной даты (если она указана)
         if (taskSearchValues.getDateTo() != null) {
-
-            Calendar calendarTo = Calendar.getInstance();
-            calendarTo.setTime(taskSearchValues.getDateTo());
-            calendarTo.set(Calendar.HOUR_OF_DAY, 23);
-            calendarTo.set(Calendar.MINUTE, 59);
-            calendarTo.set(Calendar.SECOND, 59);
-            calendarTo.set(Calendar.MILLISECOND, 999);
-
-            dateTo = calendarTo.getTime();
-
+            dateTo = endOfDay(taskSearchValues.getDateTo());
         }
 
 
@@ -226,17 +335,175 @@ public class TaskController {
             sortColumn = ID_COLUMN;
         }
 
+
+        // постраничность через курсор (если клиент передал cursor) - не использует OFFSET и не выполняет запрос COUNT
+        if (taskSearchValues.getCursor() != null) {
+            return searchByCursor(title, completed, priorityId, categoryId, userId, dateFrom, dateTo, sortColumn, direction, taskSearchValues.getCursor(), pageSize);
+        }
+
         Sort sort = Sort.by(direction, sortColumn, ID_COLUMN);
 
         // объект постраничности
         PageRequest pageRequest = PageRequest.of(pageNumber, pageSize, sort);
 
+        // если клиенту не нужно общее количество задач (например, для следующих страниц) - не выполняем запрос COUNT
+        if (Boolean.TRUE.equals(taskSearchValues.getSlice())) {
+            return ResponseEntity.ok(taskService.findSlice(title, completed, priorityId, categoryId, userId, dateFrom, dateTo, pageRequest));
+        }
+
         // результат запроса с постраничным выводом
-        Page<Task> result = taskService.find(title, completed, priorityId, categoryId, email, dateFrom, dateTo, pageRequest);
+        Page<TaskView> result = taskService.find(title, completed, priorityId, categoryId, userId, dateFrom, dateTo, pageRequest);
 
         // результат запроса
         return ResponseEntity.ok(result);
 
     }
 
+
+    // постраничный вывод через курсор: следующая страница начинается сразу после последней строки предыдущей страницы
+    private ResponseEntity searchByCursor(String title, Integer completed, Long priorityId, Long categoryId, Long userId, Date dateFrom, Date dateTo,
+                                          String sortColumn, Sort.Direction direction, String cursorValue, Integer pageSize) {
+
+        if (pageSize < 1) {
+            return new ResponseEntity("invalid param: pageSize", HttpStatus.NOT_ACCEPTABLE);
+        }
+
+        TaskSortColumn column = TaskSortColumn.of(sortColumn);
+
+        if (column == null) {
+            return new ResponseEntity("unsupported sort column for cursor: " + sortColumn, HttpStatus.NOT_ACCEPTABLE);
+        }
+
+        TaskCursor cursor = null; // пустой курсор - первая страница
+
+        if (cursorValue.trim().length() > 0) {
+            try {
+                cursor = TaskCursor.decode(cursorValue);
+            } catch (IllegalArgumentException e) {
+                return new ResponseEntity("invalid cursor", HttpStatus.NOT_ACCEPTABLE);
+            }
+
+            // курсор создан для другой сортировки - продолжать по нему нельзя (клиент должен начать с первой страницы)
+            if (cursor.getSortColumn() != column || cursor.getDirection() != direction) {
+                return new ResponseEntity("cursor does not match sort", HttpStatus.NOT_ACCEPTABLE);
+            }
+        }
+
+        // запрашиваем на 1 задачу больше - так узнаем, есть ли следующая страница (без запроса COUNT)
+        List<TaskView> tasks = taskService.findAfter(title, completed, priorityId, categoryId, userId, dateFrom, dateTo, column, direction, cursor, pageSize + 1);
+
+        boolean hasNext = tasks.size() > pageSize;
+
+        if (hasNext) {
+            tasks = tasks.subList(0, pageSize); // лишнюю задачу клиенту не отправляем
+        }
+
+        String nextCursor = hasNext ? TaskCursor.of(tasks.get(tasks.size() - 1), column, direction).encode() : null;
+
+        return ResponseEntity.ok(new TaskCursorPage(tasks, pageSize, hasNext, nextCursor));
+    }
+
+
+    /*
+    Массовые операции над всеми задачами пользователя, которые подходят под фильтры (как в /search) - одним запросом в БД,
+    без загрузки задач. В ответе - количество измененных задач
+     */
+
+    // отметить задачи выполненными/невыполненными
+    @PostMapping("/complete-where")
+    public ResponseEntity<Integer> completeWhere(@RequestBody TaskWhereValues values, @AuthenticationPrincipal UserDetailsImpl user) {
+
+        if (values.getCompleted() == null) {
+            return new ResponseEntity("missed param: completed", HttpStatus.NOT_ACCEPTABLE);
+        }
+
+        TaskSearchValues f = values.getFilter();
+
+        if (f == null) { // без фильтра операция изменила бы все задачи пользователя - такое нужно передать явно (пустой filter)
+            return new ResponseEntity("missed param: filter", HttpStatus.NOT_ACCEPTABLE);
+        }
+
+        return ResponseEntity.ok(taskService.completeWhere(f.getTitle(), f.getCompleted(), f.getPriorityId(), f.getCategoryId(), user.getId(),
+                startOfDay(f.getDateFrom()), endOfDay(f.getDateTo()), values.getCompleted()));
+    }
+
+    // перенести задачи в другую категорию
+    @PostMapping("/move-where")
+    public ResponseEntity<Integer> moveWhere(@RequestBody TaskWhereValues values, @AuthenticationPrincipal UserDetailsImpl user) {
+
+        if (values.getCategoryId() == null) {
+            return new ResponseEntity("missed param: categoryId", HttpStatus.NOT_ACCEPTABLE);
+        }
+
+        TaskSearchValues f = values.getFilter();
+
+        if (f == null) { // без фильтра операция изменила бы все задачи пользователя - такое нужно передать явно (пустой filter)
+            return new ResponseEntity("missed param: filter", HttpStatus.NOT_ACCEPTABLE);
+        }
+
+        try {
+            return ResponseEntity.ok(taskService.moveWhere(f.getTitle(), f.getCompleted(), f.getPriorityId(), f.getCategoryId(), user.getId(),
+                    startOfDay(f.getDateFrom()), endOfDay(f.getDateTo()), values.getCategoryId()));
+        } catch (NoSuchElementException e) { // категория не найдена или принадлежит другому пользователю
+            return new ResponseEntity("categoryId=" + values.getCategoryId() + " not found", HttpStatus.NOT_ACCEPTABLE);
+        }
+    }
+
+    // удалить задачи
+    @PostMapping("/delete-where")
+    public ResponseEntity<Integer> deleteWhere(@RequestBody TaskWhereValues values, @AuthenticationPrincipal UserDetailsImpl user) {
+
+        TaskSearchValues f = values.getFilter();
+
+        if (f == null) { // без фильтра операция изменила бы все задачи пользователя - такое нужно передать явно (пустой filter)
+            return new ResponseEntity("missed param: filter", HttpStatus.NOT_ACCEPTABLE);
+        }
+
+        return ResponseEntity.ok(taskService.deleteWhere(f.getTitle(), f.getCompleted(), f.getPriorityId(), f.getCategoryId(), user.getId(),
+                startOfDay(f.getDateFrom()), endOfDay(f.getDateTo())));
+    }
+
+
+    // чтобы захватить в выборке все задачи по датам, независимо от времени - выставляем время с 00:00 до 23:59
+
+    // 00:00 для начальной даты (null - если дата не указана)
+    private Date startOfDay(Date date) {
+        if (date == null) {
+            return null;
+        }
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+
+        return calendar.getTime();
+    }
+
+    // 23:59 для конечной даты (null - если дата не указана)
+    private Date endOfDay(Date date) {
+        if (date == null) {
+            return null;
+        }
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        calendar.set(Calendar.HOUR_OF_DAY, 23);
+        calendar.set(Calendar.MINUTE, 59);
+        calendar.set(Calendar.SECOND, 59);
+        calendar.set(Calendar.MILLISECOND, 999);
+
+        return calendar.getTime();
+    }
+
+    // текст ошибки, если категория или приоритет задачи не найдены (TaskService.checkCategory/checkPriority - сообщение начинается с названия объекта)
+    private String notFound(Task task, NoSuchElementException e) {
+        if (task.getPriority() != null && e.getMessage() != null && e.getMessage().startsWith("Priority")) {
+            return "priorityId=" + task.getPriority().getId() + " not found";
+        }
+        return "categoryId=" + task.getCategory().getId() + " not found";
+    }
+
 }
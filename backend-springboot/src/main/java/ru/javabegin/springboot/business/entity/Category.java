@@ -24,10 +24,10 @@ public class Category {
     @Column
     private String title;
 
-    @Column(name = "completed_count", updatable = false) // т.к. это поле высчитывается автоматически в триггерах - вручную его не обновляем (updatable = false)
+    @Column(name = "completed_count", updatable = false) // т.к. это поле обновляет только TaskCounters (отдельным запросом) - при сохранении категории его не обновляем (updatable = false)
     private Long completedCount;
 
-    @Column(name = "uncompleted_count", updatable = false) // т.к. это поле высчитывается автоматически в триггерах - вручную его не обновляем (updatable = false)
+    @Column(name = "uncompleted_count", updatable = false) // т.к. это поле обновляет только TaskCounters (отдельным запросом) - при сохранении категории его не обновляем (updatable = false)
     private Long uncompletedCount;
 
     @ManyToOne
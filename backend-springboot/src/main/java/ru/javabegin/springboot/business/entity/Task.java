@@ -16,9 +16,17 @@ import java.util.Date;
 @EqualsAndHashCode
 public class Task {
 
-    // указываем, что поле заполняется в БД
-    // нужно, когда добавляем новый объект и он возвращается уже с новым id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    /*
+    id берется из sequence (а не IDENTITY): при IDENTITY id известен только после выполнения insert,
+    поэтому Hibernate не может объединять insert в пакеты (JDBC batch) - см. пакетное изменение задач TaskService.bulk
+    allocationSize - за один запрос к sequence Hibernate резервирует сразу столько id (шаг sequence в БД должен быть таким же)
+
+    Создание sequence в БД (Hibernate использует id из диапазона [значение - 49, значение], поэтому начальное значение - не меньше max(id) + 50):
+    create sequence task_seq start with <max(id) + 50> increment by 50;
+    alter table task alter column id set default nextval('task_seq');
+     */
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "task_seq")
+    @SequenceGenerator(name = "task_seq", sequenceName = "task_seq", allocationSize = 50)
     @Id
     private Long id;
 
@@ -28,6 +36,16 @@ public class Task {
     @Column
     private Integer completed; // 1 = true, 0 = false
 
+    /*
+    Когда задача отмечена выполненной (null - не выполнена или выполнена до появления столбца).
+    Устанавливает сервер (TaskService), значение от клиента не используется: по этой дате отмена выполнения и удаление задачи
+    вычитаются из итогов того дня, в который задача была выполнена (TaskDailyStat).
+
+    alter table task add column completed_date timestamp;
+     */
+    @Column(name = "completed_date")
+    private Date completedDate;
+
     @Column(name = "task_date") // в БД поле называется task_date, т.к. нельзя использовать системное имя date
     private Date taskDate;
 
@@ -0,0 +1,71 @@
+package ru.javabegin.springboot.business.entity;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.time.LocalDate;
+
+/*
+
+Итоги по задачам пользователя за один день в одной категории (для графиков выполнения задач по дням/неделям/месяцам).
+
+Строки не пересчитываются по таблице task, а изменяются вместе с задачами (TaskService -> TaskCounters):
+- completed - сколько задач, выполненных в этот день (Task.completedDate), сейчас выполнены:
+  отметка "не выполнена", удаление задачи или перенос в другую категорию вычитаются из итогов дня выполнения, а не текущего дня
+  (задачи, выполненные до появления completed_date, при отмене не вычитаются - их день выполнения неизвестен)
+- created - сколько задач добавлено в этот день (событие - удаление задачи его не меняет)
+
+Поэтому история за любой период читается из небольшого кол-ва строк (дни * категории), а не из всех задач пользователя.
+День определяется по часовому поясу сервера.
+
+Таблица (PostgreSQL):
+
+create table task_daily_stat (
+    id bigserial primary key,
+    user_id bigint not null references user_data (id) on delete cascade,
+    day date not null,
+    category_id bigint, -- без внешнего ключа: история остается и после удаления категории
+    completed bigint not null default 0,
+    created bigint not null default 0
+);
+create unique index task_daily_stat_key_idx on task_daily_stat (user_id, day, coalesce(category_id, 0));
+
+*/
+
+@Setter
+@Getter
+@NoArgsConstructor
+@Entity
+@Table(name = "TASK_DAILY_STAT")
+public class TaskDailyStat {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id")
+    private Long userId; // только id - объект User для итогов не нужен
+
+    @Column
+    private LocalDate day;
+
+    @Column(name = "category_id")
+    private Long categoryId; // null - задачи без категории
+
+    @Column
+    private long completed;
+
+    @Column
+    private long created;
+
+    public TaskDailyStat(Long userId, LocalDate day, Long categoryId, long completed, long created) {
+        this.userId = userId;
+        this.day = day;
+        this.categoryId = categoryId;
+        this.completed = completed;
+        this.created = created;
+    }
+
+}
@@ -0,0 +1,251 @@
+package ru.javabegin.springboot.business.index;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/*
+
+Индекс по названиям (title) для поиска по подстроке - хранится в памяти, отдельно для каждого пользователя.
+
+Условие lower(title) like '%текст%' не может использовать обычный индекс БД, поэтому при каждом нажатии клавиши в строке поиска
+БД просматривает все строки пользователя. Вместо этого ищем в памяти:
+- каждое название разбивается на триграммы (все подстроки из 3-х символов), для каждой триграммы храним id объектов, где она встречается
+- при поиске берем триграммы искомого текста и проверяем только объекты из самого короткого списка
+- название каждого кандидата сверяем с искомым текстом (contains) - поэтому результат точный, а не приблизительный
+
+Результат поиска - точный набор id, по которым затем выбираются сами объекты из БД (по первичному ключу).
+
+Индекс пользователя строится при первом поиске (все названия пользователя загружаются одним запросом),
+дальше поддерживается при добавлении/изменении/удалении объектов - изменения применяются после коммита транзакции,
+чтобы при откате транзакции в индексе не оказалось несуществующих данных.
+
+Пока строится индекс, данные пользователя могут измениться - для этого у каждого пользователя есть номер версии:
+построенный индекс сохраняется, только если версия не изменилась (иначе построим заново при следующем поиске).
+Проверка версии и сохранение индекса выполняются атомарно (users.compute), как и применение изменения к сохраненному индексу (users.computeIfPresent) -
+поэтому изменение, закоммиченное во время построения, либо не даст сохранить индекс, либо будет применено к уже сохраненному.
+
+Номер версии хранится, только пока у пользователя есть индекс или индекс строится - и удаляется вместе с индексом.
+Построение запоминает сам объект счетчика, поэтому удаленный и заново созданный счетчик не совпадет со старым, даже если совпадет номер.
+
+*/
+
+public class TrigramIndex {
+
+    public static final int MAX_IDS = 1000; // если найдено больше - индекс не используем (слишком длинный список id для запроса in)
+
+    private static final int MAX_USERS = 10_000; // сколько пользователей хранить в памяти
+
+    private final Function<Long, List<Object[]>> loader; // загрузка всех пар (id, title) пользователя по id
+
+    private final Map<Long, UserIndex> users = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicLong> versions = new ConcurrentHashMap<>(); // увеличивается при каждом изменении данных пользователя (только пользователи с индексом)
+
+    public TrigramIndex(Function<Long, List<Object[]>> loader) {
+        this.loader = loader;
+    }
+
+
+    /*
+    Поиск id объектов пользователя, название которых содержит title (без учета регистра).
+    Возвращает null, если индекс не может ответить (пустой текст поиска, слишком много совпадений, индекс еще не построен) - тогда нужно искать обычным запросом в БД
+     */
+    public Set<Long> find(Long userId, String title) {
+        if (userId == null || title == null || title.isEmpty()) {
+            return null;
+        }
+
+        UserIndex index = users.get(userId);
+
+        if (index == null) {
+            index = build(userId);
+            if (index == null) { // пока строили индекс, данные пользователя изменились
+                return null;
+            }
+        }
+
+        Set<Long> ids = index.find(title.toLowerCase());
+
+        return ids.size() > MAX_IDS ? null : ids;
+    }
+
+    // объект добавлен или изменен
+    public void put(Long userId, Long id, String title) {
+        if (userId == null) {
+            clear(); // неизвестно, чей индекс менять
+            return;
+        }
+
+        changed(userId);
+        afterCommit(userId, index -> {
+            index.put(id, title);
+            return index;
+        });
+    }
+
+    // объект удален
+    public void remove(Long userId, Long id) {
+        if (userId == null) {
+            clear();
+            return;
+        }
+
+        changed(userId);
+        afterCommit(userId, index -> {
+            index.remove(id);
+            return index;
+        });
+    }
+
+    // изменились сразу многие объекты пользователя (например, массовое удаление) - индекс пользователя будет построен заново
+    public void reset(Long userId) {
+        if (userId == null) {
+            clear();
+            return;
+        }
+
+        changed(userId);
+        afterCommit(userId, index -> null); // null - удалить индекс
+    }
+
+    public void clear() {
+        versions.clear(); // индексы, которые сейчас строятся, не будут сохранены (их счетчиков версий больше нет)
+        users.clear();
+    }
+
+
+    private UserIndex build(Long userId) {
+        AtomicLong version = versions.computeIfAbsent(userId, e -> new AtomicLong());
+        long start = version.get();
+
+        UserIndex index = new UserIndex();
+        for (Object[] row : loader.apply(userId)) {
+            index.put((Long) row[0], (String) row[1]);
+        }
+
+        if (users.size() >= MAX_USERS) {
+            Iterator<Long> it = users.keySet().iterator();
+            if (it.hasNext()) { // освобождаем место - удаляем индекс любого другого пользователя (вместе с его версией)
+                evict(it.next());
+            }
+        }
+
+        // версия проверяется под блокировкой записи userId - изменение не может примениться между проверкой и сохранением (см. apply)
+        UserIndex stored = users.compute(userId, (id, existing) ->
+                versions.get(userId) == version && version.get() == start ? index : existing);
+
+        return stored == index ? index : null;
+    }
+
+    private void evict(Long userId) {
+        users.remove(userId);
+        versions.remove(userId); // индекс, который сейчас строится для этого пользователя, не будет сохранен
+    }
+
+    // если индекса пользователя нет и он не строится - счетчика версий нет, менять нечего
+    private void changed(Long userId) {
+        AtomicLong version = versions.get(userId);
+        if (version != null) {
+            version.incrementAndGet();
+        }
+    }
+
+    // изменение индекса выполняем после успешного коммита (если транзакции нет - сразу)
+    private void afterCommit(Long userId, UnaryOperator<UserIndex> change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply(userId, change);
+                }
+            });
+        } else {
+            apply(userId, change);
+        }
+    }
+
+    // change возвращает индекс после изменения (null - индекс удаляется)
+    private void apply(Long userId, UnaryOperator<UserIndex> change) {
+        changed(userId); // индекс, который строился до коммита, мог прочитать старые данные
+
+        // если индекса пользователя еще нет - он будет построен при первом поиске уже с новыми данными
+        if (users.computeIfPresent(userId, (id, index) -> change.apply(index)) == null) {
+            versions.remove(userId); // индекса нет - версия больше не нужна (строящийся индекс все равно устарел)
+        }
+    }
+
+
+    // индекс одного пользователя
+    private static class UserIndex {
+
+        private final Map<Long, String> titles = new HashMap<>(); // id -> название в нижнем регистре
+        private final Map<String, Set<Long>> trigrams = new HashMap<>(); // триграмма -> id объектов
+
+        synchronized void put(Long id, String title) {
+            remove(id);
+
+            String lower = title == null ? "" : title.toLowerCase();
+            titles.put(id, lower);
+
+            for (String trigram : trigrams(lower)) {
+                trigrams.computeIfAbsent(trigram, t -> new HashSet<>()).add(id);
+            }
+        }
+
+        synchronized void remove(Long id) {
+            String old = titles.remove(id);
+            if (old == null) {
+                return;
+            }
+
+            for (String trigram : trigrams(old)) {
+                Set<Long> ids = trigrams.get(trigram);
+                if (ids != null) {
+                    ids.remove(id);
+                    if (ids.isEmpty()) {
+                        trigrams.remove(trigram);
+                    }
+                }
+            }
+        }
+
+        synchronized Set<Long> find(String text) {
+
+            // среди кандидатов проверяем только объекты из самого короткого списка триграмм
+            Collection<Long> candidates = titles.keySet(); // для текста короче 3 символов проверяем все названия (в памяти это все равно быстрее, чем в БД)
+
+            for (String trigram : trigrams(text)) {
+                Set<Long> ids = trigrams.get(trigram);
+                if (ids == null) { // такой триграммы нет ни в одном названии - совпадений нет
+                    return Collections.emptySet();
+                }
+                if (ids.size() < candidates.size()) {
+                    candidates = ids;
+                }
+            }
+
+            Set<Long> result = new HashSet<>();
+            for (Long id : candidates) {
+                if (titles.get(id).contains(text)) {
+                    result.add(id);
+                }
+            }
+            return result;
+        }
+
+        // все различные подстроки из 3-х символов
+        private static Set<String> trigrams(String text) {
+            Set<String> result = new HashSet<>();
+            for (int i = 0; i + 3 <= text.length(); i++) {
+                result.add(text.substring(i, i + 3));
+            }
+            return result;
+        }
+    }
+
+}
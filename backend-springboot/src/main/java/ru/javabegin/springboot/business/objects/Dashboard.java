@@ -0,0 +1,23 @@
+package ru.javabegin.springboot.business.objects;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import ru.javabegin.springboot.business.entity.Category;
+import ru.javabegin.springboot.business.entity.Priority;
+import ru.javabegin.springboot.business.entity.Stat;
+
+import java.util.List;
+
+// POJO класс для передачи клиенту всех данных начальной загрузки страницы одним ответом (/dashboard)
+@Getter
+@Setter
+@AllArgsConstructor
+public class Dashboard {
+
+    private List<Category> categories; // как в /category/all (со счетчиками задач)
+    private List<Priority> priorities; // как в /priority/all
+    private Stat stat; // как в /stat
+    private TaskCursorPage tasks; // первая страница задач - как в /task/search с пустым cursor (следующие страницы - через /task/search с nextCursor)
+
+}
@@ -0,0 +1,19 @@
+package ru.javabegin.springboot.business.objects;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDate;
+
+// POJO класс для передачи клиенту итогов одного периода истории выполнения задач (/stat/history)
+@Getter
+@Setter
+@AllArgsConstructor
+public class StatHistoryPoint {
+
+    private LocalDate start; // первый день периода
+    private long completed; // сколько задач отмечено выполненными за период (за вычетом снятых отметок)
+    private long created; // сколько задач добавлено за период
+
+}
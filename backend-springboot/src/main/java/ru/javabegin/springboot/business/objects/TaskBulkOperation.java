@@ -0,0 +1,27 @@
+package ru.javabegin.springboot.business.objects;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import ru.javabegin.springboot.business.entity.Task;
+
+// одна операция в пакетном изменении задач (/task/bulk) - то же самое, что отдельный вызов /add, /update или /delete
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class TaskBulkOperation {
+
+    private Action action;
+    private Task task; // для add и update
+    private Long id; // для delete
+
+    public enum Action {
+        @JsonProperty("add") ADD,
+        @JsonProperty("update") UPDATE,
+        @JsonProperty("delete") DELETE
+    }
+
+}
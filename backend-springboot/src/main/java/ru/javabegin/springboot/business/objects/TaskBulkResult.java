@@ -0,0 +1,26 @@
+package ru.javabegin.springboot.business.objects;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+// POJO класс для передачи клиенту результата одной операции пакетного изменения задач (в том же порядке, что и операции в запросе)
+@Getter
+@Setter
+@AllArgsConstructor
+public class TaskBulkResult {
+
+    private int index; // номер операции в запросе
+    private boolean success; // false - операция не выполнена (остальные операции при этом выполняются)
+    private Long id; // id задачи (для add - сгенерированный id)
+    private String error; // текст ошибки (такой же, как при отдельном вызове /add, /update или /delete)
+
+    public static TaskBulkResult ok(int index, Long id) {
+        return new TaskBulkResult(index, true, id, null);
+    }
+
+    public static TaskBulkResult error(int index, Long id, String error) {
+        return new TaskBulkResult(index, false, id, error);
+    }
+
+}
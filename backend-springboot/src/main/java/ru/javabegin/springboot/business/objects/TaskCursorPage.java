@@ -0,0 +1,20 @@
+package ru.javabegin.springboot.business.objects;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+// POJO класс для передачи клиенту страницы задач при постраничном выводе через курсор (в формате JSON)
+@Getter
+@Setter
+@AllArgsConstructor
+public class TaskCursorPage {
+
+    private List<TaskView> content; // задачи текущей страницы
+    private int size; // размер страницы, который запрашивал клиент
+    private boolean hasNext; // есть ли следующая страница
+    private String nextCursor; // значение для поля cursor при запросе следующей страницы (null, если это последняя страница)
+
+}
@@ -0,0 +1,76 @@
+package ru.javabegin.springboot.business.objects;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import ru.javabegin.springboot.business.entity.Task;
+
+import java.util.Date;
+
+/*
+
+Задача для показа в списке (поиск, все задачи пользователя) - только нужные клиенту поля.
+
+Объект Task содержит 3 ссылки @ManyToOne (priority, category, user), которые загружаются сразу (EAGER).
+При выводе списка задач это означает доп. запросы для каждого приоритета/категории/пользователя, а в JSON каждой задачи попадает весь объект User.
+
+TaskView заполняется напрямую из запроса (select new ...) - одним запросом с join на приоритет и категорию,
+без загрузки сущностей в persistence context.
+
+*/
+
+@Getter
+@Setter
+public class TaskView {
+
+    private Long id;
+    private String title;
+    private Integer completed; // 1 = true, 0 = false
+    private Date taskDate;
+    private PriorityView priority; // null - если приоритет не указан
+    private CategoryView category; // null - если категория не указана
+
+    // конструктор используется в запросе (порядок параметров важен)
+    public TaskView(Long id, String title, Integer completed, Date taskDate,
+                    Long priorityId, String priorityTitle, String priorityColor,
+                    Long categoryId, String categoryTitle) {
+        this.id = id;
+        this.title = title;
+        this.completed = completed;
+        this.taskDate = taskDate;
+        this.priority = priorityId != null ? new PriorityView(priorityId, priorityTitle, priorityColor) : null;
+        this.category = categoryId != null ? new CategoryView(categoryId, categoryTitle) : null;
+    }
+
+
+    // из загруженной задачи (например, при выгрузке всех задач)
+    public TaskView(Task task) {
+        this(task.getId(), task.getTitle(), task.getCompleted(), task.getTaskDate(),
+                task.getPriority() != null ? task.getPriority().getId() : null,
+                task.getPriority() != null ? task.getPriority().getTitle() : null,
+                task.getPriority() != null ? task.getPriority().getColor() : null,
+                task.getCategory() != null ? task.getCategory().getId() : null,
+                task.getCategory() != null ? task.getCategory().getTitle() : null);
+    }
+
+
+    // только те поля приоритета, которые нужны для показа задачи
+    @Getter
+    @Setter
+    @AllArgsConstructor
+    public static class PriorityView {
+        private Long id;
+        private String title;
+        private String color;
+    }
+
+    // только те поля категории, которые нужны для показа задачи
+    @Getter
+    @Setter
+    @AllArgsConstructor
+    public static class CategoryView {
+        private Long id;
+        private String title;
+    }
+
+}
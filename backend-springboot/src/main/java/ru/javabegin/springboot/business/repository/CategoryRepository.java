@@ -1,11 +1,13 @@
 package ru.javabegin.springboot.business.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.javabegin.springboot.business.entity.Category;
 
+import java.util.Collection;
 import java.util.List;
 
 // реализует все необходимые запросы в БД
@@ -27,12 +29,42 @@ public interface CategoryRepository extends JpaRepository<Category, Long> {
             "(:title is null or :title='' " + // если передадим параметр title пустым, то выберутся все записи (сработает именно это условие)
             " or  lower(c.title) like lower(concat('%', :title, '%'))) " + // если параметр title не пустой, то выполниться уже это условие
 
-            " and c.user.email=:email " + // фильтрация для конкретного пользователя
+            " and c.user.id=:userId " + // фильтрация для конкретного пользователя (по внешнему ключу user_id - без join на таблицу пользователей)
 
             "order by c.title asc") // сортировка по названию
-    List<Category> findByTitle(@Param("title") String title, @Param("email") String email);
+    List<Category> findByTitle(@Param("title") String title, @Param("userId") Long userId);
 
-    // поиск категорий пользователя (по email)
-    List<Category> findByUserEmailOrderByTitleAsc(String email);
+    // поиск категорий пользователя (по id пользователя)
+    @Query("select c from Category c where c.user.id=:userId order by c.title asc")
+    List<Category> findAllByUser(@Param("userId") Long userId);
+
+    // поиск категорий по id (id заранее найдены по названию в TrigramIndex)
+    List<Category> findByIdInOrderByTitleAsc(Collection<Long> ids);
+
+    // id и названия всех категорий пользователя - для построения индекса TrigramIndex
+    @Query("select c.id, c.title from Category c where c.user.id=:userId")
+    List<Object[]> findTitles(@Param("userId") Long userId);
+
+    // принадлежит ли категория пользователю
+    boolean existsByIdAndUserId(Long id, Long userId);
+
+    // какие из категорий ids принадлежат пользователю (проверка категорий в пакетном изменении задач - одним запросом)
+    @Query("select c.id from Category c where c.id in :ids and c.user.id = :userId")
+    List<Long> findOwnIds(@Param("ids") Collection<Long> ids, @Param("userId") Long userId);
+
+    // добавить накопленные изменения счетчиков задач категории (см. TaskCounters) - вызывается внутри транзакции сохранения счетчиков
+    @Modifying // если запрос изменяет данные - желательно добавлять эту аннотацию
+    @Query("UPDATE Category c SET c.completedCount = coalesce(c.completedCount, 0) + :completed, " +
+            "c.uncompletedCount = coalesce(c.uncompletedCount, 0) + :uncompleted WHERE c.id = :id")
+    int addCounts(@Param("id") Long id, @Param("completed") long completed, @Param("uncompleted") long uncompleted);
+
+    // текущие значения счетчиков категорий пользователей (для сверки): id категории, id пользователя, completedCount, uncompletedCount
+    @Query("select c.id, c.user.id, c.completedCount, c.uncompletedCount from Category c where c.user.id in :userIds")
+    List<Object[]> findCounts(@Param("userIds") Collection<Long> userIds);
+
+    // исправить счетчики категории (сверка счетчиков)
+    @Modifying // если запрос изменяет данные - желательно добавлять эту аннотацию
+    @Query("UPDATE Category c SET c.completedCount = :completed, c.uncompletedCount = :uncompleted WHERE c.id = :id")
+    int setCounts(@Param("id") Long id, @Param("completed") long completed, @Param("uncompleted") long uncompleted);
 
 }
@@ -6,6 +6,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.javabegin.springboot.business.entity.Priority;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -17,11 +18,26 @@ public interface PriorityRepository extends JpaRepository<Priority, Long> {
             "(:title is null or :title='' " + // если передадим параметр title пустым, то выберутся все записи (сработает именно это условие)
             " or  lower(c.title) like lower(concat('%', :title, '%'))) " + // если параметр title не пустой, то выполниться уже это условие
 
-            " and c.user.email=:email " + // фильтрация для конкретного пользователя
+            " and c.user.id=:userId " + // фильтрация для конкретного пользователя (по внешнему ключу user_id - без join на таблицу пользователей)
 
             "order by c.title asc") // сортировка по названию
-    List<Priority> find(@Param("title") String title, @Param("email") String email);
+    List<Priority> find(@Param("title") String title, @Param("userId") Long userId);
 
-    // поиск категорий пользователя (по email)
-    List<Priority> findByUserEmailOrderByIdAsc(String email); // сортировка по порядку вставки в таблицу
+    // поиск приоритетов пользователя (по id пользователя)
+    @Query("select p from Priority p where p.user.id=:userId order by p.id asc") // сортировка по порядку вставки в таблицу
+    List<Priority> findAllByUser(@Param("userId") Long userId);
+
+    // поиск приоритетов по id (id заранее найдены по названию в TrigramIndex)
+    List<Priority> findByIdInOrderByTitleAsc(Collection<Long> ids);
+
+    // id и названия всех приоритетов пользователя - для построения индекса TrigramIndex
+    @Query("select p.id, p.title from Priority p where p.user.id=:userId")
+    List<Object[]> findTitles(@Param("userId") Long userId);
+
+    // принадлежит ли приоритет пользователю
+    boolean existsByIdAndUserId(Long id, Long userId);
+
+    // какие из приоритетов ids принадлежат пользователю (проверка приоритетов в пакетном изменении задач - одним запросом)
+    @Query("select p.id from Priority p where p.id in :ids and p.user.id = :userId")
+    List<Long> findOwnIds(@Param("ids") Collection<Long> ids, @Param("userId") Long userId);
 }
@@ -1,11 +1,38 @@
 package ru.javabegin.springboot.business.repository;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.javabegin.springboot.business.entity.Stat;
 
+import java.util.Collection;
+import java.util.List;
+
 // принцип ООП: абстракция-реализация - здесь описываем все доступные способы доступа к данным
 @Repository
 public interface StatRepository extends CrudRepository<Stat, Long> {
-    Stat findByUserEmail(String email); // возвращается только 1 запись (каждый пользователь содержит только 1 запись в таблице Stat)
+    @Query("select s from Stat s where s.user.id=:userId") // по внешнему ключу user_id - без join на таблицу пользователей
+    Stat findByUser(@Param("userId") Long userId); // возвращается только 1 запись (каждый пользователь содержит только 1 запись в таблице Stat)
+
+    // добавить накопленные изменения общих счетчиков задач пользователя (см. TaskCounters) - вызывается внутри транзакции сохранения счетчиков
+    @Modifying // если запрос изменяет данные - желательно добавлять эту аннотацию
+    @Query("UPDATE Stat s SET s.completedTotal = coalesce(s.completedTotal, 0) + :completed, " +
+            "s.uncompletedTotal = coalesce(s.uncompletedTotal, 0) + :uncompleted WHERE s.user.id = :userId")
+    int addTotals(@Param("userId") Long userId, @Param("completed") long completed, @Param("uncompleted") long uncompleted);
+
+    // id пользователей по возрастанию, начиная после afterId (строка Stat есть у каждого пользователя) - для обхода всех пользователей порциями
+    @Query("select s.user.id from Stat s where s.user.id > :afterId order by s.user.id asc")
+    List<Long> findUserIds(@Param("afterId") Long afterId, Pageable pageable);
+
+    // текущие значения счетчиков пользователей (для сверки): id пользователя, completedTotal, uncompletedTotal
+    @Query("select s.user.id, s.completedTotal, s.uncompletedTotal from Stat s where s.user.id in :userIds")
+    List<Object[]> findTotals(@Param("userIds") Collection<Long> userIds);
+
+    // исправить счетчики пользователя (сверка счетчиков)
+    @Modifying // если запрос изменяет данные - желательно добавлять эту аннотацию
+    @Query("UPDATE Stat s SET s.completedTotal = :completed, s.uncompletedTotal = :uncompleted WHERE s.user.id = :userId")
+    int setTotals(@Param("userId") Long userId, @Param("completed") long completed, @Param("uncompleted") long uncompleted);
 }
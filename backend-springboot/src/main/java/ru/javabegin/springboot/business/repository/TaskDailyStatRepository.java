@@ -0,0 +1,36 @@
+package ru.javabegin.springboot.business.repository;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ru.javabegin.springboot.business.entity.TaskDailyStat;
+
+import java.time.LocalDate;
+import java.util.List;
+
+// итоги по задачам за день (см. TaskDailyStat)
+@Repository
+public interface TaskDailyStatRepository extends CrudRepository<TaskDailyStat, Long> {
+
+    // добавить накопленные изменения к строке (user, day, category) - возвращает 0, если строки еще нет (тогда ее нужно создать)
+    @Modifying // если запрос изменяет данные - желательно добавлять эту аннотацию
+    @Query("UPDATE TaskDailyStat s SET s.completed = s.completed + :completed, s.created = s.created + :created " +
+            "WHERE s.userId = :userId and s.day = :day " +
+            "and (s.categoryId = :categoryId or (:categoryId is null and s.categoryId is null))")
+    int addCounts(@Param("userId") Long userId, @Param("day") LocalDate day, @Param("categoryId") Long categoryId,
+                  @Param("completed") long completed, @Param("created") long created);
+
+    // итоги по дням за период (все категории вместе): день, completed, created - только дни, в которые что-то изменилось
+    @Query("select s.day, sum(s.completed), sum(s.created) from TaskDailyStat s " +
+            "where s.userId = :userId and s.day >= :dateFrom and s.day <= :dateTo group by s.day")
+    List<Object[]> sumByDay(@Param("userId") Long userId, @Param("dateFrom") LocalDate dateFrom, @Param("dateTo") LocalDate dateTo);
+
+    // то же для одной категории
+    @Query("select s.day, sum(s.completed), sum(s.created) from TaskDailyStat s " +
+            "where s.userId = :userId and s.categoryId = :categoryId and s.day >= :dateFrom and s.day <= :dateTo group by s.day")
+    List<Object[]> sumByDayAndCategory(@Param("userId") Long userId, @Param("categoryId") Long categoryId,
+                                       @Param("dateFrom") LocalDate dateFrom, @Param("dateTo") LocalDate dateTo);
+
+}
@@ -1,50 +1,70 @@
 package ru.javabegin.springboot.business.repository;
 
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.javabegin.springboot.business.entity.Task;
 
-import java.util.Date;
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 // принцип ООП: абстракция-реализация - здесь описываем все доступные способы доступа к данным
 @Repository
-public interface TaskRepository extends JpaRepository<Task, Long> {
+public interface TaskRepository extends JpaRepository<Task, Long>,
+        JpaSpecificationExecutor<Task>, // поиск по условиям, которые строятся динамически (см. TaskSpecification)
+        TaskRepositoryCustom { // TaskRepositoryCustom - запросы, построенные вручную через Criteria (реализация в TaskRepositoryImpl)
 
-    @Query("SELECT t FROM Task t where " + // получить все задачи из таска
+    int EXPORT_FETCH_SIZE = 500; // размер порции при выгрузке всех задач (streamByUser)
 
-            "(:title is null or :title='' or lower(t.title) like lower(concat('%', :title,'%'))) and" +
+    // задача пользователя по id (по внешнему ключу user_id) - чужая задача не находится
+    Optional<Task> findByIdAndUserId(Long id, Long userId);
 
-            "(:completed is null or t.completed=:completed) and " +  // учитываем, что параметр может быть null или пустым
+    /*
+    То же для изменения и удаления - строки блокируются (select for update) до конца транзакции:
+    по старому состоянию задачи считаются изменения счетчиков (TaskCounters), поэтому две транзакции не должны прочитать одно и то же состояние
+    (как в триггере БД, который видел заблокированную строку OLD). Несколько задач блокируются в порядке id - без взаимных блокировок.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select t from Task t where t.id = :id and t.user.id = :userId")
+    Optional<Task> lockByIdAndUserId(@Param("id") Long id, @Param("userId") Long userId);
 
-            "(:priorityId is null or t.priority.id=:priorityId) and " +
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select t from Task t where t.id in :ids and t.user.id = :userId order by t.id")
+    List<Task> lockAllByIdInAndUserId(@Param("ids") Collection<Long> ids, @Param("userId") Long userId);
 
-            "(:categoryId is null or t.category.id=:categoryId) and " +
+    // id и названия всех задач пользователя - для построения индекса TrigramIndex
+    @Query("select t.id, t.title from Task t where t.user.id=:userId")
+    List<Object[]> findTitles(@Param("userId") Long userId);
 
-            "(" +
-            "(cast(:dateFrom as timestamp) is null or t.taskDate>=:dateFrom) and " +
-            "(cast(:dateTo as timestamp) is null or t.taskDate<=:dateTo)" +
-            ") and " +
+    /*
+    Все задачи пользователя для выгрузки - читаются из БД порциями по мере обхода Stream (а не все сразу).
+    Stream нужно закрыть после использования и обходить внутри транзакции (иначе PostgreSQL вернет сразу все строки).
+    Связи загружаются в том же запросе (join fetch), чтобы не было доп. запросов для каждой задачи.
+     */
+    @QueryHints({
+            @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "" + EXPORT_FETCH_SIZE), // сколько строк получать из БД за один раз
+            @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true") // объекты только для чтения - Hibernate не хранит их копии для проверки изменений
+    })
+    @Query("select t from Task t left join fetch t.priority left join fetch t.category join fetch t.user u where u.id=:userId order by t.title asc, t.id asc")
+    Stream<Task> streamByUser(@Param("userId") Long userId);
 
-            "(t.user.email=:email)" // показывать задачи только определенного пользователя, а не все
-    )
-        // искать по всем переданным параметрам (пустые параметры учитываться не будут)
-    Page<Task> find(@Param("title") String title,
-                    @Param("completed") Integer completed,
-                    @Param("priorityId") Long priorityId,
-                    @Param("categoryId") Long categoryId,
-                    @Param("email") String email,
-                    @Param("dateFrom") Date dateFrom,
-                    @Param("dateTo") Date dateTo,
-                    Pageable pageable // формируем постраничный вывод
-    );
+    // фактическое кол-во задач пользователей по категориям и признаку completed (для сверки счетчиков - TaskCounters.reconcile)
+    // category.id и user.id - по внешним ключам, без join
+    @Query("select t.user.id, t.category.id, t.completed, count(t) from Task t where t.user.id in :userIds group by t.user.id, t.category.id, t.completed")
+    List<Object[]> countByUsers(@Param("userIds") Collection<Long> userIds);
 
-    // поиск всех задач конкретного пользователя
-    List<Task> findByUserEmailOrderByTitleAsc(String email);
+    // названия триггеров таблицы task (PostgreSQL) - счетчики задач считает TaskCounters, старые триггеры должны быть удалены
+    // tgisinternal - служебные триггеры внешних ключей
+    @Query(value = "select t.tgname from pg_trigger t where t.tgrelid = to_regclass('task') and not t.tgisinternal", nativeQuery = true)
+    List<String> findTriggers();
 
 
 }
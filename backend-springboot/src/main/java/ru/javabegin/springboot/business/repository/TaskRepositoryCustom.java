@@ -0,0 +1,45 @@
+package ru.javabegin.springboot.business.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import ru.javabegin.springboot.business.entity.Task;
+import ru.javabegin.springboot.business.objects.TaskView;
+import ru.javabegin.springboot.business.search.TaskCondition;
+import ru.javabegin.springboot.business.search.TaskCursor;
+import ru.javabegin.springboot.business.search.TaskSortColumn;
+
+import java.util.Date;
+import java.util.List;
+
+// запросы для списка задач (возвращают TaskView - только нужные поля, одним запросом) и другие запросы, которые нельзя описать через @Query или название метода - реализация в классе TaskRepositoryImpl (Spring находит ее автоматически по окончанию Impl)
+public interface TaskRepositoryCustom {
+
+    // все задачи по условиям spec (без постраничности)
+    List<TaskView> findViews(Specification<Task> spec, Sort sort);
+
+    // постраничный вывод без запроса COUNT: выбирается pageSize + 1 строк, чтобы узнать, есть ли следующая страница
+    Slice<TaskView> findSlice(Specification<Task> spec, Pageable pageable);
+
+    // постраничный вывод через курсор: возвращает не более limit задач, которые идут строго после cursor (если cursor == null - с начала)
+    List<TaskView> findAfter(Specification<Task> spec,
+                             TaskSortColumn sortColumn,
+                             Sort.Direction direction,
+                             TaskCursor cursor,
+                             int limit
+    );
+
+    // id, id категории, признак completed и completedDate задач по условию where - строки блокируются (select for update) до конца транзакции,
+    // чтобы массовое изменение затронуло именно эти задачи в этом состоянии (по ним считаются изменения счетчиков в TaskCounters)
+    List<Object[]> lockWhere(TaskCondition where);
+
+    // массовые изменения задач по условию where (одним запросом update/delete) - возвращают количество измененных задач
+    // completedDate меняется только у задач, у которых меняется completed: now - если стали выполненными, null - если перестали
+    int updateCompleted(TaskCondition where, Integer completed, Date now);
+
+    int updateCategory(TaskCondition where, Long categoryId);
+
+    int deleteWhere(TaskCondition where);
+
+}
@@ -0,0 +1,251 @@
+package ru.javabegin.springboot.business.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import ru.javabegin.springboot.business.entity.Category;
+import ru.javabegin.springboot.business.entity.Priority;
+import ru.javabegin.springboot.business.entity.Task;
+import ru.javabegin.springboot.business.objects.TaskView;
+import ru.javabegin.springboot.business.search.TaskCondition;
+import ru.javabegin.springboot.business.search.TaskCursor;
+import ru.javabegin.springboot.business.search.TaskSortColumn;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.*;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/*
+
+Реализация TaskRepositoryCustom.
+
+Запросы строим через JPA Criteria: условия поиска приходят в виде Specification (см. TaskSpecification),
+а условие "после курсора" зависит от столбца и направления сортировки.
+
+Запросы выборки возвращают TaskView (а не Task) - только нужные для списка поля задачи, приоритета и категории, одним запросом.
+
+Slice - постраничный вывод без запроса COUNT (в JpaSpecificationExecutor есть только вариант с Page, который всегда считает общее количество).
+
+Вместо OFFSET используем условие (sortColumn, id) > (value, lastId) - БД сразу переходит к нужной строке по индексу,
+и запрос на странице 500 работает так же быстро, как на первой. Запрос COUNT не выполняется.
+
+Учитываем, что столбец сортировки может быть null (taskDate, priority, category).
+Порядок null-значений задаем явно (первым полем сортировки - признак "значение null"): при сортировке по возрастанию они идут в конце, а по убыванию - в начале
+(как по умолчанию в PostgreSQL, но не во всех БД - например, в H2 наоборот). Условие "после курсора" построено для этого же порядка.
+
+Массовые update/delete (TaskCondition) выполняются без загрузки объектов в память.
+Счетчики в Category и Stat меняет приложение (TaskCounters), поэтому перед массовым изменением задачи блокируются (lockWhere) -
+так известно, сколько задач в каких категориях и с каким признаком completed изменится.
+
+*/
+
+public class TaskRepositoryImpl implements TaskRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<TaskView> findViews(Specification<Task> spec, Sort sort) {
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<TaskView> query = cb.createQuery(TaskView.class);
+        Root<Task> root = selectView(cb, query);
+
+        query.where(spec.toPredicate(root, query, cb))
+                .orderBy(QueryUtils.toOrders(sort, root, cb));
+
+        return entityManager.createQuery(query).getResultList();
+    }
+
+
+    @Override
+    public Slice<TaskView> findSlice(Specification<Task> spec, Pageable pageable) {
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<TaskView> query = cb.createQuery(TaskView.class);
+        Root<Task> root = selectView(cb, query);
+
+        query.where(spec.toPredicate(root, query, cb))
+                .orderBy(QueryUtils.toOrders(pageable.getSort(), root, cb));
+
+        List<TaskView> tasks = entityManager.createQuery(query)
+                .setFirstResult((int) pageable.getOffset())
+                .setMaxResults(pageable.getPageSize() + 1) // на 1 строку больше - так узнаем, есть ли следующая страница
+                .getResultList();
+
+        boolean hasNext = tasks.size() > pageable.getPageSize();
+
+        return new SliceImpl<>(hasNext ? tasks.subList(0, pageable.getPageSize()) : tasks, pageable, hasNext);
+    }
+
+
+    @Override
+    public List<TaskView> findAfter(Specification<Task> spec, TaskSortColumn sortColumn, Sort.Direction direction, TaskCursor cursor, int limit) {
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<TaskView> query = cb.createQuery(TaskView.class);
+        Root<Task> root = selectView(cb, query);
+
+        List<Predicate> predicates = new ArrayList<>();
+
+        predicates.add(spec.toPredicate(root, query, cb)); // условия поиска (только те, которые были переданы)
+
+        Expression<?> column = sortColumn.path(root);
+        Path<Long> id = root.get("id");
+        boolean asc = direction.isAscending();
+
+        if (cursor != null) {
+            predicates.add(after(cb, column, id, cursor, asc));
+        }
+
+        // сначала признак null (1 - значение null): по возрастанию null-значения в конце, по убыванию - в начале, независимо от БД (см. after)
+        Expression<Integer> isNull = cb.<Integer>selectCase().when(cb.isNull(column), 1).otherwise(0);
+
+        // последнее поле сортировки id - чтобы порядок строк был строгим (как и в обычном постраничном выводе)
+        query.where(predicates.toArray(new Predicate[0]))
+                .orderBy(asc ? cb.asc(isNull) : cb.desc(isNull), asc ? cb.asc(column) : cb.desc(column), asc ? cb.asc(id) : cb.desc(id));
+
+        return entityManager.createQuery(query)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+
+    @Override
+    public List<Object[]> lockWhere(TaskCondition where) {
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Object[]> query = cb.createQuery(Object[].class);
+        Root<Task> root = query.from(Task.class);
+
+        // category.id - по внешнему ключу category_id, без join (select for update нельзя применить к left join)
+        query.multiselect(root.get("id"), root.get("category").get("id"), root.get("completed"), root.get("completedDate"))
+                .where(where.toPredicate(root, query, cb));
+
+        return entityManager.createQuery(query)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .getResultList();
+    }
+
+
+    @Override
+    public int updateCompleted(TaskCondition where, Integer completed, Date now) {
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaUpdate<Task> update = cb.createCriteriaUpdate(Task.class);
+        Root<Task> root = update.from(Task.class);
+
+        Path<Date> completedDate = root.get("completedDate");
+        boolean done = completed != null && completed == 1;
+
+        // задача уже выполнена (или уже не выполнена) - дата выполнения не меняется
+        Predicate unchanged = done
+                ? cb.equal(root.get("completed"), 1)
+                : cb.or(cb.isNull(root.get("completed")), cb.notEqual(root.get("completed"), 1));
+
+        update.set(completedDate, cb.<Date>selectCase()
+                        .when(unchanged, completedDate)
+                        .otherwise(done ? cb.literal(now) : cb.nullLiteral(Date.class)))
+                .set(root.<Integer>get("completed"), completed)
+                .where(where.toPredicate(root, update, cb));
+
+        return entityManager.createQuery(update).executeUpdate();
+    }
+
+
+    @Override
+    public int updateCategory(TaskCondition where, Long categoryId) {
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaUpdate<Task> update = cb.createCriteriaUpdate(Task.class);
+        Root<Task> root = update.from(Task.class);
+
+        Path<Category> category = root.get("category");
+
+        if (categoryId != null) {
+            update.set(category, entityManager.getReference(Category.class, categoryId)); // getReference - без запроса в БД
+        } else {
+            update.set(category, cb.nullLiteral(Category.class)); // задачи без категории
+        }
+
+        update.where(where.toPredicate(root, update, cb));
+
+        return entityManager.createQuery(update).executeUpdate();
+    }
+
+
+    @Override
+    public int deleteWhere(TaskCondition where) {
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaDelete<Task> delete = cb.createCriteriaDelete(Task.class);
+        Root<Task> root = delete.from(Task.class);
+
+        delete.where(where.toPredicate(root, delete, cb));
+
+        return entityManager.createQuery(delete).executeUpdate();
+    }
+
+
+    // select new TaskView(...) - поля задачи + поля приоритета и категории (одним запросом через left join, без загрузки сущностей)
+    private Root<Task> selectView(CriteriaBuilder cb, CriteriaQuery<TaskView> query) {
+
+        Root<Task> root = query.from(Task.class);
+
+        Join<Task, Priority> priority = root.join("priority", JoinType.LEFT); // задача может быть без приоритета
+        Join<Task, Category> category = root.join("category", JoinType.LEFT); // задача может быть без категории
+
+        query.select(cb.construct(TaskView.class,
+                root.get("id"), root.get("title"), root.get("completed"), root.get("taskDate"),
+                priority.get("id"), priority.get("title"), priority.get("color"),
+                category.get("id"), category.get("title")));
+
+        return root;
+    }
+
+
+    // условие "строка идет после курсора" с учетом направления сортировки и null-значений (порядок null задан в findAfter)
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Predicate after(CriteriaBuilder cb, Expression column, Path<Long> id, TaskCursor cursor, boolean asc) {
+
+        Comparable value = (Comparable) cursor.getValue();
+        Long lastId = cursor.getId();
+
+        if (asc) {
+
+            // null-значения идут в конце: после строки с null могут идти только строки с null и большим id
+            if (value == null) {
+                return cb.and(cb.isNull(column), cb.greaterThan(id, lastId));
+            }
+
+            return cb.or(
+                    cb.greaterThan(column, value),
+                    cb.and(cb.equal(column, value), cb.greaterThan(id, lastId)),
+                    cb.isNull(column)
+            );
+
+        } else {
+
+            // null-значения идут в начале: после них идут оставшиеся null с меньшим id и все непустые значения
+            if (value == null) {
+                return cb.or(
+                        cb.and(cb.isNull(column), cb.lessThan(id, lastId)),
+                        cb.isNotNull(column)
+                );
+            }
+
+            return cb.or(
+                    cb.lessThan(column, value),
+                    cb.and(cb.equal(column, value), cb.lessThan(id, lastId))
+            );
+        }
+    }
+
+}
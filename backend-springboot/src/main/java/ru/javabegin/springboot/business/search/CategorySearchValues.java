@@ -14,7 +14,7 @@ import lombok.Setter;
 public class CategorySearchValues {
 
     private String title; // такое же значение должно быть у объекта на frontend
-    private String email; // для фильтрации значений конкретного пользователя
+    private String email; // не обязательно (не используется) - пользователь определяется по jwt
 
 
 }
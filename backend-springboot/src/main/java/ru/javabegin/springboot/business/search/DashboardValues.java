@@ -0,0 +1,23 @@
+package ru.javabegin.springboot.business.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+// параметры первой страницы задач для /dashboard (все поля не обязательны - как в TaskSearchValues)
+public class DashboardValues {
+
+    private Integer pageSize;
+
+    // сортировка
+    private String sortColumn;
+    private String sortDirection;
+
+    // такие же названия должны быть у объекта на frontend
+
+}
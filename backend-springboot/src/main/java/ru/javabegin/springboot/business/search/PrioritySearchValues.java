@@ -14,7 +14,7 @@ import lombok.Setter;
 public class PrioritySearchValues {
 
     private String title; // такое же название должно быть у объекта на frontend
-    private String email; // для фильтрации значений конкретного пользователя
+    private String email; // не обязательно (не используется) - пользователь определяется по jwt
 
     // можно добавлять любые поля, по которых хотите искать
 
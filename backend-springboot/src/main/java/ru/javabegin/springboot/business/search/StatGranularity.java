@@ -0,0 +1,42 @@
+package ru.javabegin.springboot.business.search;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.function.UnaryOperator;
+
+// на какие периоды разбивать историю выполнения задач (/stat/history) - значение приходит с frontend в granularity
+public enum StatGranularity {
+
+    DAY("day", day -> day, start -> start.plusDays(1)),
+    WEEK("week", day -> day.with(DayOfWeek.MONDAY), start -> start.plusWeeks(1)), // неделя начинается с понедельника
+    MONTH("month", day -> day.withDayOfMonth(1), start -> start.plusMonths(1));
+
+    private final String name;
+    private final UnaryOperator<LocalDate> start; // первый день периода, в который попадает день
+    private final UnaryOperator<LocalDate> next; // первый день следующего периода
+
+    StatGranularity(String name, UnaryOperator<LocalDate> start, UnaryOperator<LocalDate> next) {
+        this.name = name;
+        this.start = start;
+        this.next = next;
+    }
+
+    public LocalDate start(LocalDate day) {
+        return start.apply(day);
+    }
+
+    public LocalDate next(LocalDate start) {
+        return next.apply(start);
+    }
+
+    // поиск по названию (null, если такого нет)
+    public static StatGranularity of(String name) {
+        for (StatGranularity granularity : values()) {
+            if (granularity.name.equalsIgnoreCase(name)) {
+                return granularity;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,23 @@
+package ru.javabegin.springboot.business.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.Date;
+
+@NoArgsConstructor
+@Getter
+@Setter
+@AllArgsConstructor
+
+// параметры истории выполнения задач (/stat/history)
+public class StatHistoryValues {
+
+    private Date dateFrom; // обязательно (учитывается только дата, без времени)
+    private Date dateTo; // обязательно
+    private String granularity; // day, week или month (по-умолчанию day)
+    private Long categoryId; // не обязательно - если не указано, то по всем категориям
+
+}
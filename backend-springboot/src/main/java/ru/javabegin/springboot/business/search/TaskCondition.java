@@ -0,0 +1,16 @@
+package ru.javabegin.springboot.business.search;
+
+import ru.javabegin.springboot.business.entity.Task;
+
+import javax.persistence.criteria.CommonAbstractCriteria;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+// условие для массовых update/delete запросов (аналог Specification, который можно использовать только в select)
+@FunctionalInterface
+public interface TaskCondition {
+
+    Predicate toPredicate(Root<Task> root, CommonAbstractCriteria query, CriteriaBuilder cb);
+
+}
@@ -0,0 +1,78 @@
+package ru.javabegin.springboot.business.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.data.domain.Sort;
+import ru.javabegin.springboot.business.objects.TaskView;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/*
+
+Курсор для постраничного вывода задач без OFFSET (keyset/seek pagination).
+
+Хранит значения последней показанной строки: значение столбца сортировки и id.
+Следующая страница начинается строго после этой пары: (sortColumn, id) > (value, lastId) - для сортировки по возрастанию
+(или < - для сортировки по убыванию).
+
+Для клиента курсор - просто непрозрачная строка (Base64), которую он получает вместе со страницей и передает обратно, чтобы получить следующую.
+Внутрь также записываем столбец и направление сортировки - если клиент поменял сортировку, старый курсор использовать нельзя.
+
+*/
+
+@Getter
+@AllArgsConstructor
+public class TaskCursor {
+
+    private static final String SEPARATOR = "|";
+    private static final String NULL_VALUE = "n"; // значение столбца null
+    private static final String NOT_NULL_PREFIX = "v"; // перед непустым значением (чтобы отличать пустую строку от null)
+
+    private final TaskSortColumn sortColumn;
+    private final Sort.Direction direction;
+    private final Object value; // значение столбца сортировки у последней строки (может быть null)
+    private final Long id; // id последней строки
+
+    // курсор, указывающий на задачу task (последнюю на странице)
+    public static TaskCursor of(TaskView task, TaskSortColumn sortColumn, Sort.Direction direction) {
+        return new TaskCursor(sortColumn, direction, sortColumn.valueOf(task), task.getId());
+    }
+
+    public String encode() {
+        String raw = sortColumn.name() + SEPARATOR + direction.name() + SEPARATOR + id + SEPARATOR +
+                (value == null ? NULL_VALUE : NOT_NULL_PREFIX + sortColumn.format(value)); // значение пишем последним, т.к. в нем может быть разделитель
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // если строку курсора не удалось разобрать - выбрасываем IllegalArgumentException
+    public static TaskCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+
+            String[] parts = raw.split("\\" + SEPARATOR, 4);
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("invalid cursor: " + cursor);
+            }
+
+            TaskSortColumn sortColumn = TaskSortColumn.valueOf(parts[0]);
+            Sort.Direction direction = Sort.Direction.valueOf(parts[1]);
+            Long id = Long.valueOf(parts[2]);
+
+            Object value = null;
+            if (!parts[3].equals(NULL_VALUE)) {
+                if (!parts[3].startsWith(NOT_NULL_PREFIX)) { // например, пустое значение - такой курсор encode не создает
+                    throw new IllegalArgumentException("invalid cursor: " + cursor);
+                }
+                value = sortColumn.parse(parts[3].substring(NOT_NULL_PREFIX.length()));
+            }
+
+            return new TaskCursor(sortColumn, direction, value, id);
+
+        } catch (IllegalArgumentException e) { // сюда же попадает NumberFormatException
+            throw new IllegalArgumentException("invalid cursor: " + cursor, e);
+        }
+    }
+
+}
@@ -19,7 +19,7 @@ public class TaskSearchValues {
     private Integer completed;
     private Long priorityId;
     private Long categoryId;
-    private String email;
+    private String email; // не обязательно (не используется) - пользователь определяется по jwt
     private Date dateFrom;
     private Date dateTo;
 
@@ -31,6 +31,13 @@ public class TaskSearchValues {
     private String sortColumn;
     private String sortDirection;
 
+    // постраничность через курсор (вместо pageNumber): пустая строка - первая страница, иначе - значение nextCursor из предыдущего ответа
+    // если cursor == null - используется обычная постраничность по pageNumber (для старых клиентов)
+    private String cursor;
+
+    // true - не считать общее количество задач (без запроса COUNT), в ответе будет только признак последней страницы (Slice)
+    private Boolean slice;
+
     // такие же названия должны быть у объекта на frontend
 
 }
@@ -0,0 +1,77 @@
+package ru.javabegin.springboot.business.search;
+
+import ru.javabegin.springboot.business.entity.Task;
+import ru.javabegin.springboot.business.objects.TaskView;
+
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Root;
+import java.util.Date;
+import java.util.function.Function;
+
+/*
+
+Столбцы, по которым можно сортировать задачи при постраничном выводе через курсор (keyset pagination).
+
+Для каждого столбца знаем:
+- название поля в Task (такое же значение приходит с frontend в sortColumn)
+- как получить значение из объекта TaskView (чтобы записать его в курсор)
+- как восстановить значение из строки курсора (тип должен совпадать с типом поля, иначе Hibernate не сможет подставить параметр)
+- путь к полю в Criteria запросе
+
+Для priority и category сортировка идет по id (значение внешнего ключа), так же как это делает Hibernate при Sort.by("priority")
+
+*/
+
+public enum TaskSortColumn {
+
+    ID("id", TaskView::getId, Long::valueOf, root -> root.get("id")),
+    TITLE("title", TaskView::getTitle, s -> s, root -> root.get("title")),
+    COMPLETED("completed", TaskView::getCompleted, Integer::valueOf, root -> root.get("completed")),
+    TASK_DATE("taskDate", TaskView::getTaskDate, s -> new Date(Long.parseLong(s)), root -> root.get("taskDate")),
+    PRIORITY("priority", t -> t.getPriority() != null ? t.getPriority().getId() : null, Long::valueOf, root -> root.get("priority").get("id")),
+    CATEGORY("category", t -> t.getCategory() != null ? t.getCategory().getId() : null, Long::valueOf, root -> root.get("category").get("id"));
+
+    private final String property; // название поля в Task
+    private final Function<TaskView, Object> getter; // значение поля из объекта
+    private final Function<String, Object> parser; // значение поля из строки курсора
+    private final Function<Root<Task>, Expression<?>> path; // путь к полю в Criteria запросе
+
+    TaskSortColumn(String property, Function<TaskView, Object> getter, Function<String, Object> parser, Function<Root<Task>, Expression<?>> path) {
+        this.property = property;
+        this.getter = getter;
+        this.parser = parser;
+        this.path = path;
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public Object valueOf(TaskView task) {
+        return getter.apply(task);
+    }
+
+    public Expression<?> path(Root<Task> root) {
+        return path.apply(root);
+    }
+
+    // значение в виде строки для курсора (дату храним в мс)
+    public String format(Object value) {
+        return value instanceof Date ? String.valueOf(((Date) value).getTime()) : value.toString();
+    }
+
+    public Object parse(String value) {
+        return parser.apply(value);
+    }
+
+    // поиск столбца по названию поля (null, если по такому полю сортировать через курсор нельзя)
+    public static TaskSortColumn of(String property) {
+        for (TaskSortColumn column : values()) {
+            if (column.property.equals(property)) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+}
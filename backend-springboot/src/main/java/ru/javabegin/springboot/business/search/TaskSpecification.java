@@ -0,0 +1,88 @@
+package ru.javabegin.springboot.business.search;
+
+import org.springframework.data.jpa.domain.Specification;
+import ru.javabegin.springboot.business.entity.Task;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/*
+
+Условия поиска задач (JPA Criteria / Spring Data Specification).
+
+Раньше использовался один общий JPQL запрос вида (:param is null or column = :param) для всех фильтров.
+БД вынуждена строить один общий план для любого набора фильтров и не может выбрать подходящий индекс (например, (user, category) или (user, task_date)),
+а для дат еще и требовалось cast(:dateFrom as timestamp).
+
+Здесь в запрос попадают только те условия, которые действительно переданы - для каждого набора фильтров БД строит свой план.
+Набор возможных вариантов запроса ограничен (каждый фильтр либо есть, либо нет), поэтому подготовленные запросы хорошо кешируются.
+
+*/
+
+public class TaskSpecification {
+
+    private TaskSpecification() {
+    }
+
+    /*
+    Все условия поиска задач пользователя userId (пустые параметры не учитываются).
+    ids - если не null, то вместо поиска по title выбираются только задачи с этими id (заранее найдены по названию в TrigramIndex)
+     */
+    public static Specification<Task> filter(String title, Collection<Long> ids, Integer completed, Long priorityId, Long categoryId,
+                                             Long userId, Date dateFrom, Date dateTo) {
+
+        return (root, query, cb) -> predicate(root, cb, title, ids, completed, priorityId, categoryId, userId, dateFrom, dateTo);
+    }
+
+    // те же условия для массовых update/delete (TaskCondition вместо Specification - Specification работает только с select запросами)
+    public static TaskCondition bulkFilter(String title, Collection<Long> ids, Integer completed, Long priorityId, Long categoryId,
+                                           Long userId, Date dateFrom, Date dateTo) {
+
+        return (root, query, cb) -> predicate(root, cb, title, ids, completed, priorityId, categoryId, userId, dateFrom, dateTo);
+    }
+
+
+    private static Predicate predicate(Root<Task> root, CriteriaBuilder cb, String title, Collection<Long> ids, Integer completed,
+                                       Long priorityId, Long categoryId, Long userId, Date dateFrom, Date dateTo) {
+
+        List<Predicate> predicates = new ArrayList<>();
+
+        if (ids != null) {
+            predicates.add(root.get("id").in(ids));
+        } else if (title != null && !title.isEmpty()) {
+            predicates.add(cb.like(cb.lower(root.get("title")), "%" + title.toLowerCase() + "%"));
+        }
+
+        if (completed != null) {
+            predicates.add(cb.equal(root.get("completed"), completed));
+        }
+
+        if (priorityId != null) {
+            predicates.add(cb.equal(root.get("priority").get("id"), priorityId));
+        }
+
+        if (categoryId != null) {
+            predicates.add(cb.equal(root.get("category").get("id"), categoryId));
+        }
+
+        if (dateFrom != null) {
+            predicates.add(cb.greaterThanOrEqualTo(root.get("taskDate"), dateFrom));
+        }
+
+        if (dateTo != null) {
+            predicates.add(cb.lessThanOrEqualTo(root.get("taskDate"), dateTo));
+        }
+
+        // показывать задачи только определенного пользователя, а не все
+        // условие по внешнему ключу user_id - без join на таблицу пользователей (в update/delete join и нельзя использовать)
+        predicates.add(cb.equal(root.get("user").get("id"), userId));
+
+        return cb.and(predicates.toArray(new Predicate[0]));
+    }
+
+}
@@ -0,0 +1,21 @@
+package ru.javabegin.springboot.business.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+// параметры массовой операции над задачами (/complete-where, /move-where, /delete-where)
+public class TaskWhereValues {
+
+    // какие задачи изменять - те же фильтры, что и в поиске (значения постраничности, сортировки и email не учитываются - пользователь берется из jwt)
+    private TaskSearchValues filter;
+
+    private Integer completed; // новое значение completed (для /complete-where)
+    private Long categoryId; // в какую категорию перенести задачи (для /move-where)
+
+}
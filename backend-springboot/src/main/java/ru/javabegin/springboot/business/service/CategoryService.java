@@ -2,12 +2,19 @@ package ru.javabegin.springboot.business.service;
 
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.stereotype.Service;
+import ru.javabegin.springboot.business.cache.TaskCountCache;
+import ru.javabegin.springboot.business.cache.TaskCounters;
+import ru.javabegin.springboot.business.cache.TaskReadCache;
 import ru.javabegin.springboot.business.entity.Category;
+import ru.javabegin.springboot.business.index.TrigramIndex;
 import ru.javabegin.springboot.business.repository.CategoryRepository;
 
 import javax.transaction.Transactional;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 // всегда нужно создавать отдельный класс Service для доступа к данным, даже если кажется,
 // что мало методов или это все можно реализовать сразу в контроллере
@@ -18,33 +25,62 @@ import java.util.List;
 public class CategoryService {
 
     private CategoryRepository categoryRepository;
+    private TrigramIndex titleIndex; // индекс для поиска по названию (в памяти)
+    private TaskReadCache taskReadCache; // в результатах поиска задач есть названия приоритетов и категорий
+    private TaskCountCache taskCountCache; // количество задач по фильтрам (в т.ч. по категории)
+    private TaskCounters taskCounters; // еще не сохраненные в БД изменения счетчиков задач в категориях
 
     @Autowired // добавляем возле конструктора - тогда во все внутренние параметры будут подставлены конкретные объекты
-    public CategoryService(CategoryRepository categoryRepository) {
+    public CategoryService(CategoryRepository categoryRepository, TaskReadCache taskReadCache, TaskCountCache taskCountCache, TaskCounters taskCounters) {
         this.categoryRepository = categoryRepository;
+        this.taskReadCache = taskReadCache;
+        this.taskCountCache = taskCountCache;
+        this.taskCounters = taskCounters;
+        this.titleIndex = new TrigramIndex(categoryRepository::findTitles);
     }
 
     // findAll метод без параметра - не имеет по задаче, поэтому его здесь нет
-    public List<Category> findAll(String email){
-        return categoryRepository.findByUserEmailOrderByTitleAsc(email);
+    public List<Category> findAll(Long userId){
+        return taskCounters.readCategories(userId, () -> categoryRepository.findAllByUser(userId));
     }
 
     public Category add(Category category) {
-        return categoryRepository.save(category); // метод save обновляет или создает новый объект, если его не было
+        Category saved = categoryRepository.save(category); // метод save обновляет или создает новый объект, если его не было
+        titleIndex.put(ownerId(category), saved.getId(), saved.getTitle());
+        return saved;
     }
 
     public Category update(Category category) {
-        return categoryRepository.save(category); // метод save обновляет или создает новый объект, если его не было
+        taskReadCache.invalidate(ownerId(category)); // в задачах пользователя изменится категория
+        Category saved = categoryRepository.save(category); // метод save обновляет или создает новый объект, если его не было
+        titleIndex.put(ownerId(category), saved.getId(), saved.getTitle());
+        return saved;
     }
 
     // удаляем 1 объект по id
     public void delete(Long id) {
-        categoryRepository.deleteById(id); // удаляем 1 объект по id
+        // сначала получаем объект, чтобы знать, чей индекс изменять (deleteById внутри тоже сначала выполняет поиск по id)
+        Category category = categoryRepository.findById(id).orElseThrow(() -> new EmptyResultDataAccessException("Category with id " + id + " not found", 1));
+        titleIndex.remove(ownerId(category), id);
+        taskReadCache.invalidate(ownerId(category));
+        taskCountCache.invalidate(ownerId(category)); // у задач категории category_id станет null - изменится количество по фильтрам категории
+        categoryRepository.delete(category); // удаляем 1 объект по id
     }
 
     // поиск категорий пользователя по названию
-    public List<Category> find(String title, String email) {
-        return categoryRepository.findByTitle(title, email);
+    public List<Category> find(String title, Long userId) {
+        return taskCounters.readCategories(userId, () -> findByTitle(title, userId));
+    }
+
+    private List<Category> findByTitle(String title, Long userId) {
+
+        Set<Long> ids = titleIndex.find(userId, title); // null - если поиск по названию нужно выполнять в БД
+
+        if (ids != null) {
+            return ids.isEmpty() ? Collections.emptyList() : categoryRepository.findByIdInOrderByTitleAsc(ids);
+        }
+
+        return categoryRepository.findByTitle(title, userId);
     }
 
     // находим 1 объект по id
@@ -52,4 +88,9 @@ public class CategoryService {
         return categoryRepository.findById(id).get(); // т.к. возвращается Optional - можно получить объект методом get()
     }
 
+    // id пользователя, которому принадлежит категория (null - если клиент не передал его вместе с категорией)
+    private Long ownerId(Category category) {
+        return category.getUser() != null ? category.getUser().getId() : null;
+    }
+
 }
@@ -0,0 +1,137 @@
+package ru.javabegin.springboot.business.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+import ru.javabegin.springboot.business.entity.Category;
+import ru.javabegin.springboot.business.entity.Priority;
+import ru.javabegin.springboot.business.entity.Stat;
+import ru.javabegin.springboot.business.objects.Dashboard;
+import ru.javabegin.springboot.business.objects.TaskCursorPage;
+import ru.javabegin.springboot.business.objects.TaskView;
+import ru.javabegin.springboot.business.search.TaskCursor;
+import ru.javabegin.springboot.business.search.TaskSortColumn;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+
+Данные для начальной загрузки страницы (/dashboard): категории, приоритеты, статистика и первая страница задач - за один HTTP запрос
+(раньше клиент отправлял 4 запроса, и для каждого отдельно проверялся jwt).
+
+Части загружаются одновременно через те же методы сервисов, что и отдельные запросы (те же кеши и те же значения в ответе):
+- категории, приоритеты и задачи - в пуле потоков (каждая часть в своей транзакции - запросы в БД выполняются параллельно)
+- статистика - в потоке запроса (обычно без запроса в БД - см. StatCache), пока остальные части выполняются в пуле
+
+Пул ограничен: если все потоки заняты и очередь заполнена - часть выполняется в потоке запроса (как раньше - последовательно),
+поэтому под нагрузкой одновременно к БД обращается не больше threads потоков пула + потоки запросов.
+
+Методы сервисов получают id пользователя параметром, поэтому потокам пула не нужен SecurityContext.
+
+Класс без @Transactional: поток запроса не держит соединение с БД, пока ждет результаты из пула.
+
+*/
+
+@Service
+@ManagedResource(objectName = "ru.javabegin.springboot:type=Service,name=DashboardService")
+public class DashboardService {
+
+    private final CategoryService categoryService;
+    private final PriorityService priorityService;
+    private final StatService statService;
+    private final TaskService taskService;
+
+    private final ThreadPoolExecutor executor;
+
+
+    public DashboardService(CategoryService categoryService, PriorityService priorityService, StatService statService, TaskService taskService,
+                            @Value("${dashboard.threads:8}") int threads,
+                            @Value("${dashboard.queue-size:64}") int queueSize) {
+        this.categoryService = categoryService;
+        this.priorityService = priorityService;
+        this.statService = statService;
+        this.taskService = taskService;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "dashboard-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy()); // пул занят - выполняем в потоке запроса
+    }
+
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+
+    // все данные начальной загрузки для пользователя userId (первая страница задач - без фильтров, pageSize задач)
+    public Dashboard load(Long userId, TaskSortColumn sortColumn, Sort.Direction direction, int pageSize) {
+
+        CompletableFuture<List<Category>> categories = CompletableFuture.supplyAsync(() -> categoryService.findAll(userId), executor);
+        CompletableFuture<List<Priority>> priorities = CompletableFuture.supplyAsync(() -> priorityService.findAll(userId), executor);
+        CompletableFuture<TaskCursorPage> tasks = CompletableFuture.supplyAsync(() -> firstPage(userId, sortColumn, direction, pageSize), executor);
+
+        try {
+            Stat stat = statService.findStat(userId);
+
+            return new Dashboard(await(categories), await(priorities), stat, await(tasks));
+        } catch (RuntimeException e) { // ответ уже не нужен - не выполняем части, которые еще ждут в очереди
+            categories.cancel(false);
+            priorities.cancel(false);
+            tasks.cancel(false);
+            throw e;
+        }
+    }
+
+
+    @ManagedAttribute
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+
+    @ManagedAttribute
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+
+    // первая страница задач - так же, как /task/search с пустым cursor (запрашиваем на 1 задачу больше, чтобы узнать, есть ли следующая страница)
+    private TaskCursorPage firstPage(Long userId, TaskSortColumn sortColumn, Sort.Direction direction, int pageSize) {
+        List<TaskView> tasks = taskService.findAfter(null, null, null, null, userId, null, null, sortColumn, direction, null, pageSize + 1);
+
+        boolean hasNext = tasks.size() > pageSize;
+
+        if (hasNext) {
+            tasks = tasks.subList(0, pageSize);
+        }
+
+        String nextCursor = hasNext ? TaskCursor.of(tasks.get(tasks.size() - 1), sortColumn, direction).encode() : null;
+
+        return new TaskCursorPage(tasks, pageSize, hasNext, nextCursor);
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) { // ошибка в потоке пула - такая же ошибка, как при вызове сервиса напрямую
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+}
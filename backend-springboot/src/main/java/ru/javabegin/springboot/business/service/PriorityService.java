@@ -1,11 +1,16 @@
 package ru.javabegin.springboot.business.service;
 
+import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.stereotype.Service;
+import ru.javabegin.springboot.business.cache.TaskReadCache;
 import ru.javabegin.springboot.business.entity.Priority;
+import ru.javabegin.springboot.business.index.TrigramIndex;
 import ru.javabegin.springboot.business.repository.PriorityRepository;
 
 import javax.transaction.Transactional;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 // всегда нужно создавать отдельный класс Service для доступа к данным, даже если кажется,
 // что мало методов или это все можно реализовать сразу в контроллере
@@ -18,32 +23,57 @@ import java.util.List;
 public class PriorityService {
 
     private final PriorityRepository repository; // сервис имеет право обращаться к репозиторию (БД)
+    private final TrigramIndex titleIndex; // индекс для поиска по названию (в памяти)
+    private final TaskReadCache taskReadCache; // в результатах поиска задач есть названия приоритетов и категорий
 
-    public PriorityService(PriorityRepository repository) {
+    public PriorityService(PriorityRepository repository, TaskReadCache taskReadCache) {
         this.repository = repository;
+        this.taskReadCache = taskReadCache;
+        this.titleIndex = new TrigramIndex(repository::findTitles);
     }
 
-    public List<Priority> findAll(String email){
-        return repository.findByUserEmailOrderByIdAsc(email);
+    public List<Priority> findAll(Long userId){
+        return repository.findAllByUser(userId);
     }
 
     public Priority add(Priority priority) {
-        return repository.save(priority); // метод save обновляет или создает новый объект, если его не было
+        Priority saved = repository.save(priority); // метод save обновляет или создает новый объект, если его не было
+        titleIndex.put(ownerId(priority), saved.getId(), saved.getTitle());
+        return saved;
     }
 
     public Priority update(Priority priority) {
-        return repository.save(priority); // метод save обновляет или создает новый объект, если его не было
+        taskReadCache.invalidate(ownerId(priority)); // в задачах пользователя изменится приоритет
+        Priority saved = repository.save(priority); // метод save обновляет или создает новый объект, если его не было
+        titleIndex.put(ownerId(priority), saved.getId(), saved.getTitle());
+        return saved;
     }
 
     public void deleteById(Long id) {
-        repository.deleteById(id); // удаляем 1 объект по id
+        // сначала получаем объект, чтобы знать, чей индекс изменять (deleteById внутри тоже сначала выполняет поиск по id)
+        Priority priority = repository.findById(id).orElseThrow(() -> new EmptyResultDataAccessException("Priority with id " + id + " not found", 1));
+        titleIndex.remove(ownerId(priority), id);
+        taskReadCache.invalidate(ownerId(priority));
+        repository.delete(priority); // удаляем 1 объект по id
     }
 
     public Priority findById(Long id) {
         return repository.findById(id).get(); // т.к. возвращается Optional - можно получить объект методом get()
     }
 
-    public List<Priority> find(String title, String email) {
-        return repository.find(title, email);
+    public List<Priority> find(String title, Long userId) {
+
+        Set<Long> ids = titleIndex.find(userId, title); // null - если поиск по названию нужно выполнять в БД
+
+        if (ids != null) {
+            return ids.isEmpty() ? Collections.emptyList() : repository.findByIdInOrderByTitleAsc(ids);
+        }
+
+        return repository.find(title, userId);
+    }
+
+    // id пользователя, которому принадлежит приоритет (null - если клиент не передал его вместе с приоритетом)
+    private Long ownerId(Priority priority) {
+        return priority.getUser() != null ? priority.getUser().getId() : null;
     }
 }
@@ -1,10 +1,19 @@
 package ru.javabegin.springboot.business.service;
 
 import org.springframework.stereotype.Service;
+import ru.javabegin.springboot.business.cache.TaskCounters;
 import ru.javabegin.springboot.business.entity.Stat;
+import ru.javabegin.springboot.business.objects.StatHistoryPoint;
 import ru.javabegin.springboot.business.repository.StatRepository;
+import ru.javabegin.springboot.business.repository.TaskDailyStatRepository;
+import ru.javabegin.springboot.business.search.StatGranularity;
 
 import javax.transaction.Transactional;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 // всегда нужно создавать отдельный класс Service для доступа к данным, даже если кажется,
 // что мало методов или это все можно реализовать сразу в контроллере
@@ -17,13 +26,46 @@ import javax.transaction.Transactional;
 public class StatService {
 
     private final StatRepository repository; // сервис имеет право обращаться к репозиторию (БД)
+    private final TaskCounters counters; // еще не сохраненные в БД изменения счетчиков
+    private final TaskDailyStatRepository dailyStatRepository; // итоги по дням для истории
 
-    public StatService(StatRepository repository) {
+    public StatService(StatRepository repository, TaskCounters counters, TaskDailyStatRepository dailyStatRepository) {
         this.repository = repository;
+        this.counters = counters;
+        this.dailyStatRepository = dailyStatRepository;
     }
 
-    public Stat findStat(String email) {
-        return repository.findByUserEmail(email);
+    public Stat findStat(Long userId) {
+        return counters.readStat(userId); // без запроса в БД, если значения пользователя уже есть в StatCache
+    }
+
+    /*
+    История выполнения задач за дни [dateFrom, dateTo] по периодам granularity (categoryId = null - все категории).
+    Читаются только итоги по дням (TaskDailyStat), поэтому время зависит от кол-ва дней и периодов, а не от кол-ва задач.
+    Периоды без изменений тоже возвращаются (с нулями) - чтобы на графике не было пропусков.
+     */
+    public List<StatHistoryPoint> history(Long userId, LocalDate dateFrom, LocalDate dateTo, StatGranularity granularity, Long categoryId) {
+
+        List<StatHistoryPoint> points = new ArrayList<>();
+        Map<LocalDate, StatHistoryPoint> byStart = new HashMap<>();
+
+        for (LocalDate start = granularity.start(dateFrom); !start.isAfter(dateTo); start = granularity.next(start)) {
+            StatHistoryPoint point = new StatHistoryPoint(start, 0, 0);
+            points.add(point);
+            byStart.put(start, point);
+        }
+
+        List<Object[]> days = categoryId == null
+                ? dailyStatRepository.sumByDay(userId, dateFrom, dateTo)
+                : dailyStatRepository.sumByDayAndCategory(userId, categoryId, dateFrom, dateTo);
+
+        for (Object[] day : days) { // день, completed, created
+            StatHistoryPoint point = byStart.get(granularity.start((LocalDate) day[0]));
+            point.setCompleted(point.getCompleted() + ((Number) day[1]).longValue());
+            point.setCreated(point.getCreated() + ((Number) day[2]).longValue());
+        }
+
+        return points;
     }
 
 }
\ No newline at end of file
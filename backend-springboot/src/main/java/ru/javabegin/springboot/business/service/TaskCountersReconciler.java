@@ -0,0 +1,278 @@
+package ru.javabegin.springboot.business.service;
+
+import lombok.extern.java.Log;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+import ru.javabegin.springboot.business.cache.TaskCounters;
+import ru.javabegin.springboot.business.repository.StatRepository;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/*
+
+Сверка счетчиков задач в Category и Stat с таблицей task (например, после ручных SQL запросов, импорта задач или аварийной остановки).
+
+Запускается через JMX (start), можно выполнять при работающем приложении:
+- пользователи обходятся по возрастанию id порциями по shardSize - на порцию один запрос с group by (TaskCounters.reconcile)
+- порции сверяются параллельно в ForkJoinPool не больше чем в parallelism потоках
+- скорость ограничена maxUsersPerSecond - чтобы сверка не занимала соединения с БД, нужные запросам пользователей
+- изменяются только строки с отличающимися значениями; dryRun - только записать отличия в лог
+- пользователи, задачи которых изменялись во время сверки, проверяются повторно в конце (до BUSY_RETRIES раз)
+
+Ход выполнения (сколько пользователей сверено, сколько отличий, пропущено и пр.) доступен через JMX.
+
+*/
+
+@Service
+@Log
+@ManagedResource(objectName = "ru.javabegin.springboot:type=Cache,name=TaskCountersReconciler")
+public class TaskCountersReconciler {
+
+    private static final int BUSY_RETRIES = 3;
+    private static final long BUSY_RETRY_PAUSE_MILLIS = 1000;
+
+    private final TaskCounters counters;
+    private final StatRepository statRepository;
+
+    private final int parallelism;
+    private final int shardSize;
+    private final int maxUsersPerSecond; // 0 - без ограничения
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean stopRequested;
+
+    // ход выполнения последней сверки
+    private volatile boolean dryRun;
+    private volatile long totalUsers;
+    private final AtomicLong checkedUsers = new AtomicLong();
+    private final AtomicLong differences = new AtomicLong();
+    private final AtomicLong failedShards = new AtomicLong();
+    private volatile long skippedUsers; // так и не сверены - задачи изменялись при каждой попытке
+    private volatile Date startedAt;
+    private volatile Date finishedAt;
+    private volatile String lastError;
+
+    private final AtomicLong nextSlot = new AtomicLong(); // ограничение скорости: время (нс), раньше которого следующая порция не начинается
+
+
+    public TaskCountersReconciler(TaskCounters counters, StatRepository statRepository,
+                                  @Value("${task.reconcile.parallelism:2}") int parallelism,
+                                  @Value("${task.reconcile.shard-size:100}") int shardSize,
+                                  @Value("${task.reconcile.max-users-per-second:500}") int maxUsersPerSecond) {
+        this.counters = counters;
+        this.statRepository = statRepository;
+        this.parallelism = parallelism;
+        this.shardSize = shardSize;
+        this.maxUsersPerSecond = maxUsersPerSecond;
+    }
+
+
+    @ManagedOperation
+    public String start(boolean dryRun) {
+        if (!running.compareAndSet(false, true)) {
+            return "already running";
+        }
+
+        this.dryRun = dryRun;
+        stopRequested = false;
+        totalUsers = 0;
+        checkedUsers.set(0);
+        differences.set(0);
+        failedShards.set(0);
+        skippedUsers = 0;
+        startedAt = new Date();
+        finishedAt = null;
+        lastError = null;
+
+        Thread thread = new Thread(this::run, "task-counters-reconcile");
+        thread.setDaemon(true);
+        thread.start();
+
+        return "started";
+    }
+
+    @ManagedOperation
+    public void stop() {
+        stopRequested = true;
+    }
+
+
+    @ManagedAttribute
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    @ManagedAttribute
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    @ManagedAttribute
+    public long getTotalUsers() {
+        return totalUsers;
+    }
+
+    @ManagedAttribute
+    public long getCheckedUsers() {
+        return checkedUsers.get();
+    }
+
+    @ManagedAttribute
+    public double getProgressPercent() {
+        long total = totalUsers;
+        return total == 0 ? 0 : Math.min(100.0, checkedUsers.get() * 100.0 / total);
+    }
+
+    @ManagedAttribute
+    public long getDifferences() {
+        return differences.get();
+    }
+
+    @ManagedAttribute
+    public long getSkippedUsers() {
+        return skippedUsers;
+    }
+
+    @ManagedAttribute
+    public long getFailedShards() {
+        return failedShards.get();
+    }
+
+    @ManagedAttribute
+    public Date getStartedAt() {
+        return startedAt;
+    }
+
+    @ManagedAttribute
+    public Date getFinishedAt() {
+        return finishedAt;
+    }
+
+    @ManagedAttribute
+    public String getLastError() {
+        return lastError;
+    }
+
+
+    private void run() {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Queue<Long> busy = new ConcurrentLinkedQueue<>(); // пользователи для повторной проверки
+
+        try {
+            totalUsers = statRepository.count();
+
+            log.info("task counters reconciliation started" + (dryRun ? " (dry run)" : "") + ", users: " + totalUsers);
+
+            long afterId = 0;
+
+            while (!stopRequested) {
+                List<Long> userIds = statRepository.findUserIds(afterId, PageRequest.of(0, shardSize * parallelism));
+
+                if (userIds.isEmpty()) {
+                    break;
+                }
+
+                afterId = userIds.get(userIds.size() - 1);
+
+                reconcile(pool, userIds, busy);
+            }
+
+            for (int retry = 0; retry < BUSY_RETRIES && !busy.isEmpty() && !stopRequested; retry++) {
+                Thread.sleep(BUSY_RETRY_PAUSE_MILLIS);
+
+                List<Long> userIds = new ArrayList<>(busy);
+                busy.clear();
+
+                reconcile(pool, userIds, busy);
+            }
+
+            skippedUsers = busy.size();
+
+            log.info("task counters reconciliation " + (stopRequested ? "stopped" : "finished") +
+                    ": checked " + checkedUsers.get() + ", differences " + differences.get() + ", skipped " + skippedUsers +
+                    ", failed shards " + failedShards.get());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            lastError = e.toString();
+            log.log(Level.WARNING, "task counters reconciliation failed", e);
+        } finally {
+            pool.shutdown();
+            finishedAt = new Date();
+            running.set(false);
+        }
+    }
+
+    // сверить пользователей userIds порциями по shardSize в параллельных потоках (ждет окончания всех порций)
+    private void reconcile(ForkJoinPool pool, List<Long> userIds, Queue<Long> busy) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+
+        for (int from = 0; from < userIds.size(); from += shardSize) {
+            List<Long> shard = userIds.subList(from, Math.min(from + shardSize, userIds.size()));
+            tasks.add(pool.submit(() -> reconcileShard(shard, busy)));
+        }
+
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    private void reconcileShard(List<Long> shard, Queue<Long> busy) {
+        if (stopRequested) {
+            return;
+        }
+
+        throttle(shard.size());
+
+        try {
+            TaskCounters.Reconciliation result = counters.reconcile(shard, dryRun);
+
+            checkedUsers.addAndGet(result.getChecked());
+            differences.addAndGet(result.getDifferences());
+            busy.addAll(result.getBusy());
+        } catch (RuntimeException e) { // ошибка в одной порции не останавливает сверку остальных
+            failedShards.incrementAndGet();
+            lastError = e.toString();
+            log.log(Level.WARNING, "task counters reconciliation: shard failed", e);
+        }
+    }
+
+    // ждем, пока можно начать сверку следующих users пользователей (не больше maxUsersPerSecond)
+    private void throttle(int users) {
+        if (maxUsersPerSecond <= 0) {
+            return;
+        }
+
+        long interval = TimeUnit.SECONDS.toNanos(users) / maxUsersPerSecond;
+
+        while (true) {
+            long now = System.nanoTime();
+            long slot = nextSlot.get();
+            long start = slot - now > 0 ? slot : now;
+
+            if (nextSlot.compareAndSet(slot, start + interval)) {
+                if (start > now) {
+                    LockSupport.parkNanos(start - now);
+                }
+                return;
+            }
+        }
+    }
+
+}
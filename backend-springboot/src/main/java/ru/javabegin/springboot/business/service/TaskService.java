@@ -1,15 +1,48 @@
 package ru.javabegin.springboot.business.service;
 
 
+import org.hibernate.Session;
+import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
+import ru.javabegin.springboot.auth.entity.User;
+import ru.javabegin.springboot.business.cache.TaskCountCache;
+import ru.javabegin.springboot.business.cache.TaskCounters;
+import ru.javabegin.springboot.business.cache.TaskReadCache;
 import ru.javabegin.springboot.business.entity.Task;
+import ru.javabegin.springboot.business.index.TrigramIndex;
+import ru.javabegin.springboot.business.objects.TaskBulkOperation;
+import ru.javabegin.springboot.business.objects.TaskBulkResult;
+import ru.javabegin.springboot.business.objects.TaskView;
+import ru.javabegin.springboot.business.repository.CategoryRepository;
+import ru.javabegin.springboot.business.repository.PriorityRepository;
 import ru.javabegin.springboot.business.repository.TaskRepository;
+import ru.javabegin.springboot.business.search.TaskCondition;
+import ru.javabegin.springboot.business.search.TaskCursor;
+import ru.javabegin.springboot.business.search.TaskSortColumn;
+import ru.javabegin.springboot.business.search.TaskSpecification;
 
+import javax.persistence.EntityManager;
 import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
 
 // всегда нужно создавать отдельный класс Service для доступа к данным, даже если кажется,
 // что мало методов или это все можно реализовать сразу в контроллере
@@ -21,37 +54,426 @@ import java.util.List;
 @Transactional
 public class TaskService {
 
+    public static final int BULK_BATCH_SIZE = 50; // сколько SQL запросов отправлять в БД за один раз при пакетном изменении задач
+
     private final TaskRepository repository; // сервис имеет право обращаться к репозиторию (БД)
+    private final CategoryRepository categoryRepository; // для проверки категории при переносе задач
+    private final PriorityRepository priorityRepository; // для проверки приоритета задачи
+    private final TaskCountCache countCache; // кеш общего количества задач для постраничного поиска
+    private final TaskReadCache readCache; // кеш результатов поиска и списка задач
+    private final TaskCounters counters; // счетчики задач в категориях и статистике (вместо триггеров БД)
+    private final TrigramIndex titleIndex; // индекс для поиска по названию (в памяти)
+    private final EntityManager entityManager; // для очистки persistence context при выгрузке задач
 
-    public TaskService(TaskRepository repository) {
+    public TaskService(TaskRepository repository, CategoryRepository categoryRepository, PriorityRepository priorityRepository,
+                       TaskCountCache countCache, TaskReadCache readCache, TaskCounters counters, EntityManager entityManager) {
         this.repository = repository;
+        this.categoryRepository = categoryRepository;
+        this.priorityRepository = priorityRepository;
+        this.countCache = countCache;
+        this.readCache = readCache;
+        this.counters = counters;
+        this.entityManager = entityManager;
+        this.titleIndex = new TrigramIndex(repository::findTitles);
+    }
+
+
+    // все задачи пользователя (только нужные для списка поля - одним запросом)
+    public List<TaskView> findAll(Long userId) {
+        return readCache.get(userId, TaskReadCache.key("all"),
+                () -> repository.findViews(TaskSpecification.filter(null, null, null, null, null, userId, null, null), Sort.by(Sort.Direction.ASC, "title")));
+    }
+
+    /*
+    Выгрузка всех задач пользователя: каждая задача передается в consumer сразу после чтения из БД.
+    Задачи не накапливаются в памяти - после каждой порции persistence context очищается, поэтому расход памяти не зависит от количества задач.
+     */
+    public void exportAll(Long userId, Consumer<TaskView> consumer) {
+        try (Stream<Task> tasks = repository.streamByUser(userId)) {
+            int count = 0;
+            for (Iterator<Task> it = tasks.iterator(); it.hasNext(); ) {
+                consumer.accept(new TaskView(it.next()));
+                if (++count % TaskRepository.EXPORT_FETCH_SIZE == 0) {
+                    entityManager.clear(); // уже выгруженные объекты больше не нужны
+                }
+            }
+        }
+    }
+
+    /*
+    Добавление, изменение, удаление и поиск по id - только задач пользователя userId (из jwt).
+    Чужая задача считается ненайденной (EmptyResultDataAccessException / NoSuchElementException),
+    категория задачи тоже должна принадлежать пользователю (NoSuchElementException) - иначе изменились бы чужие счетчики,
+    как и приоритет (NoSuchElementException) - иначе задача ссылалась бы на чужой приоритет (и показывала бы его название и цвет).
+     */
+
+    // user - пользователь из jwt (объект уже загружен при аутентификации - задача вернется клиенту вместе с ним, как и раньше)
+    public Task add(Task task, User user) {
+        Long userId = user.getId();
+        checkCategory(task, userId);
+        checkPriority(task, userId);
+        task.setUser(user); // владелец - пользователь из jwt, а не из body
+        setCompletedDate(task, null);
+        countCache.invalidate(userId); // количество задач пользователя изменится
+        readCache.invalidate(userId);
+        Task saved = repository.save(task); // метод save обновляет или создает новый объект, если его не было
+        counters.count(saved, 1);
+        counters.created(saved);
+        titleIndex.put(userId, saved.getId(), saved.getTitle());
+        return saved;
+    }
+
+    public Task update(Task task, Long userId) {
+        // старое состояние задачи - строка заблокирована до конца транзакции (save потом не будет выполнять select - задача уже в persistence context)
+        Task old = repository.lockByIdAndUserId(task.getId(), userId).orElseThrow(() -> new EmptyResultDataAccessException("Task with id " + task.getId() + " not found", 1));
+        checkCategory(task, userId);
+        checkPriority(task, userId);
+        task.setUser(old.getUser()); // владельца задачи изменить нельзя
+        setCompletedDate(task, old);
+        countCache.invalidate(userId); // задача может перестать/начать подходить под фильтры
+        readCache.invalidate(userId);
+        counters.count(old, -1); // до save - save изменит объект old
+        counters.completion(old, -1);
+        Task saved = repository.save(task); // метод save обновляет или создает новый объект, если его не было
+        counters.count(saved, 1);
+        counters.completion(saved, 1);
+        titleIndex.put(userId, saved.getId(), saved.getTitle());
+        return saved;
+    }
+
+    public void deleteById(Long id, Long userId) {
+        Task task = repository.lockByIdAndUserId(id, userId).orElseThrow(() -> new EmptyResultDataAccessException("Task with id " + id + " not found", 1));
+        countCache.invalidate(userId);
+        readCache.invalidate(userId);
+        titleIndex.remove(userId, id);
+        counters.count(task, -1);
+        counters.completion(task, -1);
+        repository.delete(task);
+    }
+
+
+    /*
+    Пакетное изменение задач (ключ - номер операции в запросе): все операции выполняются в одной транзакции,
+    а SQL запросы отправляются в БД пакетами (JDBC batch) по BULK_BATCH_SIZE - вместо отдельного запроса на каждую задачу.
+    Если задачи для update/delete нет в БД (или она принадлежит другому пользователю), а также если категория или приоритет задачи чужие -
+    операция пропускается (в результате будет ошибка), остальные выполняются.
+     */
+    public List<TaskBulkResult> bulk(Map<Integer, TaskBulkOperation> operations, Long userId) {
+
+        entityManager.unwrap(Session.class).setJdbcBatchSize(BULK_BATCH_SIZE);
+
+        // все задачи для update/delete получаем одним запросом (заодно они попадают в persistence context - save не будет выполнять select для каждой)
+        // чужие задачи не загружаются - для них операция вернет "not found"; строки блокируются до конца транзакции (по ним считаются счетчики)
+        Set<Long> ids = new HashSet<>();
+        Set<Long> categoryIds = new HashSet<>();
+        Set<Long> priorityIds = new HashSet<>();
+        for (TaskBulkOperation operation : operations.values()) {
+            if (operation.getAction() == TaskBulkOperation.Action.UPDATE) {
+                ids.add(operation.getTask().getId());
+            } else if (operation.getAction() == TaskBulkOperation.Action.DELETE) {
+                ids.add(operation.getId());
+            }
+            if (operation.getAction() != TaskBulkOperation.Action.DELETE && categoryId(operation.getTask()) != null) {
+                categoryIds.add(categoryId(operation.getTask()));
+            }
+            if (operation.getAction() != TaskBulkOperation.Action.DELETE && priorityId(operation.getTask()) != null) {
+                priorityIds.add(priorityId(operation.getTask()));
+            }
+        }
+
+        Map<Long, Task> existing = new HashMap<>();
+        if (!ids.isEmpty()) { // пустой список нельзя передать в условие in
+            for (Task task : repository.lockAllByIdInAndUserId(ids, userId)) {
+                existing.put(task.getId(), task);
+            }
+        }
+
+        // категории пользователя из тех, что указаны в задачах (одним запросом)
+        Set<Long> ownCategories = categoryIds.isEmpty() ? Collections.emptySet() : new HashSet<>(categoryRepository.findOwnIds(categoryIds, userId));
+
+        // приоритеты пользователя из тех, что указаны в задачах (тоже одним запросом)
+        Set<Long> ownPriorities = priorityIds.isEmpty() ? Collections.emptySet() : new HashSet<>(priorityRepository.findOwnIds(priorityIds, userId));
+
+        User owner = entityManager.getReference(User.class, userId); // владелец новых задач - пользователь из jwt, а не из body
+
+        List<TaskBulkResult> results = new ArrayList<>(operations.size());
+
+        for (Map.Entry<Integer, TaskBulkOperation> entry : operations.entrySet()) {
+
+            int index = entry.getKey();
+            TaskBulkOperation operation = entry.getValue();
+
+            switch (operation.getAction()) {
+
+                case ADD: {
+                    Task task = operation.getTask();
+                    if (categoryId(task) != null && !ownCategories.contains(categoryId(task))) {
+                        results.add(TaskBulkResult.error(index, null, "categoryId=" + categoryId(task) + " not found"));
+                        break;
+                    }
+                    if (priorityId(task) != null && !ownPriorities.contains(priorityId(task))) {
+                        results.add(TaskBulkResult.error(index, null, "priorityId=" + priorityId(task) + " not found"));
+                        break;
+                    }
+                    task.setUser(owner);
+                    setCompletedDate(task, null);
+                    Task saved = repository.save(task); // id выдается из sequence сразу, а insert выполнится пакетом при flush
+                    counters.count(saved, 1);
+                    counters.created(saved);
+                    titleIndex.put(userId, saved.getId(), saved.getTitle());
+                    results.add(TaskBulkResult.ok(index, saved.getId()));
+                    break;
+                }
+
+                case UPDATE: {
+                    Task task = operation.getTask();
+                    Task old = existing.get(task.getId());
+                    if (old == null) {
+                        results.add(TaskBulkResult.error(index, task.getId(), "id=" + task.getId() + " not found"));
+                        break;
+                    }
+                    if (categoryId(task) != null && !ownCategories.contains(categoryId(task))) {
+                        results.add(TaskBulkResult.error(index, task.getId(), "categoryId=" + categoryId(task) + " not found"));
+                        break;
+                    }
+                    if (priorityId(task) != null && !ownPriorities.contains(priorityId(task))) {
+                        results.add(TaskBulkResult.error(index, task.getId(), "priorityId=" + priorityId(task) + " not found"));
+                        break;
+                    }
+                    task.setUser(old.getUser()); // владельца задачи изменить нельзя
+                    setCompletedDate(task, old);
+                    counters.count(old, -1); // до save - save изменит объект old
+                    counters.completion(old, -1);
+                    Task saved = repository.save(task);
+                    counters.count(saved, 1);
+                    counters.completion(saved, 1);
+                    titleIndex.put(userId, saved.getId(), saved.getTitle());
+                    results.add(TaskBulkResult.ok(index, saved.getId()));
+                    break;
+                }
+
+                case DELETE: {
+                    Task old = existing.remove(operation.getId()); // повторная операция с этой же задачей уже ее не найдет
+                    if (old == null) {
+                        results.add(TaskBulkResult.error(index, operation.getId(), "id=" + operation.getId() + " not found"));
+                        break;
+                    }
+                    titleIndex.remove(userId, old.getId());
+                    counters.count(old, -1);
+                    counters.completion(old, -1);
+                    repository.delete(old);
+                    results.add(TaskBulkResult.ok(index, old.getId()));
+                    break;
+                }
+            }
+        }
+
+        repository.flush(); // все накопленные insert/update/delete - пакетами
+
+        bulkChanged(userId);
+
+        return results;
+    }
+
+
+    /*
+    Массовые операции над задачами пользователя userId, которые подходят под фильтры (как в поиске).
+    Сначала подходящие задачи блокируются (по ним считаются изменения счетчиков), затем изменяются запросами update/delete по их id
+    (порциями по TrigramIndex.MAX_IDS) - задачи, добавленные другими транзакциями в это время, не затрагиваются.
+    Возвращают количество измененных задач
+     */
+    public int completeWhere(String text, Integer completed, Long priorityId, Long categoryId, Long userId, Date dateFrom, Date dateTo, Integer newCompleted) {
+        Date now = new Date(); // дата выполнения - одна и та же в счетчиках и в БД
+        List<Object[]> tasks = repository.lockWhere(bulkFilter(text, completed, priorityId, categoryId, userId, dateFrom, dateTo));
+        for (Object[] task : tasks) {
+            Date completedDate = (Date) task[3];
+            counters.count(userId, (Long) task[1], (Integer) task[2], -1);
+            counters.count(userId, (Long) task[1], newCompleted, 1);
+            counters.completion(userId, (Long) task[1], (Integer) task[2], completedDate, -1);
+            counters.completion(userId, (Long) task[1], newCompleted, isCompleted((Integer) task[2]) ? completedDate : now, 1);
+        }
+        int count = byIds(tasks, userId, where -> repository.updateCompleted(where, newCompleted, now));
+        bulkChanged(userId);
+        return count;
+    }
+
+    public int moveWhere(String text, Integer completed, Long priorityId, Long categoryId, Long userId, Date dateFrom, Date dateTo, Long newCategoryId) {
+        if (!categoryRepository.existsByIdAndUserId(newCategoryId, userId)) { // переносить можно только в свою категорию
+            throw new NoSuchElementException("Category with id " + newCategoryId + " not found");
+        }
+        List<Object[]> tasks = repository.lockWhere(bulkFilter(text, completed, priorityId, categoryId, userId, dateFrom, dateTo));
+        for (Object[] task : tasks) {
+            counters.count(userId, (Long) task[1], (Integer) task[2], -1);
+            counters.count(userId, newCategoryId, (Integer) task[2], 1);
+            counters.completion(userId, (Long) task[1], (Integer) task[2], (Date) task[3], -1);
+            counters.completion(userId, newCategoryId, (Integer) task[2], (Date) task[3], 1);
+        }
+        int count = byIds(tasks, userId, where -> repository.updateCategory(where, newCategoryId));
+        bulkChanged(userId);
+        return count;
+    }
+
+    public int deleteWhere(String text, Integer completed, Long priorityId, Long categoryId, Long userId, Date dateFrom, Date dateTo) {
+        List<Object[]> tasks = repository.lockWhere(bulkFilter(text, completed, priorityId, categoryId, userId, dateFrom, dateTo));
+        for (Object[] task : tasks) {
+            counters.count(userId, (Long) task[1], (Integer) task[2], -1);
+            counters.completion(userId, (Long) task[1], (Integer) task[2], (Date) task[3], -1);
+            titleIndex.remove(userId, (Long) task[0]);
+        }
+        int count = byIds(tasks, userId, repository::deleteWhere);
+        bulkChanged(userId);
+        return count;
     }
 
 
-    public List<Task> findAll(String email) {
-        return repository.findByUserEmailOrderByTitleAsc(email);
+    public Task findById(Long id, Long userId) {
+        return repository.findByIdAndUserId(id, userId).get(); // т.к. возвращается Optional - можно получить объект методом get()
     }
 
-    public Task add(Task task) {
-        return repository.save(task); // метод save обновляет или создает новый объект, если его не было
+    public Page<TaskView> find(String text, Integer completed, Long priorityId, Long categoryId, Long userId, Date dateFrom, Date dateTo, PageRequest paging) {
+        return readCache.get(userId, TaskReadCache.key("page", TaskCountCache.filterKey(text, completed, priorityId, categoryId, dateFrom, dateTo), paging.getOffset(), paging.getPageSize(), paging.getSort()),
+                () -> loadPage(text, completed, priorityId, categoryId, userId, dateFrom, dateTo, paging));
     }
 
-    public Task update(Task task) {
-        return repository.save(task); // метод save обновляет или создает новый объект, если его не было
+    // поиск без подсчета общего количества - возвращает только признак наличия следующей страницы
+    public Slice<TaskView> findSlice(String text, Integer completed, Long priorityId, Long categoryId, Long userId, Date dateFrom, Date dateTo, PageRequest paging) {
+        return readCache.get(userId, TaskReadCache.key("slice", TaskCountCache.filterKey(text, completed, priorityId, categoryId, dateFrom, dateTo), paging.getOffset(), paging.getPageSize(), paging.getSort()),
+                () -> loadSlice(text, completed, priorityId, categoryId, userId, dateFrom, dateTo, paging));
     }
 
-    public void deleteById(Long id) {
-        repository.deleteById(id);
+    // постраничный вывод через курсор - без OFFSET и без запроса COUNT (limit - сколько задач максимум вернуть)
+    public List<TaskView> findAfter(String text, Integer completed, Long priorityId, Long categoryId, Long userId, Date dateFrom, Date dateTo,
+                                    TaskSortColumn sortColumn, Sort.Direction direction, TaskCursor cursor, int limit) {
+        return readCache.get(userId, TaskReadCache.key("cursor", TaskCountCache.filterKey(text, completed, priorityId, categoryId, dateFrom, dateTo), sortColumn, direction, cursor == null ? null : cursor.encode(), limit),
+                () -> loadAfter(text, completed, priorityId, categoryId, userId, dateFrom, dateTo, sortColumn, direction, cursor, limit));
     }
 
 
-    public Task findById(Long id) {
-        return repository.findById(id).get(); // т.к. возвращается Optional - можно получить объект методом get()
+    private Page<TaskView> loadPage(String text, Integer completed, Long priorityId, Long categoryId, Long userId, Date dateFrom, Date dateTo, PageRequest paging) {
+
+        Set<Long> ids = titleIndex.find(userId, text); // null - если поиск по названию нужно выполнять в БД
+
+        if (ids != null && ids.isEmpty()) { // ни одно название не подходит - в БД даже не обращаемся
+            return new PageImpl<>(Collections.emptyList(), paging, 0);
+        }
+
+        // в запрос попадут только переданные условия
+        Specification<Task> spec = TaskSpecification.filter(text, ids, completed, priorityId, categoryId, userId, dateFrom, dateTo);
+
+        String filterKey = TaskCountCache.filterKey(text, completed, priorityId, categoryId, dateFrom, dateTo);
+
+        Long total = countCache.get(userId, filterKey);
+
+        long version = countCache.version(userId); // версию запоминаем до выполнения запроса
+
+        Slice<TaskView> slice = repository.findSlice(spec, paging);
+
+        if (total == null) {
+            if (!slice.hasNext() && (slice.hasContent() || paging.getOffset() == 0)) {
+                total = paging.getOffset() + slice.getNumberOfElements(); // последняя страница - количество известно без запроса COUNT
+            } else {
+                total = repository.count(spec);
+            }
+            countCache.put(userId, filterKey, total, version);
+        }
+
+        return new PageImpl<>(slice.getContent(), paging, total);
     }
 
-    public Page<Task> find(String text, Integer completed, Long priorityId, Long categoryId, String email, Date dateFrom, Date dateTo, PageRequest paging) {
-        return repository.find(text, completed, priorityId, categoryId, email, dateFrom, dateTo, paging);
+    private Slice<TaskView> loadSlice(String text, Integer completed, Long priorityId, Long categoryId, Long userId, Date dateFrom, Date dateTo, PageRequest paging) {
+
+        Set<Long> ids = titleIndex.find(userId, text);
+
+        if (ids != null && ids.isEmpty()) {
+            return new SliceImpl<>(Collections.emptyList(), paging, false);
+        }
+
+        return repository.findSlice(TaskSpecification.filter(text, ids, completed, priorityId, categoryId, userId, dateFrom, dateTo), paging);
+    }
+
+    private List<TaskView> loadAfter(String text, Integer completed, Long priorityId, Long categoryId, Long userId, Date dateFrom, Date dateTo,
+                                     TaskSortColumn sortColumn, Sort.Direction direction, TaskCursor cursor, int limit) {
+
+        Set<Long> ids = titleIndex.find(userId, text);
+
+        if (ids != null && ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        return repository.findAfter(TaskSpecification.filter(text, ids, completed, priorityId, categoryId, userId, dateFrom, dateTo),
+                sortColumn, direction, cursor, limit);
     }
 
 
+    private TaskCondition bulkFilter(String text, Integer completed, Long priorityId, Long categoryId, Long userId, Date dateFrom, Date dateTo) {
+        Set<Long> ids = titleIndex.find(userId, text); // если индекс нашел задачи по названию - like в запросе не нужен
+        if (ids != null && ids.isEmpty()) {
+            ids = null; // пустой список нельзя передать в условие in - проверим название в БД (результат тот же)
+        }
+        return TaskSpecification.bulkFilter(text, ids, completed, priorityId, categoryId, userId, dateFrom, dateTo);
+    }
+
+    // выполнить массовый update/delete для заблокированных задач (tasks - результат lockWhere) порциями по id
+    private int byIds(List<Object[]> tasks, Long userId, ToIntFunction<TaskCondition> action) {
+        int count = 0;
+        List<Long> ids = new ArrayList<>(Math.min(tasks.size(), TrigramIndex.MAX_IDS));
+        for (Object[] task : tasks) {
+            ids.add((Long) task[0]);
+            if (ids.size() == TrigramIndex.MAX_IDS) {
+                count += action.applyAsInt(TaskSpecification.bulkFilter(null, ids, null, null, null, userId, null, null));
+                ids.clear(); // запрос уже выполнен - список можно использовать для следующей порции
+            }
+        }
+        if (!ids.isEmpty()) {
+            count += action.applyAsInt(TaskSpecification.bulkFilter(null, ids, null, null, null, userId, null, null));
+        }
+        return count;
+    }
+
+    // после массовых операций сбрасываем все кеши пользователя
+    private void bulkChanged(Long userId) {
+        countCache.invalidate(userId);
+        readCache.invalidate(userId);
+    }
+
+    // категория задачи должна принадлежать пользователю (как и при переносе задач в moveWhere)
+    private void checkCategory(Task task, Long userId) {
+        Long categoryId = categoryId(task);
+        if (categoryId != null && !categoryRepository.existsByIdAndUserId(categoryId, userId)) {
+            throw new NoSuchElementException("Category with id " + categoryId + " not found");
+        }
+    }
+
+    // приоритет задачи тоже должен принадлежать пользователю
+    private void checkPriority(Task task, Long userId) {
+        Long priorityId = priorityId(task);
+        if (priorityId != null && !priorityRepository.existsByIdAndUserId(priorityId, userId)) {
+            throw new NoSuchElementException("Priority with id " + priorityId + " not found");
+        }
+    }
+
+    // дату выполнения устанавливает сервер (значение от клиента не используется):
+    // задача стала выполненной - текущий момент, перестала - null, не изменилась - как было (old - задача до изменения, null - новая задача)
+    private static void setCompletedDate(Task task, Task old) {
+        if (!isCompleted(task.getCompleted())) {
+            task.setCompletedDate(null);
+        } else if (old != null && isCompleted(old.getCompleted())) {
+            task.setCompletedDate(old.getCompletedDate());
+        } else {
+            task.setCompletedDate(new Date());
+        }
+    }
+
+    private static boolean isCompleted(Integer completed) {
+        return completed != null && completed == 1;
+    }
+
+    private Long categoryId(Task task) {
+        return task.getCategory() != null ? task.getCategory().getId() : null;
+    }
+
+    private Long priorityId(Task task) {
+        return task.getPriority() != null ? task.getPriority().getId() : null;
+    }
+
 }
@@ -0,0 +1,188 @@
+package ru.javabegin.springboot.business.util;
+
+import lombok.extern.java.Log;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/*
+
+Асинхронный лог запросов (вместо MyLogger, который писал в System.out из потока каждого запроса).
+
+Потоки запросов только записывают поля (URI, id пользователя, время выполнения, статус) в заранее созданную ячейку кольцевого буфера -
+без форматирования строки, без блокировок и без создания объектов. Форматирует и пишет в лог один фоновый поток.
+
+- если лог выключен (request-log.enabled=false или через JMX) - запись стоит одно чтение volatile поля
+- если буфер заполнен (фоновый поток не успевает) - запись отбрасывается, а не ждет; кол-во отброшенных записей доступно через JMX
+
+Кольцевой буфер: размер - степень двойки, head - следующая свободная ячейка (увеличивается через compareAndSet потоками запросов),
+tail - следующая ячейка для чтения (только фоновый поток). Ячейка считается заполненной, когда ее sequence равен ее номеру.
+
+*/
+
+@Component
+@Log
+@ManagedResource(objectName = "ru.javabegin.springboot:type=Log,name=RequestLog")
+public class RequestLog {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1); // пауза фонового потока, если буфер пуст
+
+    private volatile boolean enabled;
+    private volatile boolean running = true;
+
+    private final Event[] events;
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong(); // следующая ячейка для записи
+    private volatile long tail; // следующая ячейка для чтения (меняет только фоновый поток)
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Thread writer;
+
+
+    public RequestLog(@Value("${request-log.enabled:true}") boolean enabled,
+                      @Value("${request-log.buffer-size:8192}") int bufferSize) {
+
+        int size = Integer.highestOneBit(Math.max(2, bufferSize - 1)) << 1; // ближайшая степень двойки, не меньше bufferSize
+
+        this.enabled = enabled && log.isLoggable(Level.INFO);
+        this.events = new Event[size];
+        this.mask = size - 1;
+
+        for (int i = 0; i < size; i++) {
+            events[i] = new Event(i - size); // номер ячейки из "предыдущего круга" - ячейка пустая
+        }
+
+        this.writer = new Thread(this::drain, "request-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+
+    // записать выполненный запрос (userId = 0 - пользователь не авторизован)
+    public void log(String endpoint, long userId, int status, long latencyNanos) {
+        if (!enabled) {
+            return;
+        }
+
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail >= events.length) { // фоновый поток не успевает - запись отбрасывается
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+
+        Event event = events[(int) seq & mask];
+        event.endpoint = endpoint;
+        event.userId = userId;
+        event.status = status;
+        event.latencyNanos = latencyNanos;
+        event.timestamp = System.currentTimeMillis();
+        event.sequence = seq; // volatile запись - после нее фоновый поток видит все поля
+    }
+
+
+    @ManagedAttribute
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @ManagedAttribute
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @ManagedAttribute
+    public long getWritten() {
+        return written.get();
+    }
+
+    @ManagedAttribute
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @ManagedAttribute
+    public long getPending() {
+        return head.get() - tail;
+    }
+
+    @ManagedAttribute
+    public int getBufferSize() {
+        return events.length;
+    }
+
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(5)); // фоновый поток допишет то, что уже в буфере
+    }
+
+
+    // фоновый поток: читает ячейки по порядку и пишет в лог
+    private void drain() {
+        StringBuilder line = new StringBuilder(128); // одна строка на все записи
+        long next = tail;
+
+        while (true) {
+            Event event = events[(int) next & mask];
+
+            if (event.sequence != next) { // ячейка еще не заполнена
+                if (!running) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+
+            line.setLength(0);
+            line.append("endpoint=").append(event.endpoint)
+                    .append(" user=").append(event.userId)
+                    .append(" status=").append(event.status)
+                    .append(" latencyMs=").append(TimeUnit.NANOSECONDS.toMicros(event.latencyNanos) / 1000.0)
+                    .append(" time=").append(event.timestamp);
+
+            event.endpoint = null; // не держим ссылку на строку
+
+            next++;
+            tail = next; // ячейку можно использовать снова
+
+            try {
+                log.info(line.toString());
+                written.incrementAndGet();
+            } catch (RuntimeException e) { // ошибка вывода не должна останавливать фоновый поток
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+
+    // ячейка буфера (создается 1 раз, поля перезаписываются)
+    private static class Event {
+
+        private volatile long sequence; // номер записи, которая сейчас в ячейке
+        private String endpoint;
+        private long userId;
+        private int status;
+        private long latencyNanos;
+        private long timestamp;
+
+        private Event(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package ru.javabegin.springboot.business.util;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import ru.javabegin.springboot.auth.service.UserDetailsImpl;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/*
+
+Записывает в RequestLog каждый выполненный запрос: URI, id пользователя, статус ответа и время выполнения.
+
+Фильтр находится в цепочке Spring Security после AuthTokenFilter - поэтому после выполнения запроса пользователь уже известен.
+Заменяет вызовы MyLogger.debugMethodName в начале каждого метода контроллеров.
+
+*/
+
+@Component
+public class RequestLogFilter extends OncePerRequestFilter {
+
+    private final RequestLog requestLog;
+
+    public RequestLogFilter(RequestLog requestLog) {
+        this.requestLog = requestLog;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+
+        if (!requestLog.isEnabled()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            requestLog.log(request.getServletPath(), userId(), response.getStatus(), System.nanoTime() - start);
+        }
+    }
+
+    // id текущего пользователя (0 - если запрос без авторизации)
+    private static long userId() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+
+        if (authentication != null && authentication.getPrincipal() instanceof UserDetailsImpl) {
+            return ((UserDetailsImpl) authentication.getPrincipal()).getId();
+        }
+
+        return 0;
+    }
+
+}
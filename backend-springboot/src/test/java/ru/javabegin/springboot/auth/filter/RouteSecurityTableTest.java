@@ -0,0 +1,148 @@
+package ru.javabegin.springboot.auth.filter;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+import ru.javabegin.springboot.auth.filter.RouteSecurityTable.Policy;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static java.util.Map.entry;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+
+Классификация всех путей контроллеров: какие публичные, для каких jwt берется из заголовка, для остальных - из кука.
+
+Обработчики берутся из настоящих контроллеров (все классы с @RestController) - так же, как их находит Spring MVC,
+но без создания самих контроллеров (бины lazy - нужны только классы и аннотации).
+
+Если добавлен новый обработчик - его путь нужно добавить в EXPECTED (тест не пройдет, пока политика не указана явно).
+
+*/
+
+class RouteSecurityTableTest {
+
+    private static final Map<String, Policy> EXPECTED = Map.ofEntries(
+            entry("/auth/register", Policy.PUBLIC),
+            entry("/auth/login", Policy.PUBLIC),
+            entry("/auth/activate-account", Policy.PUBLIC),
+            entry("/auth/resend-activate-email", Policy.PUBLIC),
+            entry("/auth/send-reset-password-email", Policy.PUBLIC),
+            entry("/auth/test-no-auth", Policy.PUBLIC),
+
+            entry("/auth/update-password", Policy.HEADER_JWT),
+
+            entry("/auth/test-with-auth", Policy.COOKIE_JWT),
+            entry("/auth/logout", Policy.COOKIE_JWT),
+
+            entry("/dashboard", Policy.COOKIE_JWT),
+            entry("/stat", Policy.COOKIE_JWT),
+            entry("/stat/history", Policy.COOKIE_JWT),
+
+            entry("/task/all", Policy.COOKIE_JWT),
+            entry("/task/export", Policy.COOKIE_JWT),
+            entry("/task/add", Policy.COOKIE_JWT),
+            entry("/task/update", Policy.COOKIE_JWT),
+            entry("/task/bulk", Policy.COOKIE_JWT),
+            entry("/task/delete", Policy.COOKIE_JWT),
+            entry("/task/id", Policy.COOKIE_JWT),
+            entry("/task/search", Policy.COOKIE_JWT),
+            entry("/task/complete-where", Policy.COOKIE_JWT),
+            entry("/task/move-where", Policy.COOKIE_JWT),
+            entry("/task/delete-where", Policy.COOKIE_JWT),
+
+            entry("/category/all", Policy.COOKIE_JWT),
+            entry("/category/add", Policy.COOKIE_JWT),
+            entry("/category/update", Policy.COOKIE_JWT),
+            entry("/category/delete", Policy.COOKIE_JWT),
+            entry("/category/search", Policy.COOKIE_JWT),
+            entry("/category/id", Policy.COOKIE_JWT),
+
+            entry("/priority/all", Policy.COOKIE_JWT),
+            entry("/priority/add", Policy.COOKIE_JWT),
+            entry("/priority/update", Policy.COOKIE_JWT),
+            entry("/priority/delete", Policy.COOKIE_JWT),
+            entry("/priority/search", Policy.COOKIE_JWT),
+            entry("/priority/id", Policy.COOKIE_JWT)
+    );
+
+    private StaticApplicationContext context;
+    private RequestMappingHandlerMapping mapping;
+    private RouteSecurityTable table;
+
+
+    @BeforeEach
+    void setUp() {
+        context = new StaticApplicationContext();
+
+        // все контроллеры приложения - только определения бинов (lazy), объекты не создаются
+        ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false);
+        scanner.addIncludeFilter(new AnnotationTypeFilter(RestController.class));
+        for (BeanDefinition definition : scanner.findCandidateComponents("ru.javabegin.springboot")) {
+            ((AbstractBeanDefinition) definition).setLazyInit(true);
+            context.registerBeanDefinition(definition.getBeanClassName(), definition);
+        }
+        context.refresh();
+
+        mapping = new RequestMappingHandlerMapping(); // находит обработчики так же, как Spring MVC
+        mapping.setApplicationContext(context);
+        mapping.afterPropertiesSet();
+        context.getBeanFactory().registerSingleton("requestMappingHandlerMapping", mapping);
+
+        table = new RouteSecurityTable();
+        table.setApplicationContext(context);
+        table.onApplicationEvent(new ContextRefreshedEvent(context));
+    }
+
+
+    @Test
+    void everyMappedPathHasExpectedPolicy() {
+        Set<String> mapped = new TreeSet<>();
+        for (RequestMappingInfo info : mapping.getHandlerMethods().keySet()) {
+            mapped.addAll(info.getPatternValues());
+        }
+
+        assertEquals(new TreeSet<>(EXPECTED.keySet()), mapped, "mapped paths changed - add the new path to EXPECTED with its policy");
+
+        for (String path : mapped) {
+            assertEquals(EXPECTED.get(path), table.getPolicy(path), path);
+        }
+    }
+
+    @Test
+    void trailingSlashHasSamePolicy() {
+        assertEquals(Policy.PUBLIC, table.getPolicy("/auth/login/"));
+        assertEquals(Policy.HEADER_JWT, table.getPolicy("/auth/update-password/"));
+    }
+
+    @Test
+    void unknownPathRequiresCookieJwt() {
+        assertEquals(Policy.COOKIE_JWT, table.getPolicy("/auth/login-x")); // раньше пропускался без jwt (contains "login")
+        assertEquals(Policy.COOKIE_JWT, table.getPolicy("/index/task/all"));
+        assertEquals(Policy.COOKIE_JWT, table.getPolicy("/"));
+        assertEquals(Policy.COOKIE_JWT, table.getPolicy("/AUTH/LOGIN"));
+    }
+
+    @Test
+    void childContextRefreshDoesNotReplaceTable() {
+        StaticApplicationContext child = new StaticApplicationContext(context); // в дочернем контексте нет обработчиков
+        child.refresh();
+
+        table.onApplicationEvent(new ContextRefreshedEvent(child));
+
+        assertEquals(Policy.PUBLIC, table.getPolicy("/auth/login"));
+        assertEquals(Policy.HEADER_JWT, table.getPolicy("/auth/update-password"));
+    }
+
+}
@@ -0,0 +1,259 @@
+package ru.javabegin.springboot.auth.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.javabegin.springboot.auth.entity.EmailOutbox;
+import ru.javabegin.springboot.auth.repository.EmailOutboxRepository;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+
+Отправка писем из outbox через заглушку JavaMailSender (вместо SMTP сервера):
+заглушка запоминает получателей каждого вызова send (один вызов - одно SMTP соединение)
+и для "плохих" адресов бросает MailSendException с failedMessages - как JavaMailSenderImpl, когда сервер отклонил часть писем.
+
+Изменения в таблице должны коммититься (claim, отправка в других потоках), поэтому тест выполняется без общей транзакции.
+
+*/
+
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class EmailOutboxSenderTest {
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_BASE_SECONDS = 30;
+
+    @Autowired
+    private EmailOutboxRepository outboxRepository;
+
+    private StubMailSender mailSender;
+    private final List<EmailOutboxSender> senders = new ArrayList<>();
+    private ExecutorService executor;
+
+
+    @BeforeEach
+    void setUp() {
+        mailSender = new StubMailSender();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        senders.forEach(EmailOutboxSender::shutdown);
+        executor.shutdownNow();
+        outboxRepository.deleteAll();
+    }
+
+
+    // порция с одним отклоненным адресом: все письма уходят одним вызовом send, остальные удаляются, отклоненное ждет повтора
+    @Test
+    void failedRecipientIsRetriedOthersAreDeleted() {
+        EmailOutboxSender sender = sender();
+
+        add("a@example.com", 0);
+        EmailOutbox bad = add("bad@example.com", 0);
+        add("c@example.com", 0);
+
+        mailSender.failing.add("bad@example.com");
+
+        long before = System.currentTimeMillis();
+        sender.drain();
+        long after = System.currentTimeMillis();
+
+        assertEquals(1, mailSender.batches.size());
+        assertEquals(Arrays.asList("a@example.com", "bad@example.com", "c@example.com"), sorted(mailSender.batches.get(0)));
+
+        List<EmailOutbox> left = all();
+        assertEquals(1, left.size());
+
+        EmailOutbox retry = left.get(0);
+        assertEquals(bad.getId(), retry.getId());
+        assertEquals(1, retry.getAttempts());
+        assertTrue(retry.getLastError().contains("bad@example.com"));
+        assertBetween(before + RETRY_BASE_SECONDS * 1000, after + RETRY_BASE_SECONDS * 1000, retry.getNextAttempt().getTime());
+
+        sender.drain(); // повтор еще не наступил - ничего не отправляется
+        assertEquals(1, mailSender.batches.size());
+    }
+
+    // пауза удваивается после каждой неудачи, письмо с исчерпанными попытками больше не отправляется
+    @Test
+    void retryDelayDoublesUntilAttemptsAreExhausted() {
+        EmailOutboxSender sender = sender();
+
+        assertEquals(30_000, sender.retryDelayMillis(0));
+        assertEquals(60_000, sender.retryDelayMillis(1));
+        assertEquals(240_000, sender.retryDelayMillis(3));
+        assertEquals(TimeUnit.HOURS.toMillis(6), sender.retryDelayMillis(30)); // не больше 6 часов (и без переполнения)
+
+        EmailOutbox outbox = add("bad@example.com", MAX_ATTEMPTS - 1);
+        mailSender.failing.add("bad@example.com");
+
+        long before = System.currentTimeMillis();
+        sender.drain();
+        long after = System.currentTimeMillis();
+
+        EmailOutbox failed = outboxRepository.findById(outbox.getId()).get();
+        assertEquals(MAX_ATTEMPTS, failed.getAttempts());
+        assertBetween(before + 120_000, after + 120_000, failed.getNextAttempt().getTime()); // 30 с * 2^2
+
+        failed.setNextAttempt(new Date(System.currentTimeMillis() - 1000)); // время повтора наступило, но попыток больше нет
+        outboxRepository.save(failed);
+
+        sender.drain();
+
+        assertEquals(1, mailSender.batches.size());
+        assertEquals(1, all().size()); // письмо остается в таблице с текстом ошибки
+    }
+
+    // письмо, которое забрал (claim) один экземпляр приложения, не отправляет второй - пока первый его отправляет
+    @Test
+    void claimedMessageIsNotSentTwice() throws Exception {
+        EmailOutboxSender first = sender();
+        EmailOutboxSender second = sender();
+
+        add("a@example.com", 0);
+        add("b@example.com", 0);
+
+        mailSender.entered = new CountDownLatch(1);
+        mailSender.release = new CountDownLatch(1);
+
+        Future<?> firstDrain = executor.submit(first::drain);
+        assertTrue(mailSender.entered.await(10, TimeUnit.SECONDS)); // первый забрал письма и отправляет их
+
+        second.drain();
+        assertEquals(1, mailSender.batches.size()); // второй не нашел писем для отправки
+
+        mailSender.release.countDown();
+        firstDrain.get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, mailSender.batches.size());
+        assertEquals(Arrays.asList("a@example.com", "b@example.com"), sorted(mailSender.batches.get(0)));
+        assertTrue(all().isEmpty());
+    }
+
+    // claim по устаревшему списку из findDue: письмо уже забрано - второй claim ничего не меняет
+    @Test
+    void secondClaimOfSameMessageFails() {
+        EmailOutbox outbox = add("a@example.com", 0);
+
+        Date now = new Date();
+        Date lease = new Date(now.getTime() + 300_000);
+
+        assertEquals(1, outboxRepository.claim(outbox.getId(), now, MAX_ATTEMPTS, lease));
+        assertEquals(0, outboxRepository.claim(outbox.getId(), now, MAX_ATTEMPTS, lease));
+    }
+
+
+    private EmailOutboxSender sender() {
+        EmailOutboxSender sender = new EmailOutboxSender(outboxRepository, mailSender, 10, 2, MAX_ATTEMPTS, 60_000, RETRY_BASE_SECONDS, 300);
+        ReflectionTestUtils.setField(sender, "emailFrom", "planner@example.com");
+        senders.add(sender);
+        return sender;
+    }
+
+    private EmailOutbox add(String recipient, int attempts) {
+        EmailOutbox outbox = new EmailOutbox();
+        outbox.setRecipient(recipient);
+        outbox.setSubject("subject");
+        outbox.setBody("<p>body</p>");
+        outbox.setAttempts(attempts);
+        outbox.setNextAttempt(new Date(System.currentTimeMillis() - 1000)); // уже пора отправить
+        return outboxRepository.save(outbox);
+    }
+
+    private List<EmailOutbox> all() {
+        List<EmailOutbox> all = new ArrayList<>();
+        outboxRepository.findAll().forEach(all::add);
+        return all;
+    }
+
+    private static List<String> sorted(List<String> list) {
+        List<String> sorted = new ArrayList<>(list);
+        sorted.sort(null);
+        return sorted;
+    }
+
+    private static void assertBetween(long from, long to, long actual) {
+        assertTrue(actual >= from && actual <= to, actual + " not in [" + from + ", " + to + "]");
+    }
+
+
+    // вместо SMTP сервера: письма на адреса из failing "отклоняются" сервером
+    private static class StubMailSender extends JavaMailSenderImpl {
+
+        final Set<String> failing = ConcurrentHashMap.newKeySet();
+        final List<List<String>> batches = new CopyOnWriteArrayList<>(); // получатели каждого вызова send
+
+        volatile CountDownLatch entered; // если заданы - send ждет release (письма забраны, но еще не отправлены)
+        volatile CountDownLatch release;
+
+        @Override
+        public void send(MimeMessage... messages) {
+            List<String> recipients = new ArrayList<>();
+            Map<Object, Exception> failed = new LinkedHashMap<>(); // как в JavaMailSenderImpl: ключ - исходный MimeMessage
+
+            for (MimeMessage message : messages) {
+                String recipient = recipient(message);
+                recipients.add(recipient);
+                if (failing.contains(recipient)) {
+                    failed.put(message, new SendFailedException("550 mailbox unavailable: " + recipient));
+                }
+            }
+
+            batches.add(recipients);
+
+            if (release != null) {
+                entered.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            if (!failed.isEmpty()) {
+                throw new MailSendException(failed);
+            }
+        }
+
+        private static String recipient(MimeMessage message) {
+            try {
+                return ((InternetAddress) message.getRecipients(Message.RecipientType.TO)[0]).getAddress();
+            } catch (MessagingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+}
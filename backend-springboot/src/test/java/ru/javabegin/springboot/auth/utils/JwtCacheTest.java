@@ -0,0 +1,125 @@
+package ru.javabegin.springboot.auth.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.javabegin.springboot.auth.entity.User;
+import ru.javabegin.springboot.auth.service.UserDetailsImpl;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/*
+
+Кеш проверенных jwt: повторный запрос с тем же jwt получает готовый UserDetailsImpl (без разбора и проверки подписи),
+но не после срока действия токена (exp) и не после отзыва (logout, смена пароля).
+
+*/
+
+class JwtCacheTest {
+
+    private static final long HOUR = 3_600_000;
+
+    private RevokedTokens revokedTokens;
+    private JwtCache cache;
+    private UserDetailsImpl userDetails;
+
+
+    @BeforeEach
+    void setUp() {
+        revokedTokens = new RevokedTokens((int) HOUR, ""); // без файла - только в памяти
+        cache = new JwtCache(revokedTokens);
+        ReflectionTestUtils.setField(cache, "maxSize", 2);
+
+        User user = new User();
+        user.setId(1L);
+        userDetails = new UserDetailsImpl(user);
+    }
+
+
+    @Test
+    void hitReturnsSameUserDetails() {
+        cache.put("jwt", userDetails, ago(1000), in(HOUR));
+
+        assertSame(userDetails, cache.get("jwt"));
+        assertSame(userDetails, cache.get("jwt"));
+        assertNull(cache.get("other"));
+    }
+
+    @Test
+    void expiresAtExp() {
+        long now = System.currentTimeMillis();
+
+        cache.put("expired", userDetails, ago(HOUR), new Date(now - 1));
+        cache.put("expiring", userDetails, ago(HOUR), new Date(now)); // exp - уже не действует
+
+        assertNull(cache.get("expired"));
+        assertNull(cache.get("expiring"));
+    }
+
+    @Test
+    void expiresWhileCached() throws InterruptedException {
+        cache.put("jwt", userDetails, ago(1000), in(100));
+
+        assertSame(userDetails, cache.get("jwt"));
+
+        Thread.sleep(200);
+
+        assertNull(cache.get("jwt"));
+    }
+
+    @Test
+    void tokenWithoutExpirationIsNotCached() {
+        cache.put("jwt", userDetails, ago(1000), null);
+
+        assertNull(cache.get("jwt"));
+    }
+
+    @Test
+    void revokedOnHit() {
+        cache.put("jwt", userDetails, ago(1000), in(HOUR));
+        assertSame(userDetails, cache.get("jwt"));
+
+        revokedTokens.revokeAll(1L);
+
+        assertNull(cache.get("jwt"));
+        assertNull(cache.get("jwt"));
+
+        // новый jwt после отзыва (время создания - как у нового токена из JwtUtils) принимается
+        cache.put("new", userDetails, revokedTokens.issueTime(1L), in(HOUR));
+        assertSame(userDetails, cache.get("new"));
+    }
+
+    @Test
+    void revokedInSameSecond() {
+        Date issuedAt = new Date(); // создан в ту же секунду, что и отзыв (но раньше)
+        cache.put("jwt", userDetails, issuedAt, in(HOUR));
+
+        revokedTokens.revokeAll(1L);
+
+        assertNull(cache.get("jwt"));
+    }
+
+    @Test
+    void sizeIsBounded() {
+        cache.put("a", userDetails, ago(1000), in(HOUR));
+        cache.put("b", userDetails, ago(1000), in(HOUR));
+        cache.put("c", userDetails, ago(1000), in(HOUR)); // просроченных нет - кеш очищается полностью
+
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertSame(userDetails, cache.get("c"));
+    }
+
+
+    private static Date ago(long millis) {
+        return new Date(System.currentTimeMillis() - millis);
+    }
+
+    private static Date in(long millis) {
+        return new Date(System.currentTimeMillis() + millis);
+    }
+
+}
@@ -0,0 +1,70 @@
+package ru.javabegin.springboot.auth.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+
+Файл отозванных jwt: повторные отзывы дописываются в конец файла,
+но файл перезаписывается только с действующими записями, не дожидаясь перезапуска - и после перезапуска отзывы действуют.
+
+*/
+
+class RevokedTokensTest {
+
+    private static final int HOUR = 3_600_000;
+
+    @TempDir
+    Path dir;
+
+
+    @Test
+    void fileIsCompactedWhileRunning() throws IOException {
+        Path file = dir.resolve("jwt-revoked.txt");
+        RevokedTokens tokens = new RevokedTokens(HOUR, file.toString());
+
+        for (int i = 0; i < 5000; i++) { // 2 пользователя выходят много раз - действующих записей только 2
+            tokens.revokeAll((long) (i % 2));
+        }
+
+        assertTrue(lines(file) <= 1001, "lines: " + lines(file)); // не больше MIN_COMPACT_LINES + 1
+
+        RevokedTokens restarted = new RevokedTokens(HOUR, file.toString());
+        long now = System.currentTimeMillis() / 1000;
+
+        assertTrue(restarted.isRevoked(0L, now));
+        assertTrue(restarted.isRevoked(1L, now));
+        assertFalse(restarted.isRevoked(2L, now));
+        assertEquals(2, lines(file)); // при запуске остаются только действующие записи
+    }
+
+    @Test
+    void expiredEntriesAreDroppedOnStart() throws IOException {
+        Path file = dir.resolve("jwt-revoked.txt");
+        long now = System.currentTimeMillis() / 1000;
+
+        Files.write(file, Arrays.asList("1 " + (now - 2 * 3600), "2 " + now, "broken"), StandardCharsets.UTF_8);
+
+        RevokedTokens tokens = new RevokedTokens(HOUR, file.toString());
+
+        assertFalse(tokens.isRevoked(1L, now - 2 * 3600)); // jwt, созданные до отзыва, уже истекли
+        assertTrue(tokens.isRevoked(2L, now));
+        assertEquals(1, lines(file));
+    }
+
+
+    private static long lines(Path file) throws IOException {
+        return Files.readAllLines(file, StandardCharsets.UTF_8).size();
+    }
+
+}
@@ -0,0 +1,211 @@
+package ru.javabegin.springboot.business.cache;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.javabegin.springboot.auth.entity.User;
+import ru.javabegin.springboot.auth.repository.UserRepository;
+import ru.javabegin.springboot.business.entity.Category;
+import ru.javabegin.springboot.business.entity.Stat;
+import ru.javabegin.springboot.business.entity.Task;
+import ru.javabegin.springboot.business.repository.CategoryRepository;
+import ru.javabegin.springboot.business.repository.StatRepository;
+import ru.javabegin.springboot.business.repository.TaskDailyStatRepository;
+import ru.javabegin.springboot.business.repository.TaskRepository;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+
+Сверка счетчиков (TaskCounters.reconcile) при одновременном изменении задач.
+
+Запрос фактического кол-ва задач выполняется без блокировок групп: если во время сверки транзакция пользователя добавила задачу
+и закоммитилась до этого запроса, задача попадет и в запрос, и (после коммита) в несохраненные изменения -
+такой пользователь должен быть пропущен (busy), а не исправлен, иначе задача посчиталась бы дважды.
+
+Изменения должны коммититься (счетчики меняются после коммита), поэтому тест выполняется без общей транзакции.
+
+*/
+
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class TaskCountersTest {
+
+    @Autowired
+    private CategoryRepository categoryRepository;
+
+    @Autowired
+    private StatRepository statRepository;
+
+    @Autowired
+    private TaskDailyStatRepository dailyStatRepository;
+
+    @Autowired
+    private TaskRepository taskRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+    private ExecutorService executor;
+    private TaskCounters counters;
+
+    private volatile Runnable beforeCount; // выполняется (один раз) в потоке сверки перед запросом фактического кол-ва задач
+
+    private User user;
+    private Category category;
+
+
+    @BeforeEach
+    void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        executor = Executors.newSingleThreadExecutor();
+
+        // TaskRepository, в котором перед запросом countByUsers можно выполнить действие (закоммитить задачу "во время" сверки)
+        TaskRepository tasks = (TaskRepository) Proxy.newProxyInstance(TaskRepository.class.getClassLoader(), new Class<?>[]{TaskRepository.class},
+                (proxy, method, args) -> {
+                    Runnable action = beforeCount;
+                    if (action != null && method.getName().equals("countByUsers")) {
+                        beforeCount = null;
+                        action.run();
+                    }
+                    try {
+                        return method.invoke(taskRepository, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+
+        // без start(): фоновое сохранение не запускается, сохраняем вручную (flush)
+        counters = new TaskCounters(categoryRepository, statRepository, new StatCache(statRepository, 100), dailyStatRepository, tasks,
+                userRepository, transactionManager, 60_000, 100, "");
+
+        transactionTemplate.execute(status -> {
+            user = new User();
+            user.setUsername("counters" + System.nanoTime());
+            user.setEmail(user.getUsername() + "@test.ru");
+            user.setPassword("password");
+            userRepository.save(user);
+
+            Stat stat = new Stat();
+            stat.setId(user.getId());
+            stat.setUser(user);
+            statRepository.save(stat);
+
+            category = new Category();
+            category.setTitle("category");
+            category.setUser(user);
+            categoryRepository.save(category);
+
+            addTask(1);
+            addTask(0);
+            return null;
+        });
+
+        counters.flush();
+        assertCounts(1, 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        counters.shutdown();
+    }
+
+
+    @Test
+    void taskCommittedDuringReconcileIsCountedOnce() {
+        // задача добавляется и коммитится в другом потоке после проверки open, но до запроса фактического кол-ва
+        beforeCount = () -> await(executor.submit(() -> transactionTemplate.execute(status -> addTask(0))));
+
+        TaskCounters.Reconciliation result = counters.reconcile(Collections.singletonList(user.getId()), false);
+
+        assertEquals(Collections.singletonList(user.getId()), result.getBusy());
+        assertEquals(0, result.getChecked());
+
+        counters.flush();
+        assertCounts(1, 2);
+
+        // следующая сверка (задачи не меняются) - отличий нет
+        result = counters.reconcile(Collections.singletonList(user.getId()), false);
+
+        assertEquals(1, result.getChecked());
+        assertEquals(0, result.getDifferences());
+        assertCounts(1, 2);
+    }
+
+    @Test
+    void wrongCountersAreFixed() {
+        transactionTemplate.execute(status -> statRepository.setTotals(user.getId(), 5, 5));
+
+        TaskCounters.Reconciliation result = counters.reconcile(Collections.singletonList(user.getId()), false);
+
+        assertEquals(1, result.getChecked());
+        assertEquals(1, result.getDifferences());
+        assertCounts(1, 1);
+    }
+
+    @Test
+    void pendingChangesAreNotOverwritten() {
+        transactionTemplate.execute(status -> addTask(1)); // несохраненное изменение (без flush)
+
+        TaskCounters.Reconciliation result = counters.reconcile(Collections.singletonList(user.getId()), false);
+
+        assertEquals(1, result.getChecked());
+        assertEquals(0, result.getDifferences());
+        assertEquals(2, counters.readStat(user.getId()).getCompletedTotal());
+
+        counters.flush();
+        assertCounts(2, 1);
+    }
+
+
+    private Task addTask(int completed) {
+        Task task = new Task();
+        task.setTitle("task");
+        task.setCompleted(completed);
+        task.setCategory(category);
+        task.setUser(user);
+
+        Task saved = taskRepository.save(task);
+        counters.count(saved, 1);
+        return saved;
+    }
+
+    // значения в БД: Stat пользователя и счетчики его категории
+    private void assertCounts(long completed, long uncompleted) {
+        Stat stat = statRepository.findByUser(user.getId());
+        assertEquals(completed, stat.getCompletedTotal(), "stat completed");
+        assertEquals(uncompleted, stat.getUncompletedTotal(), "stat uncompleted");
+
+        Category saved = categoryRepository.findById(category.getId()).get();
+        assertEquals(completed, saved.getCompletedCount(), "category completed");
+        assertEquals(uncompleted, saved.getUncompletedCount(), "category uncompleted");
+    }
+
+    private static void await(Future<?> future) {
+        try {
+            future.get(10, TimeUnit.SECONDS); // если сверка держит блокировки групп во время запроса - коммит задачи ее не дождется
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,194 @@
+package ru.javabegin.springboot.business.repository;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import ru.javabegin.springboot.auth.entity.User;
+import ru.javabegin.springboot.business.entity.Category;
+import ru.javabegin.springboot.business.entity.Priority;
+import ru.javabegin.springboot.business.entity.Task;
+import ru.javabegin.springboot.business.objects.TaskView;
+import ru.javabegin.springboot.business.search.TaskCursor;
+import ru.javabegin.springboot.business.search.TaskSortColumn;
+import ru.javabegin.springboot.business.search.TaskSpecification;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+
+Списки задач (TaskView) должны загружаться одним SQL запросом - независимо от размера страницы и от того,
+сколько разных приоритетов и категорий у задач на странице (без доп. запросов для каждой связи - N+1).
+
+Количество запросов считает Hibernate (generate_statistics).
+
+*/
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class TaskRepositoryImplTest {
+
+    private static final int TASKS = 60; // у каждой задачи - свой приоритет и своя категория
+    private static final int NULL_TASKS = 5; // задачи без даты, приоритета и категории (только в тесте обхода через курсор)
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private TaskRepository repository;
+
+    private Statistics statistics;
+
+    private Long userId;
+
+
+    @BeforeEach
+    void setUp() {
+        User user = new User();
+        user.setUsername("user");
+        user.setEmail("user@test.ru");
+        user.setPassword("password");
+        entityManager.persist(user);
+
+        for (int i = 0; i < TASKS; i++) {
+            Priority priority = new Priority();
+            priority.setTitle("priority " + i);
+            priority.setColor("#fff");
+            priority.setUser(user);
+            entityManager.persist(priority);
+
+            Category category = new Category();
+            category.setTitle("category " + i);
+            category.setUser(user);
+            entityManager.persist(category);
+
+            Task task = new Task();
+            task.setTitle("task " + i);
+            task.setCompleted(i % 2);
+            task.setTaskDate(new Date(i * 1000L));
+            task.setPriority(priority);
+            task.setCategory(category);
+            task.setUser(user);
+            entityManager.persist(task);
+        }
+
+        userId = user.getId();
+
+        entityManager.flush();
+        entityManager.clear(); // задачи, приоритеты и категории не должны браться из persistence context
+
+        statistics = entityManager.getEntityManager().getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+
+    @Test
+    void slicePageIsOneStatement() {
+        for (int pageSize : new int[]{1, 10, TASKS}) {
+            statistics.clear();
+
+            Slice<TaskView> slice = repository.findSlice(TaskSpecification.filter(null, null, null, null, null, userId, null, null),
+                    PageRequest.of(0, pageSize, Sort.by(Sort.Direction.ASC, "taskDate", "id")));
+
+            assertEquals(pageSize, slice.getNumberOfElements());
+            assertNotNull(slice.getContent().get(pageSize - 1).getCategory()); // связи заполнены из того же запроса
+            assertEquals(1, statistics.getPrepareStatementCount(), "statements for page size " + pageSize);
+        }
+    }
+
+    @Test
+    void cursorPageIsOneStatement() {
+        List<TaskView> first = repository.findAfter(TaskSpecification.filter(null, null, null, null, null, userId, null, null),
+                TaskSortColumn.TASK_DATE, Sort.Direction.ASC, null, 10);
+
+        TaskCursor cursor = TaskCursor.of(first.get(first.size() - 1), TaskSortColumn.TASK_DATE, Sort.Direction.ASC);
+
+        for (int limit : new int[]{1, 10, TASKS}) {
+            statistics.clear();
+
+            List<TaskView> tasks = repository.findAfter(TaskSpecification.filter(null, null, null, null, null, userId, null, null),
+                    TaskSortColumn.TASK_DATE, Sort.Direction.ASC, cursor, limit);
+
+            assertEquals(Math.min(limit, TASKS - 10), tasks.size());
+            assertNotNull(tasks.get(0).getPriority());
+            assertEquals(1, statistics.getPrepareStatementCount(), "statements for limit " + limit);
+        }
+    }
+
+    @Test
+    void allTasksAreOneStatement() {
+        List<TaskView> tasks = repository.findViews(TaskSpecification.filter(null, null, null, null, null, userId, null, null),
+                Sort.by(Sort.Direction.ASC, "title"));
+
+        assertEquals(TASKS, tasks.size());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    // обход всех страниц через курсор, когда у части задач столбец сортировки null (в H2 null по умолчанию идут в начале, в PostgreSQL - в конце):
+    // каждая задача должна вернуться ровно один раз, null-значения - в конце при сортировке по возрастанию и в начале по убыванию
+    @Test
+    void cursorWalkReturnsEveryTaskOnceWithNullValues() {
+        User user = entityManager.find(User.class, userId);
+
+        for (int i = 0; i < NULL_TASKS; i++) { // без даты, приоритета и категории
+            Task task = new Task();
+            task.setTitle("no values " + i);
+            task.setCompleted(0);
+            task.setUser(user);
+            entityManager.persist(task);
+        }
+
+        entityManager.flush();
+        entityManager.clear();
+
+        for (TaskSortColumn column : new TaskSortColumn[]{TaskSortColumn.TASK_DATE, TaskSortColumn.PRIORITY, TaskSortColumn.CATEGORY}) {
+            for (Sort.Direction direction : Sort.Direction.values()) {
+
+                List<TaskView> all = new ArrayList<>();
+                TaskCursor cursor = null;
+
+                while (true) {
+                    List<TaskView> page = repository.findAfter(TaskSpecification.filter(null, null, null, null, null, userId, null, null),
+                            column, direction, cursor, 7); // размер страницы не кратен количеству задач - границы страниц попадают и на null-значения
+
+                    all.addAll(page);
+                    assertTrue(all.size() <= TASKS + NULL_TASKS, "rows repeat, " + column + " " + direction); // иначе цикл не закончится
+
+                    if (page.size() < 7) {
+                        break;
+                    }
+
+                    cursor = TaskCursor.decode(TaskCursor.of(page.get(page.size() - 1), column, direction).encode()); // как курсор приходит от клиента
+                }
+
+                String sort = column + " " + direction;
+
+                Set<Long> ids = new HashSet<>();
+                all.forEach(task -> ids.add(task.getId()));
+
+                assertEquals(TASKS + NULL_TASKS, all.size(), "rows, " + sort);
+                assertEquals(TASKS + NULL_TASKS, ids.size(), "distinct rows, " + sort);
+
+                int nulls = direction.isAscending() ? TASKS : 0; // где в списке должны быть null-значения
+                for (int i = 0; i < all.size(); i++) {
+                    boolean isNull = column.valueOf(all.get(i)) == null;
+                    assertEquals(i >= nulls && i < nulls + NULL_TASKS, isNull, "null position " + i + ", " + sort);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+package ru.javabegin.springboot.business.search;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Sort;
+import ru.javabegin.springboot.auth.entity.User;
+import ru.javabegin.springboot.business.entity.Task;
+import ru.javabegin.springboot.business.repository.TaskRepository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+
+Форма SQL запроса для каждого набора фильтров поиска задач (битовая маска из 6 фильтров - 64 варианта):
+в условие where попадают только переданные фильтры (и всегда - пользователь), без (:param is null or ...) и cast.
+У каждого набора фильтров - свой текст запроса (БД строит для него свой план и может выбрать подходящий индекс),
+а всего вариантов ровно 64 - подготовленные запросы кешируются.
+
+Планы и время выполнения на PostgreSQL (выбор индексов (user, category) / (user, task_date)) здесь не проверяются:
+план H2 ничего не говорит о плане PostgreSQL, это нужно сравнивать на копии рабочей БД (explain analyze для тех же запросов).
+
+SQL запросы перехватывает Hibernate (StatementInspector).
+
+*/
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector=ru.javabegin.springboot.business.search.TaskSpecificationTest$Statements")
+class TaskSpecificationTest {
+
+    private static final int FILTERS = 6;
+
+    // фильтр -> условие в SQL (Hibernate обращается к внешним ключам priority_id/category_id без join)
+    private static final String[] CONDITIONS = {
+            "like ?", // title
+            ".completed=?",
+            ".priority_id=?",
+            ".category_id=?",
+            ".task_date>=?",
+            ".task_date<=?"
+    };
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private TaskRepository repository;
+
+    private Long userId;
+
+
+    @BeforeEach
+    void setUp() {
+        User user = new User();
+        user.setUsername("user");
+        user.setEmail("user@test.ru");
+        user.setPassword("password");
+        entityManager.persist(user);
+
+        Task task = new Task();
+        task.setTitle("task");
+        task.setCompleted(1);
+        task.setTaskDate(new Date(1000));
+        task.setUser(user);
+        entityManager.persist(task);
+
+        entityManager.flush();
+        entityManager.clear();
+
+        userId = user.getId();
+    }
+
+
+    @Test
+    void onlySuppliedFiltersAreInQuery() {
+        Set<String> shapes = new HashSet<>();
+
+        for (int mask = 0; mask < 1 << FILTERS; mask++) {
+            Statements.SQL.clear();
+
+            repository.findViews(TaskSpecification.filter(
+                    has(mask, 0) ? "TASK" : null,
+                    null,
+                    has(mask, 1) ? 1 : null,
+                    has(mask, 2) ? 1L : null,
+                    has(mask, 3) ? 1L : null,
+                    userId,
+                    has(mask, 4) ? new Date(0) : null,
+                    has(mask, 5) ? new Date(2000) : null), Sort.by(Sort.Direction.ASC, "title"));
+
+            String where = where(taskQuery());
+
+            for (int filter = 0; filter < FILTERS; filter++) {
+                assertEquals(has(mask, filter), where.contains(CONDITIONS[filter]), "filter " + filter + ", mask " + mask + ": " + where);
+            }
+            assertEquals(Integer.bitCount(mask) + 1, count(where, '?'), "parameters, mask " + mask + ": " + where); // + пользователь
+            assertFalse(where.contains(" is null"), "mask " + mask + ": " + where);
+            assertFalse(where.contains("cast("), "mask " + mask + ": " + where);
+
+            shapes.add(where);
+        }
+
+        assertEquals(1 << FILTERS, shapes.size());
+    }
+
+    @Test
+    void filtersSelectTheRightTasks() {
+        assertEquals(1, repository.findViews(TaskSpecification.filter("TAS", null, 1, null, null, userId, new Date(0), new Date(2000)),
+                Sort.by("title")).size());
+        assertEquals(0, repository.findViews(TaskSpecification.filter(null, null, 0, null, null, userId, null, null),
+                Sort.by("title")).size());
+        assertEquals(0, repository.findViews(TaskSpecification.filter(null, null, null, null, null, userId, new Date(2000), null),
+                Sort.by("title")).size());
+    }
+
+
+    private static boolean has(int mask, int filter) {
+        return (mask & (1 << filter)) != 0;
+    }
+
+    // последний выполненный запрос к таблице task
+    private static String taskQuery() {
+        List<String> sql = new ArrayList<>(Statements.SQL);
+        Collections.reverse(sql);
+        for (String statement : sql) {
+            if (statement.contains(" from task ")) {
+                return statement;
+            }
+        }
+        throw new AssertionError("no query on task: " + sql);
+    }
+
+    // условие запроса: от where до order by
+    private static String where(String sql) {
+        int start = sql.indexOf(" where ");
+        int end = sql.indexOf(" order by ");
+        assertTrue(start >= 0, "no where: " + sql);
+        return sql.substring(start, end > start ? end : sql.length());
+    }
+
+    private static int count(String text, char c) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    // запоминает текст всех SQL запросов (Hibernate создает объект по имени класса)
+    public static class Statements implements StatementInspector {
+
+        static final List<String> SQL = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public String inspect(String sql) {
+            SQL.add(sql);
+            return sql;
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+package ru.javabegin.springboot.business.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.javabegin.springboot.auth.entity.User;
+import ru.javabegin.springboot.auth.repository.UserRepository;
+import ru.javabegin.springboot.business.cache.StatCache;
+import ru.javabegin.springboot.business.cache.TaskCountCache;
+import ru.javabegin.springboot.business.cache.TaskCounters;
+import ru.javabegin.springboot.business.cache.TaskReadCache;
+import ru.javabegin.springboot.business.entity.Category;
+import ru.javabegin.springboot.business.entity.Priority;
+import ru.javabegin.springboot.business.entity.Stat;
+import ru.javabegin.springboot.business.entity.Task;
+import ru.javabegin.springboot.business.objects.TaskBulkOperation;
+import ru.javabegin.springboot.business.objects.TaskBulkResult;
+import ru.javabegin.springboot.business.repository.CategoryRepository;
+import ru.javabegin.springboot.business.repository.PriorityRepository;
+import ru.javabegin.springboot.business.repository.StatRepository;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+
+Одновременное изменение одной задачи: счетчики (TaskCounters) считаются по старому состоянию задачи,
+поэтому вторая транзакция должна прочитать его только после коммита первой (строка блокируется - select for update).
+Иначе обе прочитали бы completed = 0 и обе посчитали бы "-uncompleted, +completed" - счетчики разошлись бы на 1.
+
+Изменения должны коммититься, поэтому тест выполняется без общей транзакции.
+
+*/
+
+@DataJpaTest(properties = "task.counters.flush-millis=60000") // сохраняем счетчики вручную (flush)
+@Import({TaskService.class, TaskCounters.class, StatCache.class, TaskCountCache.class, TaskReadCache.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class TaskServiceTest {
+
+    @Autowired
+    private TaskService taskService;
+
+    @Autowired
+    private TaskCounters counters;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private StatRepository statRepository;
+
+    @Autowired
+    private CategoryRepository categoryRepository;
+
+    @Autowired
+    private PriorityRepository priorityRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+    private ExecutorService executor;
+
+    private User user;
+    private Category category;
+    private Task task;
+
+
+    @BeforeEach
+    void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        executor = Executors.newFixedThreadPool(2);
+
+        transactionTemplate.execute(status -> {
+            user = new User();
+            user.setUsername("service" + System.nanoTime());
+            user.setEmail(user.getUsername() + "@test.ru");
+            user.setPassword("password");
+            userRepository.save(user);
+
+            Stat stat = new Stat();
+            stat.setId(user.getId());
+            stat.setUser(user);
+            statRepository.save(stat);
+
+            category = new Category();
+            category.setTitle("category");
+            category.setUser(user);
+            categoryRepository.save(category);
+            return null;
+        });
+
+        Task created = new Task();
+        created.setTitle("task");
+        created.setCompleted(0);
+        created.setCategory(category);
+        task = taskService.add(created, user);
+
+        counters.flush();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+
+    @Test
+    void concurrentUpdatesCountOldStateOnce() throws Exception {
+        CountDownLatch firstUpdated = new CountDownLatch(1);
+        CountDownLatch commitFirst = new CountDownLatch(1);
+
+        // первая транзакция изменила задачу и ждет перед коммитом
+        Future<?> first = executor.submit(() -> transactionTemplate.execute(status -> {
+            taskService.update(completed(), user.getId());
+            firstUpdated.countDown();
+            await(commitFirst);
+            return null;
+        }));
+
+        await(firstUpdated);
+
+        // вторая читает старое состояние задачи, пока первая не закоммитилась
+        Future<?> second = executor.submit(() -> taskService.update(completed(), user.getId()));
+
+        Thread.sleep(200); // вторая транзакция успевает дойти до чтения задачи (и ждет блокировку строки)
+        commitFirst.countDown();
+
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+
+        counters.flush();
+
+        Stat stat = statRepository.findByUser(user.getId());
+        assertEquals(1L, stat.getCompletedTotal());
+        assertEquals(0L, stat.getUncompletedTotal());
+
+        Category saved = categoryRepository.findById(category.getId()).get();
+        assertEquals(1L, saved.getCompletedCount());
+        assertEquals(0L, saved.getUncompletedCount());
+    }
+
+    // приоритет другого пользователя нельзя указать ни при добавлении, ни при изменении, ни в пакетной операции
+    @Test
+    void foreignPriorityIsRejected() {
+        Priority own = transactionTemplate.execute(status -> priority(user));
+        Priority foreign = transactionTemplate.execute(status -> {
+            User other = new User();
+            other.setUsername("other" + System.nanoTime());
+            other.setEmail(other.getUsername() + "@test.ru");
+            other.setPassword("password");
+            userRepository.save(other);
+            return priority(other);
+        });
+
+        Task added = new Task();
+        added.setTitle("foreign priority");
+        added.setCompleted(0);
+        added.setPriority(foreign);
+        assertThrows(NoSuchElementException.class, () -> taskService.add(added, user));
+
+        Task changed = completed();
+        changed.setPriority(foreign);
+        assertThrows(NoSuchElementException.class, () -> taskService.update(changed, user.getId()));
+
+        Map<Integer, TaskBulkOperation> operations = new LinkedHashMap<>();
+        operations.put(0, new TaskBulkOperation(TaskBulkOperation.Action.ADD, withPriority(foreign), null));
+        operations.put(1, new TaskBulkOperation(TaskBulkOperation.Action.ADD, withPriority(own), null));
+
+        List<TaskBulkResult> results = taskService.bulk(operations, user.getId());
+
+        assertFalse(results.get(0).isSuccess());
+        assertEquals("priorityId=" + foreign.getId() + " not found", results.get(0).getError());
+        assertTrue(results.get(1).isSuccess());
+    }
+
+
+    // новый объект задачи (как из body запроса) - отмечена выполненной
+    private Task completed() {
+        Task changed = new Task();
+        changed.setId(task.getId());
+        changed.setTitle(task.getTitle());
+        changed.setCompleted(1);
+        changed.setCategory(category);
+        return changed;
+    }
+
+    private Priority priority(User owner) {
+        Priority priority = new Priority();
+        priority.setTitle("priority");
+        priority.setColor("#fff");
+        priority.setUser(owner);
+        return priorityRepository.save(priority);
+    }
+
+    private static Task withPriority(Priority priority) {
+        Task task = new Task();
+        task.setTitle("bulk");
+        task.setCompleted(0);
+        task.setPriority(priority);
+        return task;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("timeout");
+            }
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}